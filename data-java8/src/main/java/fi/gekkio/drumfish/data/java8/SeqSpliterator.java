@@ -0,0 +1,89 @@
+package fi.gekkio.drumfish.data.java8;
+
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Spliterator over an index range of an immutable indexed sequence.
+ * <p>
+ * Splitting halves the index range in constant time, so splits are always balanced. Traversal seeks to the start of
+ * the range with a list iterator, which takes O(log n) time, and then walks the elements one by one.
+ *
+ * @param <T>
+ *            element type
+ */
+final class SeqSpliterator<T> implements Spliterator<T> {
+
+    static final int CHARACTERISTICS = ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+
+    private final List<T> list;
+    private int index;
+    private final int end;
+
+    private ListIterator<T> iterator;
+
+    SeqSpliterator(List<T> list, int index, int end) {
+        this.list = list;
+        this.index = index;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        Preconditions.checkNotNull(action, "action cannot be null");
+        if (index >= end)
+            return false;
+
+        if (iterator == null)
+            iterator = list.listIterator(index);
+        index++;
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super T> action) {
+        Preconditions.checkNotNull(action, "action cannot be null");
+        if (index >= end)
+            return;
+
+        ListIterator<T> it = iterator != null ? iterator : list.listIterator(index);
+        int remaining = end - index;
+        index = end;
+        iterator = null;
+        for (int i = 0; i < remaining; i++)
+            action.accept(it.next());
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        int mid = (index + end) >>> 1;
+        if (mid <= index)
+            return null;
+
+        SeqSpliterator<T> prefix = new SeqSpliterator<T>(list, index, mid);
+        index = mid;
+        iterator = null;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - index;
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return end - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+
+}
@@ -0,0 +1,50 @@
+package fi.gekkio.drumfish.data.java8;
+
+import java.util.Spliterator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Preconditions;
+
+import fi.gekkio.drumfish.data.IndexedSeq;
+import fi.gekkio.drumfish.data.RrbVector;
+
+/**
+ * Spliterators and streams for immutable indexed sequences.
+ * <p>
+ * The spliterators split by index, so parallel streams get balanced splits instead of the unbalanced splits produced
+ * by iterator-based spliterators. They report {@link Spliterator#ORDERED}, {@link Spliterator#SIZED},
+ * {@link Spliterator#SUBSIZED}, {@link Spliterator#IMMUTABLE} and {@link Spliterator#NONNULL}.
+ */
+public final class SeqStreams {
+
+    private SeqStreams() {
+    }
+
+    public static <T> Spliterator<T> spliterator(IndexedSeq<T> seq) {
+        Preconditions.checkNotNull(seq, "seq cannot be null");
+        return new SeqSpliterator<T>(seq.asList(), 0, seq.size());
+    }
+
+    public static <T> Stream<T> stream(IndexedSeq<T> seq) {
+        return StreamSupport.stream(spliterator(seq), false);
+    }
+
+    public static <T> Stream<T> parallelStream(IndexedSeq<T> seq) {
+        return StreamSupport.stream(spliterator(seq), true);
+    }
+
+    public static <T> Spliterator<T> spliterator(RrbVector<T> vector) {
+        Preconditions.checkNotNull(vector, "vector cannot be null");
+        return new SeqSpliterator<T>(vector.asList(), 0, vector.size());
+    }
+
+    public static <T> Stream<T> stream(RrbVector<T> vector) {
+        return StreamSupport.stream(spliterator(vector), false);
+    }
+
+    public static <T> Stream<T> parallelStream(RrbVector<T> vector) {
+        return StreamSupport.stream(spliterator(vector), true);
+    }
+
+}
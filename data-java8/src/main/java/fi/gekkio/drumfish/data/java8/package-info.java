@@ -0,0 +1,4 @@
+/**
+ * Java 8 integration for immutable persistent data structures.
+ */
+package fi.gekkio.drumfish.data.java8;
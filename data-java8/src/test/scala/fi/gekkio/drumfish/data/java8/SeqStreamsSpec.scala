@@ -0,0 +1,86 @@
+package fi.gekkio.drumfish.data.java8
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import java.util.Spliterator
+import java.util.function.BinaryOperator
+import java.util.function.Consumer
+import java.util.stream.Collectors
+import scala.collection.JavaConverters._
+import org.scalacheck.Gen
+import org.scalacheck.Prop
+
+import fi.gekkio.drumfish.data.{ IndexedSeq => DFIndexedSeq }
+import fi.gekkio.drumfish.data.RrbVector
+
+@RunWith(classOf[JUnitRunner])
+class SeqStreamsSpec extends Specification with ScalaCheck {
+
+  val sum = new BinaryOperator[Integer] {
+    def apply(a: Integer, b: Integer): Integer = a + b
+  }
+
+  def elementsOf(spliterator: Spliterator[Integer]): List[Int] = {
+    val buffer = List.newBuilder[Int]
+    spliterator.forEachRemaining(new Consumer[Integer] {
+      def accept(x: Integer) { buffer += x }
+    })
+    buffer.result()
+  }
+
+  /**
+   * Splits the spliterator recursively, and returns the elements of all the pieces in order.
+   */
+  def splitElements(spliterator: Spliterator[Integer], depth: Int): List[Int] = {
+    val size = spliterator.estimateSize()
+    val prefix = if (depth > 0) spliterator.trySplit() else null
+    if (prefix == null) elementsOf(spliterator)
+    else {
+      val balanced = math.abs(prefix.estimateSize() - spliterator.estimateSize()) <= 1 &&
+        prefix.estimateSize() + spliterator.estimateSize() == size
+      if (!balanced) sys.error("unbalanced split")
+      splitElements(prefix, depth - 1) ++ splitElements(spliterator, depth - 1)
+    }
+  }
+
+  def is =
+    "SeqStreams specification" ^
+      "IndexedSeq stream must contain the exact same elements in the same order" ! Prop.forAll(Gen.choose(0, 2000)) { n: Int =>
+        val elements = (0 until n).toList
+        val seq = DFIndexedSeq.of(elements.map(Int.box).asJava)
+
+        SeqStreams.stream(seq).collect(Collectors.toList()).asScala.toList.map(_.intValue) must be_==(elements)
+        SeqStreams.parallelStream(seq).collect(Collectors.toList()).asScala.toList.map(_.intValue) must be_==(elements)
+        SeqStreams.parallelStream(seq).reduce(0, sum).intValue must be_==(elements.sum)
+      } ^
+      "RrbVector stream must contain the exact same elements in the same order" ! Prop.forAll(Gen.choose(0, 2000)) { n: Int =>
+        val elements = (0 until n).toList
+        val vector = RrbVector.of(elements.map(Int.box).asJava)
+
+        SeqStreams.stream(vector).collect(Collectors.toList()).asScala.toList.map(_.intValue) must be_==(elements)
+        SeqStreams.parallelStream(vector).collect(Collectors.toList()).asScala.toList.map(_.intValue) must be_==(elements)
+      } ^
+      "spliterator splits must be balanced and keep the elements in order" ! Prop.forAll(Gen.choose(0, 2000), Gen.choose(0, 12)) { (n: Int, depth: Int) =>
+        val elements = (0 until n).toList
+        val spliterator = SeqStreams.spliterator(DFIndexedSeq.of(elements.map(Int.box).asJava))
+
+        spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED | Spliterator.IMMUTABLE) must beTrue
+        spliterator.getExactSizeIfKnown() must be_==(n.toLong)
+        splitElements(spliterator, depth) must be_==(elements)
+      } ^
+      "spliterator must support splitting after partial traversal" ! Prop.forAll(Gen.choose(0, 500), Gen.choose(0, 500)) { (n: Int, advance: Int) =>
+        val elements = (0 until n).toList
+        val spliterator = SeqStreams.spliterator(DFIndexedSeq.of(elements.map(Int.box).asJava))
+
+        val consumed = List.newBuilder[Int]
+        val consumer = new Consumer[Integer] {
+          def accept(x: Integer) { consumed += x }
+        }
+        (0 until advance).foreach { _ => spliterator.tryAdvance(consumer) }
+
+        consumed.result() ++ splitElements(spliterator, 3) must be_==(elements)
+      }
+
+}
@@ -0,0 +1,290 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+import fi.gekkio.drumfish.lang.Monoids;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable byte sequence.
+ * <p>
+ * Bytes are stored in read-only {@link ByteBuffer} slices, which are kept in a finger tree measured by byte count.
+ * Building a rope from buffers, slicing and concatenation never copy bytes: slicing only creates new buffer views at
+ * the slice boundaries. Byte access, slicing and concatenation take logarithmic time, and the contents can be written
+ * to a {@link GatheringByteChannel} without copying them into a single buffer.
+ * <p>
+ * A rope only shares the buffers given to it, so the contents of those buffers must not be modified afterwards.
+ */
+public class ByteRope {
+
+    /**
+     * Maximum number of buffers passed to a single gathering write.
+     */
+    static final int WRITE_BATCH_SIZE = 64;
+
+    private static final FingerTreeFactory<Long, ByteBuffer> FACTORY = FingerTreeFactory.create(Monoids.longSum(),
+            BufferLength.INSTANCE);
+
+    private static final ByteRope EMPTY = new ByteRope(FACTORY.tree());
+
+    private final FingerTree<Long, ByteBuffer> tree;
+
+    private ByteRope(FingerTree<Long, ByteBuffer> tree) {
+        this.tree = tree;
+    }
+
+    public static ByteRope empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns a rope containing the remaining bytes of the given buffers. The buffers are not copied, and their
+     * positions and limits are not modified.
+     * 
+     * @param buffers
+     *            buffers
+     * @return rope
+     */
+    public static ByteRope of(ByteBuffer... buffers) {
+        val slices = new ArrayList<ByteBuffer>(buffers.length);
+        for (ByteBuffer buffer : buffers) {
+            Preconditions.checkNotNull(buffer, "buffer cannot be null");
+            if (buffer.hasRemaining())
+                slices.add(buffer.asReadOnlyBuffer().slice());
+        }
+        return new ByteRope(FACTORY.tree(slices));
+    }
+
+    /**
+     * Returns a rope containing the given bytes. The array is not copied.
+     * 
+     * @param bytes
+     *            bytes
+     * @return rope
+     */
+    public static ByteRope wrap(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    public long length() {
+        return tree.measure();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns the byte at the given index.
+     * 
+     * @param index
+     *            index
+     * @return byte
+     */
+    public byte get(long index) {
+        if (index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("index (" + index + ") must be between 0 and " + (length() - 1));
+        val split = tree.split(new LengthGreaterThan(index), 0L);
+        return split.pivot.get((int) (index - split.left.measure()));
+    }
+
+    /**
+     * Returns the bytes between the given indexes.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return rope
+     */
+    public ByteRope slice(long from, long to) {
+        checkPositionIndexes(from, to, length());
+        if (from == 0 && to == length())
+            return this;
+        val head = splitTree(tree, to).a;
+        return new ByteRope(splitTree(head, from).b);
+    }
+
+    /**
+     * Returns a rope containing the first n bytes of this rope.
+     * 
+     * @param n
+     *            number of bytes, between 0 and length (inclusive)
+     * @return rope
+     */
+    public ByteRope take(long n) {
+        return slice(0, n);
+    }
+
+    /**
+     * Returns a rope without the first n bytes of this rope.
+     * 
+     * @param n
+     *            number of bytes, between 0 and length (inclusive)
+     * @return rope
+     */
+    public ByteRope drop(long n) {
+        return slice(n, length());
+    }
+
+    public ByteRope concat(ByteRope other) {
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+        return new ByteRope(tree.concat(other.tree));
+    }
+
+    /**
+     * Returns a rope with the remaining bytes of the given buffer appended. The buffer is not copied.
+     * 
+     * @param buffer
+     *            buffer
+     * @return rope
+     */
+    public ByteRope append(ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer, "buffer cannot be null");
+        if (!buffer.hasRemaining())
+            return this;
+        return new ByteRope(tree.append(buffer.asReadOnlyBuffer().slice()));
+    }
+
+    /**
+     * Returns a rope with the remaining bytes of the given buffer prepended. The buffer is not copied.
+     * 
+     * @param buffer
+     *            buffer
+     * @return rope
+     */
+    public ByteRope prepend(ByteBuffer buffer) {
+        Preconditions.checkNotNull(buffer, "buffer cannot be null");
+        if (!buffer.hasRemaining())
+            return this;
+        return new ByteRope(tree.prepend(buffer.asReadOnlyBuffer().slice()));
+    }
+
+    /**
+     * Writes the contents of this rope to the given channel with gathering writes, without copying the bytes. Writing
+     * stops when all bytes have been written, or when the channel accepts no more bytes, which can happen with
+     * non-blocking channels.
+     * 
+     * @param channel
+     *            channel
+     * @return the bytes that were not written, which is empty if all bytes were written
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public ByteRope writeTo(GatheringByteChannel channel) throws IOException {
+        Preconditions.checkNotNull(channel, "channel cannot be null");
+        val batch = new ByteBuffer[WRITE_BATCH_SIZE];
+        val iterator = tree.iterator();
+        long written = 0;
+        while (iterator.hasNext()) {
+            int count = 0;
+            while (count < batch.length && iterator.hasNext())
+                batch[count++] = iterator.next().duplicate();
+            int offset = 0;
+            while (offset < count) {
+                long bytes = channel.write(batch, offset, count - offset);
+                if (bytes <= 0)
+                    return drop(written);
+                written += bytes;
+                while (offset < count && !batch[offset].hasRemaining())
+                    offset++;
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Returns the read-only buffers of this rope. The buffers are independent views, so their positions can be changed
+     * freely.
+     * 
+     * @return buffers
+     */
+    public ByteBuffer[] toByteBuffers() {
+        val buffers = new ArrayList<ByteBuffer>();
+        for (ByteBuffer buffer : tree)
+            buffers.add(buffer.duplicate());
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    /**
+     * Copies the contents of this rope to a new array.
+     * 
+     * @return bytes
+     */
+    public byte[] toByteArray() {
+        long length = length();
+        Preconditions.checkState(length <= Integer.MAX_VALUE, "rope is too large for an array");
+        val bytes = new byte[(int) length];
+        int offset = 0;
+        for (ByteBuffer buffer : tree) {
+            int remaining = buffer.remaining();
+            buffer.duplicate().get(bytes, offset, remaining);
+            offset += remaining;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteRope(length=" + length() + ")";
+    }
+
+    private static void checkPositionIndexes(long start, long end, long size) {
+        if (start < 0 || end < start || end > size)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") must be within [0, " + size + ")");
+    }
+
+    /**
+     * Splits the given tree so that the left tree contains exactly the given number of bytes. The buffer that spans
+     * the split point is divided into two views.
+     */
+    private static Tuple2<FingerTree<Long, ByteBuffer>, FingerTree<Long, ByteBuffer>> splitTree(
+            FingerTree<Long, ByteBuffer> tree, long index) {
+        if (index == 0)
+            return Tuple2.of(FACTORY.tree(), tree);
+        if (index == tree.measure())
+            return Tuple2.of(tree, FACTORY.tree());
+        val split = tree.split(new LengthGreaterThan(index), 0L);
+        int offset = (int) (index - split.left.measure());
+        if (offset == 0)
+            return Tuple2.of(split.left, split.right.prepend(split.pivot));
+        val left = split.pivot.duplicate();
+        left.limit(offset);
+        val right = split.pivot.duplicate();
+        right.position(offset);
+        return Tuple2.of(split.left.append(left.slice()), split.right.prepend(right.slice()));
+    }
+
+    private static final class BufferLength implements Function<ByteBuffer, Long> {
+        private static final BufferLength INSTANCE = new BufferLength();
+
+        @Override
+        public Long apply(ByteBuffer input) {
+            return (long) input.remaining();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class LengthGreaterThan implements Predicate<Long> {
+        private final long index;
+
+        @Override
+        public boolean apply(Long input) {
+            return input > index;
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.Serializable;
+
+import lombok.experimental.Value;
+
+/**
+ * Range of elements that differs between two sequences: the elements from {@code from} (inclusive) to {@code to}
+ * (exclusive) in the first sequence were replaced by the elements from {@code otherFrom} (inclusive) to
+ * {@code otherTo} (exclusive) in the other sequence. Either range can be empty.
+ */
+@Value
+public class Edit implements Serializable {
+    private static final long serialVersionUID = 6407735361904857219L;
+
+    public final int from;
+    public final int to;
+    public final int otherFrom;
+    public final int otherTo;
+}
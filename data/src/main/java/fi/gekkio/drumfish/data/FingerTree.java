@@ -1,8 +1,15 @@
 package fi.gekkio.drumfish.data;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -20,21 +27,24 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
 
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit1;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit2;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit3;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit4;
-import fi.gekkio.drumfish.data.FingerTreeNode.Node3;
-import fi.gekkio.drumfish.data.FingerTreeNode.NodeIterator;
+import fi.gekkio.drumfish.data.FingerTreeNode.Node3Base;
+import fi.gekkio.drumfish.data.FingerTreeNode.NodeEffect;
 import fi.gekkio.drumfish.data.FingerTreeNode.NodeLeftFold;
 import fi.gekkio.drumfish.data.FingerTreeNode.NodeMapper;
 import fi.gekkio.drumfish.data.FingerTreeNode.NodePrinter;
-import fi.gekkio.drumfish.data.FingerTreeNode.NodeReverseIterator;
 import fi.gekkio.drumfish.data.FingerTreeNode.NodeReverser;
+import fi.gekkio.drumfish.lang.Effect;
 import fi.gekkio.drumfish.lang.Function2;
 import fi.gekkio.drumfish.lang.LazyIterator;
+import fi.gekkio.drumfish.lang.Monoid;
 import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.ToIntFunction;
 import fi.gekkio.drumfish.lang.Tuple2;
 
 public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
@@ -314,6 +324,49 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
 
     public abstract T getLastUnsafe();
 
+    /**
+     * Returns this tree without its first element. Unlike {@link #viewL()}, the resulting tree is built eagerly.
+     * 
+     * @return new finger tree
+     * @throws UnsupportedOperationException
+     *             if this tree is empty
+     */
+    public abstract FingerTree<V, T> tail();
+
+    /**
+     * Returns this tree without its last element. Unlike {@link #viewR()}, the resulting tree is built eagerly.
+     * 
+     * @return new finger tree
+     * @throws UnsupportedOperationException
+     *             if this tree is empty
+     */
+    public abstract FingerTree<V, T> init();
+
+    /**
+     * Works like {@link #viewL()}, but the remaining tree is built eagerly, so no lazy tree is allocated and it needs no
+     * synchronization when it is first used. This is faster when the remaining tree is always used, e.g. when the tree is
+     * used as a queue.
+     * 
+     * @return left view
+     */
+    public ViewL<V, T> popHead() {
+        if (isEmpty())
+            return ViewL.empty();
+        return new ViewL.FullL<V, T>(getHeadUnsafe(), tail());
+    }
+
+    /**
+     * Works like {@link #viewR()}, but the remaining tree is built eagerly, so no lazy tree is allocated and it needs no
+     * synchronization when it is first used.
+     * 
+     * @return right view
+     */
+    public ViewR<V, T> popLast() {
+        if (isEmpty())
+            return ViewR.empty();
+        return new ViewR.FullR<V, T>(init(), getLastUnsafe());
+    }
+
     /**
      * Returns an iterator that iterates this tree in reverse order (e.g. last to first).
      * 
@@ -342,6 +395,48 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
     @CheckForNull
     public abstract <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f);
 
+    /**
+     * Passes all elements to the given effect from left to right. The tree is traversed recursively, so no iterators
+     * are allocated.
+     * 
+     * @param e
+     *            effect
+     */
+    public abstract void forEach(Effect<? super T> e);
+
+    /**
+     * Maps all elements with the given function, and combines the results from left to right with the given monoid.
+     * 
+     * @param monoid
+     *            monoid
+     * @param f
+     *            mapper function
+     * @return combined result, or the monoid identity if this tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M foldMap(Monoid<M> monoid, Function<? super T, M> f) {
+        return TreeFolds.foldMap(null, this, 1, monoid, (Function<Object, M>) f);
+    }
+
+    /**
+     * Works like {@link #foldMap(Monoid, Function)}, but large trees are split along their structure into pieces that
+     * are folded in parallel by submitting tasks to the given executor. A {@code ForkJoinPool} can be used on Java 7+.
+     * Small trees are always folded in the calling thread.
+     * 
+     * @param executor
+     *            executor used for folding pieces of large trees
+     * @param monoid
+     *            monoid, which must be safe to use from multiple threads
+     * @param f
+     *            mapper function, which must be safe to use from multiple threads
+     * @return combined result, or the monoid identity if this tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M parallelFoldMap(ExecutorService executor, Monoid<M> monoid, Function<? super T, M> f) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        return TreeFolds.foldMap(executor, this, 1, monoid, (Function<Object, M>) f);
+    }
+
     /**
      * Returns a tree which contains the left sequence of elements that pass the predicate.
      * 
@@ -364,6 +459,36 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
         return split(p).b;
     }
 
+    /**
+     * Returns the measure of the elements that {@link #takeUntil(Predicate)} would return, without building a new tree.
+     * Takes logarithmic time.
+     * 
+     * @param p
+     *            monotonic predicate
+     * @return measure of the prefix
+     */
+    public V prefixMeasure(Predicate<? super V> p) {
+        Preconditions.checkNotNull(p, "predicate cannot be null");
+        return new FingerTreeRange<V, T>(getFactory(), null, p).measure(this);
+    }
+
+    /**
+     * Returns the measure of the elements that {@code takeUntil(to).dropUntil(from)} would return, without building new
+     * trees. Cached measures are used for all parts of the tree that are entirely inside the range, so this takes
+     * logarithmic time.
+     * 
+     * @param from
+     *            monotonic predicate that is passed by the accumulated measure of the first element in the range
+     * @param to
+     *            monotonic predicate that is passed by the accumulated measure of the first element after the range
+     * @return measure of the range
+     */
+    public V measureRange(Predicate<? super V> from, Predicate<? super V> to) {
+        Preconditions.checkNotNull(from, "from cannot be null");
+        Preconditions.checkNotNull(to, "to cannot be null");
+        return new FingerTreeRange<V, T>(getFactory(), from, to).measure(this);
+    }
+
     /**
      * Finds the first element that passes the given predicate.
      * 
@@ -373,6 +498,29 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
      */
     public abstract Option<T> find(Predicate<? super V> p);
 
+    /**
+     * Returns a cursor that is positioned before the first element of this tree.
+     * 
+     * @return cursor
+     */
+    public FingerTreeCursor<V, T> cursor() {
+        return new FingerTreeCursor<V, T>(this);
+    }
+
+    /**
+     * Returns a cursor that is positioned before the first element that makes the accumulated measure pass the given
+     * predicate. If there is no such element, the cursor is positioned after the last element.
+     * 
+     * @param p
+     *            predicate
+     * @return cursor
+     */
+    public FingerTreeCursor<V, T> cursor(Predicate<? super V> p) {
+        val cursor = new FingerTreeCursor<V, T>(this);
+        cursor.seek(p);
+        return cursor;
+    }
+
     /**
      * Returns a lazy view of this tree.
      * 
@@ -396,6 +544,28 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
      */
     public abstract boolean elementsEqual(FingerTree<?, ?> other);
 
+    /**
+     * Returns the ranges of elements that differ between this tree and the given tree, in order. Parts of the trees
+     * that are shared (e.g. because one tree was derived from the other) are skipped without looking at their
+     * elements if they have the same position in both trees. If elements were only replaced, the cost is proportional
+     * to the number of changes times the depth of the trees, but all elements between the first and the last change
+     * that inserts or removes elements are compared.
+     * <p>
+     * The common prefix and suffix are never reported as changed, but the result is not guaranteed to be minimal:
+     * elements between two edits that shifted positions are reported as changed.
+     * 
+     * @param other
+     *            other finger tree
+     * @param size
+     *            function that returns the number of elements for a measure
+     * @return changed ranges, or an empty list if the trees contain equal elements
+     */
+    public List<Edit> diff(FingerTree<V, T> other, ToIntFunction<? super V> size) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        Preconditions.checkNotNull(size, "size cannot be null");
+        return new FingerTreeDiff<V, T>(getFactory(), size).diff(this, other);
+    }
+
     /**
      * Prints the internal structure of the tree using the elements' toString() method.
      * 
@@ -438,6 +608,53 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
 
     protected abstract void print(StringBuilder sb, String padding, Printer<? super T> printer);
 
+    /**
+     * Serializes this tree as its factory, element count and elements instead of the internal node graph. The tree is
+     * rebuilt in linear time when it is deserialized.
+     */
+    Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm<V, T>(this);
+    }
+
+    private static final class SerializedForm<V, T> implements Serializable {
+        private static final long serialVersionUID = -2795108532667461847L;
+
+        private transient FingerTree<V, T> tree;
+
+        SerializedForm(FingerTree<V, T> tree) {
+            this.tree = tree;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            val elements = Iterables.toArray(tree, Object.class);
+            out.writeObject(tree.getFactory());
+            out.writeInt(elements.length);
+            for (Object e : elements)
+                out.writeObject(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            val factory = (FingerTreeFactory<V, T>) in.readObject();
+            int count = in.readInt();
+            if (factory == null || count < 0)
+                throw new InvalidObjectException("Invalid serialized finger tree");
+            val elements = new Object[count];
+            for (int i = 0; i < count; i++) {
+                elements[i] = in.readObject();
+                if (elements[i] == null)
+                    throw new InvalidObjectException("element cannot be null");
+            }
+            tree = factory.build(elements, 0, count, null);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return tree;
+        }
+    }
+
     static class ToStringPrinter<T> implements Printer<T> {
 
         public static final ToStringPrinter<?> INSTANCE = new ToStringPrinter<Object>();
@@ -536,6 +753,16 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             throw new UnsupportedOperationException("Cannot get the last element from an empty tree");
         }
 
+        @Override
+        public FingerTree<V, T> tail() {
+            throw new UnsupportedOperationException("Cannot get the tail of an empty tree");
+        }
+
+        @Override
+        public FingerTree<V, T> init() {
+            throw new UnsupportedOperationException("Cannot get the init of an empty tree");
+        }
+
         @Override
         public Split<V, T> split(Predicate<? super V> p, V accum) {
             throw new UnsupportedOperationException("Cannot split an empty finger tree");
@@ -614,6 +841,10 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return initial;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+        }
+
         @Override
         public Option<T> find(Predicate<? super V> p) {
             return Option.none();
@@ -626,7 +857,7 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
 
         @Getter
         private final FingerTreeFactory<V, T> factory;
-        private final T a;
+        final T a;
 
         @Override
         public boolean isEmpty() {
@@ -698,6 +929,16 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return a;
         }
 
+        @Override
+        public FingerTree<V, T> tail() {
+            return factory.emptyTree;
+        }
+
+        @Override
+        public FingerTree<V, T> init() {
+            return factory.emptyTree;
+        }
+
         @Override
         public Split<V, T> split(Predicate<? super V> p, V accum) {
             return new Split<V, T>(factory.emptyTree, a, factory.emptyTree);
@@ -792,6 +1033,11 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return f.apply(initial, a);
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+        }
+
         @Override
         public Option<T> find(Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -808,9 +1054,9 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
         @Getter
         private final FingerTreeFactory<V, T> factory;
         private final V measure;
-        private final FingerTreeDigit<V, T> left;
-        private final FingerTree<V, FingerTreeNode<V, T>> middle;
-        private final FingerTreeDigit<V, T> right;
+        final FingerTreeDigit<V, T> left;
+        final FingerTree<V, FingerTreeNode<V, T>> middle;
+        final FingerTreeDigit<V, T> right;
 
         private transient int hashCode;
 
@@ -847,8 +1093,8 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
                         return factory.deep(factory.digit(dl.a, dr.a, dr.b), factory.nodeFactory().emptyTree, factory.digit(dr.c, dr.d, value));
                     } else if (middle.isSingle()) {
                         val m = middle.getHeadUnsafe();
-                        if (m instanceof Node3) {
-                            val mn = (Node3<V, T>) m;
+                        if (m instanceof Node3Base) {
+                            val mn = (Node3Base<V, T>) m;
                             return factory.deep(factory.digit(dl.a, mn.a, mn.b), factory.nodeFactory().tree(factory.node(mn.c, dr.a, dr.b)),
                                     factory.digit(dr.c, dr.d, value));
                         }
@@ -864,12 +1110,24 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
 
         @Override
         public Iterator<T> iterator() {
-            return Iterators.concat(left.iterator(), new NodeIterator<T>(middle.iterator()), right.iterator());
+            return cursor();
         }
 
         @Override
         public Iterator<T> reverseIterator() {
-            return Iterators.concat(right.reverseIterator(), new NodeReverseIterator<T>(middle.reverseIterator()), left.reverseIterator());
+            val cursor = cursor();
+            cursor.seekToEnd();
+            return new UnmodifiableIterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return cursor.hasPrevious();
+                }
+
+                @Override
+                public T next() {
+                    return cursor.previous();
+                }
+            };
         }
 
         @Override
@@ -897,6 +1155,24 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return right.getLast();
         }
 
+        @Override
+        public FingerTree<V, T> tail() {
+            if (!(left instanceof Digit1))
+                return factory.deep(left.getTail(factory), middle, right);
+            if (middle.isEmpty())
+                return right.toTree(factory);
+            return factory.deep(factory.mappend(middle, right), middle.getHeadUnsafe().toDigit(factory), middle.tail(), right);
+        }
+
+        @Override
+        public FingerTree<V, T> init() {
+            if (!(right instanceof Digit1))
+                return factory.deep(left, middle, right.getInit(factory));
+            if (middle.isEmpty())
+                return left.toTree(factory);
+            return factory.deep(factory.mappend(left, middle), left, middle.init(), middle.getLastUnsafe().toDigit(factory));
+        }
+
         @Override
         public Split<V, T> split(Predicate<? super V> p, V accum) {
             FingerTree<V, T> left;
@@ -1068,7 +1344,7 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
                 @Override
                 public T getLastUnsafe() {
                     Deep<V, T> me = Deep.this;
-                    return me.right.getLast();
+                    return me.right.getInit(factory).getLast();
                 }
 
                 @Override
@@ -1565,7 +1841,7 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
                 return elementsEqual(other.unwrap());
             if (!(other instanceof Deep))
                 return false;
-            return Iterables.elementsEqual(this, other);
+            return new FingerTreeDiff<V, T>(factory, null).elementsEqual(this, other);
         }
 
         @Override
@@ -1588,6 +1864,13 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            left.forEach(e);
+            middle.forEach(new NodeEffect<V, T>(e));
+            right.forEach(e);
+        }
+
         @Override
         public Option<T> find(Predicate<? super V> p) {
             if (p.apply(left.measure()))
@@ -1610,14 +1893,21 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
     static abstract class LazyTree<V, T> extends FingerTree<V, T> {
         private static final long serialVersionUID = -6236367981343796216L;
 
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<LazyTree, FingerTree> TREE = AtomicReferenceFieldUpdater
+                .newUpdater(LazyTree.class, FingerTree.class, "tree");
+
         private volatile FingerTree<V, T> tree;
 
+        /**
+         * Returns the constructed tree. Construction is pure, so concurrent callers may construct the tree more than
+         * once without locking, but only the first published tree is ever returned.
+         */
         protected FingerTree<V, T> unwrap() {
-            if (tree == null)
-                synchronized (this) {
-                    if (tree == null)
-                        tree = constructTree().unwrap();
-                }
+            val current = tree;
+            if (current != null)
+                return current;
+            TREE.compareAndSet(this, null, constructTree().unwrap());
             return tree;
         }
 
@@ -1689,6 +1979,16 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return unwrap().getLastUnsafe();
         }
 
+        @Override
+        public FingerTree<V, T> tail() {
+            return unwrap().tail();
+        }
+
+        @Override
+        public FingerTree<V, T> init() {
+            return unwrap().init();
+        }
+
         @Override
         public T getHeadUnsafe() {
             return unwrap().getHeadUnsafe();
@@ -1785,6 +2085,11 @@ public abstract class FingerTree<V, T> implements Iterable<T>, Serializable {
             return unwrap().foldLeft(initial, f);
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            unwrap().forEach(e);
+        }
+
         @Override
         public Option<T> find(Predicate<? super V> p) {
             return unwrap().find(p);
@@ -16,6 +16,7 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
 
 import fi.gekkio.drumfish.data.FingerTree.Printer;
+import fi.gekkio.drumfish.lang.Effect;
 import fi.gekkio.drumfish.lang.Function2;
 import fi.gekkio.drumfish.lang.Option;
 
@@ -33,6 +34,10 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
 
     public abstract <U, O> FingerTreeDigit<U, O> map(FingerTreeFactory<U, O> factory, Function<? super T, O> f);
 
+    public abstract int size();
+
+    public abstract T get(int index);
+
     public abstract T getHead();
 
     public abstract FingerTreeDigit<V, T> getTail(FingerTreeFactory<V, T> factory);
@@ -57,6 +62,8 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
 
     public abstract <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f);
 
+    public abstract void forEach(Effect<? super T> e);
+
     public abstract Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p);
 
     @Value
@@ -109,6 +116,21 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return Iterators.singletonIterator(a);
         }
 
+        @Override
+        public int size() {
+            return 1;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
         @Override
         public T getHead() {
             return a;
@@ -170,6 +192,11 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -221,6 +248,23 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return Iterators.forArray(b, a);
         }
 
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
         @Override
         public T getHead() {
             return a;
@@ -291,6 +335,12 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -345,6 +395,25 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return Iterators.forArray(c, b, a);
         }
 
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            case 2:
+                return c;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
         @Override
         public T getHead() {
             return a;
@@ -424,6 +493,13 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+            e.apply(c);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -480,6 +556,27 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return Iterators.forArray(d, c, b, a);
         }
 
+        @Override
+        public int size() {
+            return 4;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            case 2:
+                return c;
+            case 3:
+                return d;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
         @Override
         public T getHead() {
             return a;
@@ -568,6 +665,14 @@ abstract class FingerTreeDigit<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+            e.apply(c);
+            e.apply(d);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -2,12 +2,23 @@ package fi.gekkio.drumfish.data;
 
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.val;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
 import fi.gekkio.drumfish.data.FingerTree.Deep;
 import fi.gekkio.drumfish.data.FingerTree.Empty;
@@ -16,6 +27,8 @@ import fi.gekkio.drumfish.data.FingerTreeDigit.Digit1;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit2;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit3;
 import fi.gekkio.drumfish.data.FingerTreeDigit.Digit4;
+import fi.gekkio.drumfish.data.FingerTreeNode.DerivedNode2;
+import fi.gekkio.drumfish.data.FingerTreeNode.DerivedNode3;
 import fi.gekkio.drumfish.data.FingerTreeNode.Node2;
 import fi.gekkio.drumfish.data.FingerTreeNode.Node3;
 import fi.gekkio.drumfish.lang.Monoid;
@@ -24,6 +37,11 @@ import fi.gekkio.drumfish.lang.Monoid;
 public class FingerTreeFactory<V, T> implements Serializable {
     private static final long serialVersionUID = -3600209950347929148L;
 
+    /**
+     * Minimum number of elements in a layer before parallel tree construction splits node packing into tasks.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 15;
+
     /**
      * Creates a new factory that uses the given monoid and measurement function.
      * 
@@ -34,16 +52,37 @@ public class FingerTreeFactory<V, T> implements Serializable {
      * @return factory
      */
     public static <V, T> FingerTreeFactory<V, T> create(Monoid<V> monoid, Function<? super T, V> measurement) {
-        return new FingerTreeFactory<V, T>(monoid, measurement);
+        return new FingerTreeFactory<V, T>(monoid, measurement, false);
+    }
+
+    /**
+     * Creates a new factory that uses the given monoid and measurement function, and builds trees that use less memory.
+     * <p>
+     * Nodes that contain elements do not store their measure, but combine the element measures again every time the
+     * measure is needed, so splits, lookups and other operations that walk the tree call the measurement function and
+     * the monoid more often. This only pays off if both are cheap and do not allocate, e.g. when counting elements.
+     * 
+     * @param monoid
+     *            monoid
+     * @param measurement
+     *            measurement function
+     * @return factory
+     */
+    public static <V, T> FingerTreeFactory<V, T> createCompact(Monoid<V> monoid, Function<? super T, V> measurement) {
+        return new FingerTreeFactory<V, T>(monoid, measurement, true);
     }
 
     @Getter
     private final Monoid<V> monoid;
     @Getter
     private final Function<? super T, V> measurement;
+    /**
+     * True if nodes that contain elements derive their measure instead of storing it.
+     */
+    private final boolean compact;
 
-    final FingerTree<V, T> emptyTree = new EmptyTree();
-    private volatile FingerTreeFactory<V, FingerTreeNode<V, T>> nodeFactory;
+    final transient FingerTree<V, T> emptyTree = new EmptyTree();
+    private transient volatile FingerTreeFactory<V, FingerTreeNode<V, T>> nodeFactory;
 
     /**
      * Returns an empty finger tree.
@@ -68,32 +107,50 @@ public class FingerTreeFactory<V, T> implements Serializable {
 
     /**
      * Returns a finger tree containing the given elements.
+     * <p>
+     * The tree is built bottom-up in linear time by packing the elements directly into nodes and digits.
      * 
      * @param elements
      *            elements
      * @return finger tree
      */
     public FingerTree<V, T> tree(T... elements) {
-        FingerTree<V, T> tree = emptyTree;
-        for (T a : elements) {
-            tree = tree.append(a);
-        }
-        return tree;
+        checkElements(elements);
+        return build(elements, 0, elements.length, null);
     }
 
     /**
      * Returns a finger tree containing the given elements.
+     * <p>
+     * The tree is built bottom-up in linear time by packing the elements directly into nodes and digits.
      * 
      * @param elements
      *            elements
      * @return finger tree
      */
     public FingerTree<V, T> tree(Iterable<T> elements) {
-        FingerTree<V, T> tree = emptyTree;
-        for (T a : elements) {
-            tree = tree.append(a);
-        }
-        return tree;
+        val array = Iterables.toArray(elements, Object.class);
+        checkElements(array);
+        return build(array, 0, array.length, null);
+    }
+
+    /**
+     * Returns a finger tree containing the given elements.
+     * <p>
+     * Works like {@link #tree(Object...)}, but large node layers are packed in parallel by submitting tasks to the
+     * given executor. A {@code ForkJoinPool} can be used on Java 7+. Small arrays are always built in the calling
+     * thread.
+     * 
+     * @param executor
+     *            executor used for packing large node layers
+     * @param elements
+     *            elements
+     * @return finger tree
+     */
+    public FingerTree<V, T> parallelTree(ExecutorService executor, T[] elements) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        checkElements(elements);
+        return build(elements, 0, elements.length, executor);
     }
 
     /**
@@ -122,12 +179,20 @@ public class FingerTreeFactory<V, T> implements Serializable {
         if (nodeFactory == null) {
             synchronized (this) {
                 if (nodeFactory == null)
-                    nodeFactory = new FingerTreeFactory<V, FingerTreeNode<V, T>>(monoid, FtNodeMeasurement.<V, T> instance());
+                    nodeFactory = new FingerTreeFactory<V, FingerTreeNode<V, T>>(monoid, new NodeMeasurement<V, T>(this), false);
             }
         }
         return nodeFactory;
     }
 
+    /**
+     * Only the monoid, the measurement function and the node layout are serialized, so the empty tree and node factory
+     * are recreated.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return new FingerTreeFactory<V, T>(monoid, measurement, compact);
+    }
+
     V mempty() {
         return monoid.mempty();
     }
@@ -231,11 +296,133 @@ public class FingerTreeFactory<V, T> implements Serializable {
         return left.concat(node(a, b, c), node(d, e, f), node(g, h, i), node(j, k, l), right);
     }
 
+    private static void checkElements(Object[] elements) {
+        for (Object e : elements)
+            Preconditions.checkNotNull(e, "element cannot be null");
+    }
+
+    @SuppressWarnings("unchecked")
+    FingerTree<V, T> build(Object[] elements, int from, int to, @Nullable ExecutorService executor) {
+        int size = to - from;
+        if (size == 0)
+            return emptyTree;
+        if (size == 1)
+            return new Single<V, T>(this, (T) elements[from]);
+        if (size <= 8) {
+            int split = from + size / 2;
+            return deep(digit(elements, from, split), nodeFactory().emptyTree, digit(elements, split, to));
+        }
+        Object[] nodes;
+        if (executor != null && size >= PARALLEL_THRESHOLD)
+            nodes = packNodesInParallel(executor, elements, from + 3, to - 3);
+        else
+            nodes = packNodes(elements, from + 3, to - 3);
+        val middle = nodeFactory().build(nodes, 0, nodes.length, executor);
+        return deep(digit(elements, from, from + 3), middle, digit(elements, to - 3, to));
+    }
+
+    @SuppressWarnings("unchecked")
+    FingerTreeDigit<V, T> digit(Object[] elements, int from, int to) {
+        switch (to - from) {
+        case 1:
+            return digit((T) elements[from]);
+        case 2:
+            return digit((T) elements[from], (T) elements[from + 1]);
+        case 3:
+            return digit((T) elements[from], (T) elements[from + 1], (T) elements[from + 2]);
+        case 4:
+            return digit((T) elements[from], (T) elements[from + 1], (T) elements[from + 2], (T) elements[from + 3]);
+        default:
+            throw new IllegalArgumentException("Invalid digit size " + (to - from));
+        }
+    }
+
+    /**
+     * Packs at least 3 elements into a layer of nodes. All nodes are Node3 instances, except for one or two Node2
+     * instances at the end if the element count is not divisible by 3.
+     */
+    Object[] packNodes(Object[] elements, int from, int to) {
+        val nodes = new Object[nodeCount(to - from)];
+        packNodes(elements, from, node3Count(to - from), nodes, 0, nodes.length);
+        return nodes;
+    }
+
+    Object[] packNodesInParallel(ExecutorService executor, Object[] elements, int from, int to) {
+        val nodes = new Object[nodeCount(to - from)];
+        val node3Count = node3Count(to - from);
+
+        val tasks = Lists.<Callable<Void>> newArrayList();
+        int step = PARALLEL_THRESHOLD / 3;
+        for (int start = 0; start < nodes.length; start += step) {
+            tasks.add(new PackNodesTask(elements, from, node3Count, nodes, start, Math.min(start + step, nodes.length)));
+        }
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        return nodes;
+    }
+
+    @SuppressWarnings("unchecked")
+    void packNodes(Object[] elements, int from, int node3Count, Object[] nodes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (i < node3Count) {
+                int j = from + 3 * i;
+                nodes[i] = node((T) elements[j], (T) elements[j + 1], (T) elements[j + 2]);
+            } else {
+                int j = from + 3 * node3Count + 2 * (i - node3Count);
+                nodes[i] = node((T) elements[j], (T) elements[j + 1]);
+            }
+        }
+    }
+
+    private static int nodeCount(int elementCount) {
+        return (elementCount + 2) / 3;
+    }
+
+    private static int node3Count(int elementCount) {
+        switch (elementCount % 3) {
+        case 1:
+            return nodeCount(elementCount) - 2;
+        case 2:
+            return nodeCount(elementCount) - 1;
+        default:
+            return nodeCount(elementCount);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private final class PackNodesTask implements Callable<Void> {
+        private final Object[] elements;
+        private final int from;
+        private final int node3Count;
+        private final Object[] nodes;
+        private final int start;
+        private final int end;
+
+        @Override
+        public Void call() {
+            packNodes(elements, from, node3Count, nodes, start, end);
+            return null;
+        }
+    }
+
     FingerTreeNode<V, T> node(T a, T b) {
+        if (compact)
+            return new DerivedNode2<V, T>(a, b);
         return new Node2<V, T>(measure(a, b), a, b);
     }
 
     FingerTreeNode<V, T> node(T a, T b, T c) {
+        if (compact)
+            return new DerivedNode3<V, T>(a, b, c);
         return new Node3<V, T>(measure(a, b, c), a, b, c);
     }
 
@@ -255,23 +442,19 @@ public class FingerTreeFactory<V, T> implements Serializable {
         return new Digit4<V, T>(measure(a, b, c, d), a, b, c, d);
     }
 
-    private static final class FtNodeMeasurement<V, T> implements Function<FingerTreeNode<V, T>, V>, Serializable {
+    /**
+     * Measures nodes. Nodes that contain elements in a compact tree do not store their measure, so the measure is
+     * derived by using the element factory. All other nodes store their measure.
+     */
+    @RequiredArgsConstructor
+    private static final class NodeMeasurement<V, T> implements Function<FingerTreeNode<V, T>, V>, Serializable {
         private static final long serialVersionUID = -372309629884383219L;
 
-        private static final FtNodeMeasurement<?, ?> INSTANCE = new FtNodeMeasurement<Object, Object>();
-
-        @SuppressWarnings("unchecked")
-        public static <V, T> FtNodeMeasurement<V, T> instance() {
-            return (FtNodeMeasurement<V, T>) INSTANCE;
-        }
+        private final FingerTreeFactory<V, T> factory;
 
         @Override
         public V apply(FingerTreeNode<V, T> input) {
-            return input.measure();
-        }
-
-        private Object readResolve() throws ObjectStreamException {
-            return INSTANCE;
+            return input.measure(factory);
         }
     }
 
@@ -12,10 +12,10 @@ import lombok.ToString;
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterators;
-import com.google.common.collect.UnmodifiableIterator;
 
 import fi.gekkio.drumfish.data.FingerTree.Printer;
 import fi.gekkio.drumfish.data.FingerTreeDigit.DigitSplit;
+import fi.gekkio.drumfish.lang.Effect;
 import fi.gekkio.drumfish.lang.Function2;
 import fi.gekkio.drumfish.lang.LeftFold;
 import fi.gekkio.drumfish.lang.Option;
@@ -26,7 +26,18 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
     private FingerTreeNode() {
     }
 
-    public abstract V measure();
+    /**
+     * Returns the measure of this node.
+     * 
+     * @param factory
+     *            factory of the node elements, which is used if the measure is not stored in the node
+     * @return measure
+     */
+    public abstract V measure(FingerTreeFactory<V, T> factory);
+
+    public abstract int size();
+
+    public abstract T get(int index);
 
     public abstract <U, O> FingerTreeNode<U, O> map(FingerTreeFactory<U, O> factory, Function<? super T, O> f);
 
@@ -42,21 +53,37 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
 
     public abstract <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f);
 
+    public abstract void forEach(Effect<? super T> e);
+
     public abstract Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p);
 
+    /**
+     * Node with two elements. Subclasses decide whether the measure is stored or derived from the elements.
+     */
     @RequiredArgsConstructor
-    @EqualsAndHashCode(callSuper = false, exclude = "measure")
+    @EqualsAndHashCode(callSuper = false)
     @ToString(callSuper = false)
-    static final class Node2<V, T> extends FingerTreeNode<V, T> {
-        private static final long serialVersionUID = 7669550720868602973L;
+    static abstract class Node2Base<V, T> extends FingerTreeNode<V, T> {
+        private static final long serialVersionUID = -6121052781163913724L;
 
-        public final V measure;
         public final T a;
         public final T b;
 
         @Override
-        public V measure() {
-            return measure;
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
         }
 
         @SuppressWarnings("unchecked")
@@ -116,6 +143,12 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -127,20 +160,72 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
 
     }
 
+    /**
+     * Node that stores its measure. Used by default, and for all nodes that contain other nodes.
+     */
+    static final class Node2<V, T> extends Node2Base<V, T> {
+        private static final long serialVersionUID = 7669550720868602973L;
+
+        public final V measure;
+
+        Node2(V measure, T a, T b) {
+            super(a, b);
+            this.measure = measure;
+        }
+
+        @Override
+        public V measure(FingerTreeFactory<V, T> factory) {
+            return measure;
+        }
+    }
+
+    /**
+     * Node that does not store its measure, but derives it from the element measures every time it is needed. Used only
+     * for nodes that contain elements, if the factory was created with {@link FingerTreeFactory#createCompact}.
+     */
+    static final class DerivedNode2<V, T> extends Node2Base<V, T> {
+        private static final long serialVersionUID = 5345823225814726718L;
+
+        DerivedNode2(T a, T b) {
+            super(a, b);
+        }
+
+        @Override
+        public V measure(FingerTreeFactory<V, T> factory) {
+            return factory.measure(a, b);
+        }
+    }
+
+    /**
+     * Node with three elements. Subclasses decide whether the measure is stored or derived from the elements.
+     */
     @RequiredArgsConstructor
-    @EqualsAndHashCode(callSuper = false, exclude = "measure")
+    @EqualsAndHashCode(callSuper = false)
     @ToString(callSuper = false)
-    static final class Node3<V, T> extends FingerTreeNode<V, T> {
-        private static final long serialVersionUID = -3973692276446284002L;
+    static abstract class Node3Base<V, T> extends FingerTreeNode<V, T> {
+        private static final long serialVersionUID = 4388317292014856517L;
 
-        public final V measure;
         public final T a;
         public final T b;
         public final T c;
 
         @Override
-        public V measure() {
-            return measure;
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            case 2:
+                return c;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
         }
 
         @SuppressWarnings("unchecked")
@@ -209,6 +294,13 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
             return accum;
         }
 
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+            e.apply(c);
+        }
+
         @Override
         public Option<T> find(FingerTreeFactory<V, T> factory, Predicate<? super V> p) {
             if (p.apply(factory.measure(a)))
@@ -222,6 +314,42 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
 
     }
 
+    /**
+     * Node that stores its measure. Used by default, and for all nodes that contain other nodes.
+     */
+    static final class Node3<V, T> extends Node3Base<V, T> {
+        private static final long serialVersionUID = -3973692276446284002L;
+
+        public final V measure;
+
+        Node3(V measure, T a, T b, T c) {
+            super(a, b, c);
+            this.measure = measure;
+        }
+
+        @Override
+        public V measure(FingerTreeFactory<V, T> factory) {
+            return measure;
+        }
+    }
+
+    /**
+     * Node that does not store its measure, but derives it from the element measures every time it is needed. Used only
+     * for nodes that contain elements, if the factory was created with {@link FingerTreeFactory#createCompact}.
+     */
+    static final class DerivedNode3<V, T> extends Node3Base<V, T> {
+        private static final long serialVersionUID = -1943793084873754609L;
+
+        DerivedNode3(T a, T b, T c) {
+            super(a, b, c);
+        }
+
+        @Override
+        public V measure(FingerTreeFactory<V, T> factory) {
+            return factory.measure(a, b, c);
+        }
+    }
+
     @RequiredArgsConstructor
     static final class NodeMapper<T, U, O> implements Function<FingerTreeNode<?, T>, FingerTreeNode<U, O>>, Serializable {
         private static final long serialVersionUID = 71975552025750738L;
@@ -247,27 +375,6 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
         }
     }
 
-    @RequiredArgsConstructor
-    static final class NodeIterator<T> extends UnmodifiableIterator<T> {
-        private final Iterator<? extends FingerTreeNode<?, T>> nodes;
-
-        private Iterator<T> elements;
-
-        @Override
-        public boolean hasNext() {
-            if (elements == null)
-                return nodes.hasNext();
-            return elements.hasNext() || nodes.hasNext();
-        }
-
-        @Override
-        public T next() {
-            if (elements == null || !elements.hasNext())
-                elements = nodes.next().iterator();
-            return elements.next();
-        }
-    }
-
     @RequiredArgsConstructor
     static final class NodeLeftFold<V, T, U> implements LeftFold<FingerTreeNode<V, T>, U> {
         private final Function2<U, T, U> f;
@@ -280,24 +387,14 @@ abstract class FingerTreeNode<V, T> implements Iterable<T>, Serializable {
     }
 
     @RequiredArgsConstructor
-    static final class NodeReverseIterator<T> extends UnmodifiableIterator<T> {
-        private final Iterator<? extends FingerTreeNode<?, T>> nodes;
-
-        private Iterator<T> elements;
+    static final class NodeEffect<V, T> implements Effect<FingerTreeNode<V, T>> {
+        private final Effect<? super T> e;
 
         @Override
-        public boolean hasNext() {
-            if (elements == null)
-                return nodes.hasNext();
-            return elements.hasNext() || nodes.hasNext();
+        public void apply(FingerTreeNode<V, T> input) {
+            input.forEach(e);
         }
 
-        @Override
-        public T next() {
-            if (elements == null || !elements.hasNext())
-                elements = nodes.next().reverseIterator();
-            return elements.next();
-        }
     }
 
     @RequiredArgsConstructor
@@ -0,0 +1,127 @@
+package fi.gekkio.drumfish.data;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Predicate;
+
+import fi.gekkio.drumfish.data.FingerTree.Deep;
+import fi.gekkio.drumfish.data.FingerTree.Single;
+
+/**
+ * Combines the measures of a range of elements in a finger tree without building new trees.
+ * <p>
+ * The range is defined by two monotonic predicates like in {@link FingerTree#dropUntil(Predicate)} and
+ * {@link FingerTree#takeUntil(Predicate)}. Parts of the tree that are entirely inside the range contribute their cached
+ * measure, parts that are entirely outside are skipped, and only the parts containing the range boundaries are
+ * expanded, so the cost is logarithmic in the size of the tree.
+ * 
+ * @param <V>
+ *            measure type
+ * @param <T>
+ *            element type
+ */
+final class FingerTreeRange<V, T> {
+
+    private final FingerTreeFactory<V, T> factory;
+    @Nullable
+    private final Predicate<? super V> from;
+    private final Predicate<? super V> to;
+
+    /**
+     * Accumulated measure of the parts before the current one.
+     */
+    private V accum;
+    private V result;
+    private boolean done;
+
+    /**
+     * @param from
+     *            predicate that starts the range, or null if the range starts at the first element
+     * @param to
+     *            predicate that ends the range
+     */
+    FingerTreeRange(FingerTreeFactory<V, T> factory, @Nullable Predicate<? super V> from, Predicate<? super V> to) {
+        this.factory = factory;
+        this.from = from;
+        this.to = to;
+        this.accum = factory.mempty();
+        this.result = factory.mempty();
+    }
+
+    V measure(FingerTree<V, T> tree) {
+        visitTree(tree, 0);
+        return result;
+    }
+
+    private void visitTree(FingerTree<?, ?> tree, int level) {
+        FingerTree<?, ?> unwrapped = tree.unwrap();
+        if (unwrapped.isEmpty())
+            return;
+        if (!visit(measureOf(unwrapped), false))
+            return;
+        if (unwrapped instanceof Single) {
+            visitItem(((Single<?, ?>) unwrapped).a, level);
+        } else {
+            Deep<?, ?> deep = (Deep<?, ?>) unwrapped;
+            visitDigit(deep.left, level);
+            visitTree(deep.middle, level + 1);
+            visitDigit(deep.right, level);
+        }
+    }
+
+    private void visitDigit(FingerTreeDigit<?, ?> digit, int level) {
+        if (!visit(measureOf(digit), false))
+            return;
+        for (int i = 0; i < digit.size(); i++)
+            visitItem(digit.get(i), level);
+    }
+
+    private void visitItem(Object item, int level) {
+        if (!visit(measureOf(item, level), level == 0))
+            return;
+        FingerTreeNode<?, ?> node = (FingerTreeNode<?, ?>) item;
+        for (int i = 0; i < node.size(); i++)
+            visitItem(node.get(i), level - 1);
+    }
+
+    /**
+     * Handles a part with the given measure. Returns true if the part crosses a range boundary and must be expanded,
+     * or false if it was added to the result or skipped.
+     */
+    private boolean visit(V measure, boolean element) {
+        if (done)
+            return false;
+        if (to.apply(accum)) {
+            done = true;
+            return false;
+        }
+        V end = factory.mappend(accum, measure);
+        boolean startsBefore = from == null || from.apply(accum);
+        if (element || (startsBefore && !to.apply(end)) || (from != null && !from.apply(end))) {
+            if ((from == null || from.apply(end)) && !to.apply(end))
+                result = factory.mappend(result, measure);
+            accum = end;
+            return false;
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V measureOf(FingerTree<?, ?> tree) {
+        return (V) tree.measure();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V measureOf(FingerTreeDigit<?, ?> digit) {
+        return (V) digit.measure();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V measureOf(Object item, int level) {
+        if (level == 0)
+            return factory.measure((T) item);
+        // Only nodes on level 1 can derive their measure from the factory, and their elements are tree elements
+        return ((FingerTreeNode<V, Object>) item).measure((FingerTreeFactory<V, Object>) (FingerTreeFactory<V, ?>) factory);
+    }
+
+}
@@ -0,0 +1,684 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.UnmodifiableIterator;
+
+import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable hash map.
+ * <p>
+ * Entries are stored in a hash array mapped trie (HAMT): every trie level consumes 5 bits of the key hash, and every
+ * node stores only the entries and subtries that exist, indexed by a 32-bit bitmap. Lookups, insertions and removals
+ * take O(log32 n) time, and updated maps share all untouched nodes with the original map. Keys whose hashes are fully
+ * equal are kept in collision nodes.
+ * <p>
+ * Large batches of updates can be applied with a {@link Transient}, which modifies nodes that it has created itself in
+ * place instead of copying them for every update.
+ * 
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class HashMap<K, V> implements Iterable<Tuple2<K, V>>, Serializable {
+
+    private static final long serialVersionUID = 2412736587104389528L;
+
+    private static final HashMap<?, ?> EMPTY = new HashMap<Object, Object>(0, null);
+
+    private static final Object NOT_FOUND = new Object();
+
+    private final int size;
+    @Nullable
+    private final Node root;
+
+    private transient int hashCode;
+
+    private HashMap(int size, @Nullable Node root) {
+        this.size = size;
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> HashMap<K, V> empty() {
+        return (HashMap<K, V>) EMPTY;
+    }
+
+    /**
+     * Returns a map containing the entries of the given map.
+     * 
+     * @param map
+     *            map
+     * @return map
+     */
+    public static <K, V> HashMap<K, V> copyOf(Map<? extends K, ? extends V> map) {
+        val builder = HashMap.<K, V> empty().asTransient();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet())
+            builder.put(entry.getKey(), entry.getValue());
+        return builder.persistent();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the value mapped to the given key.
+     * 
+     * @param key
+     *            key
+     * @return Some(value), or None if the key is not in this map
+     */
+    @SuppressWarnings("unchecked")
+    public Option<V> get(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        val value = find(root, key);
+        return value == NOT_FOUND ? Option.<V> none() : Option.some((V) value);
+    }
+
+    public boolean containsKey(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        return find(root, key) != NOT_FOUND;
+    }
+
+    /**
+     * Returns a map with the given key mapped to the given value. If the key is already mapped to an equal value, this
+     * map is returned.
+     * 
+     * @param key
+     *            key
+     * @param value
+     *            value
+     * @return map
+     */
+    public HashMap<K, V> put(K key, V value) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        Preconditions.checkNotNull(value, "value cannot be null");
+        val added = new Flag();
+        val newRoot = (root == null ? BitmapNode.EMPTY : root).put(null, 0, hash(key), key, value, added);
+        if (newRoot == root)
+            return this;
+        return new HashMap<K, V>(added.set ? size + 1 : size, newRoot);
+    }
+
+    /**
+     * Returns a map without the given key. If the key is not in this map, this map is returned.
+     * 
+     * @param key
+     *            key
+     * @return map
+     */
+    public HashMap<K, V> remove(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        if (root == null)
+            return this;
+        val removed = new Flag();
+        val newRoot = root.remove(null, 0, hash(key), key, removed);
+        if (!removed.set)
+            return this;
+        if (newRoot == null)
+            return empty();
+        return new HashMap<K, V>(size - 1, newRoot);
+    }
+
+    /**
+     * Returns a transient copy of this map, which can be used to apply a batch of updates efficiently. This map is not
+     * modified.
+     * 
+     * @return transient map
+     */
+    public Transient<K, V> asTransient() {
+        return new Transient<K, V>(size, root);
+    }
+
+    /**
+     * Returns an iterator over the entries of this map in unspecified order.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Tuple2<K, V>> iterator() {
+        return (Iterator<Tuple2<K, V>>) (Iterator<?>) new EntryIterator(root, true);
+    }
+
+    /**
+     * Returns the keys of this map in the same order as {@link #iterator()}.
+     * 
+     * @return keys
+     */
+    public Iterable<K> keys() {
+        return new Iterable<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<K> iterator() {
+                return (Iterator<K>) new EntryIterator(root, false);
+            }
+        };
+    }
+
+    /**
+     * Returns the values of this map in the same order as {@link #iterator()}.
+     * 
+     * @return values
+     */
+    public Iterable<V> values() {
+        return Iterables.transform(this, new Function<Tuple2<K, V>, V>() {
+            @Override
+            public V apply(Tuple2<K, V> input) {
+                return input.b;
+            }
+        });
+    }
+
+    /**
+     * Mutable map for applying a batch of updates to a {@link HashMap}.
+     * <p>
+     * Nodes created by a transient map are owned by it and are updated in place, so a batch of n updates allocates far
+     * fewer objects than n persistent updates. Nodes shared with persistent maps are never modified. After
+     * {@link #persistent()} has been called, the transient map can no longer be used.
+     * 
+     * @param <K>
+     *            key type
+     * @param <V>
+     *            value type
+     */
+    public static final class Transient<K, V> {
+        @Nullable
+        private Object edit = new Object();
+        private final Flag flag = new Flag();
+        private int size;
+        @Nullable
+        private Node root;
+
+        private Transient(int size, @Nullable Node root) {
+            this.size = size;
+            this.root = root;
+        }
+
+        public int size() {
+            ensureEditable();
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Option<V> get(K key) {
+            ensureEditable();
+            Preconditions.checkNotNull(key, "key cannot be null");
+            val value = find(root, key);
+            return value == NOT_FOUND ? Option.<V> none() : Option.some((V) value);
+        }
+
+        public boolean containsKey(K key) {
+            ensureEditable();
+            Preconditions.checkNotNull(key, "key cannot be null");
+            return find(root, key) != NOT_FOUND;
+        }
+
+        public Transient<K, V> put(K key, V value) {
+            ensureEditable();
+            Preconditions.checkNotNull(key, "key cannot be null");
+            Preconditions.checkNotNull(value, "value cannot be null");
+            flag.set = false;
+            root = (root == null ? BitmapNode.EMPTY : root).put(edit, 0, hash(key), key, value, flag);
+            if (flag.set)
+                size++;
+            return this;
+        }
+
+        public Transient<K, V> remove(K key) {
+            ensureEditable();
+            Preconditions.checkNotNull(key, "key cannot be null");
+            if (root == null)
+                return this;
+            flag.set = false;
+            root = root.remove(edit, 0, hash(key), key, flag);
+            if (flag.set)
+                size--;
+            return this;
+        }
+
+        /**
+         * Returns a persistent map with the contents of this transient map, and ends the batch.
+         * 
+         * @return map
+         */
+        public HashMap<K, V> persistent() {
+            ensureEditable();
+            edit = null;
+            if (size == 0)
+                return empty();
+            return new HashMap<K, V>(size, root);
+        }
+
+        private void ensureEditable() {
+            Preconditions.checkState(edit != null, "transient map cannot be used after persistent()");
+        }
+    }
+
+    static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static Object find(@Nullable Node root, Object key) {
+        if (root == null)
+            return NOT_FOUND;
+        return root.find(0, hash(key), key);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj.getClass() == this.getClass()))
+            return false;
+        HashMap<?, ?> other = (HashMap<?, ?>) obj;
+        if (size != other.size || hashCode() != other.hashCode())
+            return false;
+        for (val entry : this) {
+            if (!entry.b.equals(find(other.root, entry.a)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the same hash code as {@link Map#hashCode()} would for a map with the same entries.
+     */
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            for (val entry : this)
+                h += entry.a.hashCode() ^ entry.b.hashCode();
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        val sb = new StringBuilder("{");
+        boolean first = true;
+        for (val entry : this) {
+            if (!first)
+                sb.append(", ");
+            sb.append(entry.a).append('=').append(entry.b);
+            first = false;
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Serializes this map as its size and entries instead of the internal structure.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = -6030587426611669402L;
+
+        private transient HashMap<?, ?> map;
+
+        SerializedForm(HashMap<?, ?> map) {
+            this.map = map;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(map.size);
+            for (val entry : map) {
+                out.writeObject(entry.a);
+                out.writeObject(entry.b);
+            }
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0)
+                throw new InvalidObjectException("Invalid serialized map size");
+            val builder = HashMap.<Object, Object> empty().asTransient();
+            for (int i = 0; i < size; i++) {
+                val key = in.readObject();
+                val value = in.readObject();
+                if (key == null)
+                    throw new InvalidObjectException("key cannot be null");
+                if (value == null)
+                    throw new InvalidObjectException("value cannot be null");
+                builder.put(key, value);
+            }
+            map = builder.persistent();
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return map;
+        }
+    }
+
+    /**
+     * Mutable result flag, which tells whether an update added or removed an entry.
+     */
+    static final class Flag {
+        boolean set;
+    }
+
+    /**
+     * Trie node. Both node types store their contents in an array of key/value pairs; in bitmap nodes, a pair with a
+     * null key stores a subtrie in the value slot.
+     */
+    static abstract class Node {
+        Object[] array;
+
+        abstract int pairCount();
+
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node put(@Nullable Object edit, int shift, int hash, Object key, Object value, Flag added);
+
+        @Nullable
+        abstract Node remove(@Nullable Object edit, int shift, int hash, Object key, Flag removed);
+    }
+
+    static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        @Nullable
+        private final Object edit;
+        private int bitmap;
+
+        BitmapNode(@Nullable Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bitpos(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 0x1f);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private boolean isEditable(@Nullable Object edit) {
+            return edit != null && edit == this.edit;
+        }
+
+        @Override
+        int pairCount() {
+            return Integer.bitCount(bitmap);
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0)
+                return NOT_FOUND;
+            int i = index(bit);
+            val k = array[2 * i];
+            val v = array[2 * i + 1];
+            if (k == null)
+                return ((Node) v).find(shift + 5, hash, key);
+            return key.equals(k) ? v : NOT_FOUND;
+        }
+
+        @Override
+        Node put(@Nullable Object edit, int shift, int hash, Object key, Object value, Flag added) {
+            int bit = bitpos(hash, shift);
+            int i = index(bit);
+            if ((bitmap & bit) != 0) {
+                val k = array[2 * i];
+                val v = array[2 * i + 1];
+                if (k == null) {
+                    val node = ((Node) v).put(edit, shift + 5, hash, key, value, added);
+                    return node == v ? this : editAndSet(edit, 2 * i + 1, node);
+                }
+                if (key.equals(k))
+                    return value.equals(v) ? this : editAndSet(edit, 2 * i + 1, value);
+                added.set = true;
+                val node = createNode(edit, shift + 5, k, v, hash, key, value);
+                val editable = editAndSet(edit, 2 * i + 1, node);
+                editable.array[2 * i] = null;
+                return editable;
+            }
+            added.set = true;
+            int n = pairCount();
+            if (isEditable(edit) && array.length >= 2 * (n + 1)) {
+                System.arraycopy(array, 2 * i, array, 2 * (i + 1), 2 * (n - i));
+                array[2 * i] = key;
+                array[2 * i + 1] = value;
+                bitmap |= bit;
+                return this;
+            }
+            // Transient nodes get some spare room, so that they can grow in place
+            int capacity = edit == null ? n + 1 : Math.min(n + 4, 32);
+            val newArray = new Object[2 * capacity];
+            System.arraycopy(array, 0, newArray, 0, 2 * i);
+            newArray[2 * i] = key;
+            newArray[2 * i + 1] = value;
+            System.arraycopy(array, 2 * i, newArray, 2 * (i + 1), 2 * (n - i));
+            return new BitmapNode(edit, bitmap | bit, newArray);
+        }
+
+        @Override
+        @Nullable
+        Node remove(@Nullable Object edit, int shift, int hash, Object key, Flag removed) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0)
+                return this;
+            int i = index(bit);
+            val k = array[2 * i];
+            val v = array[2 * i + 1];
+            if (k == null) {
+                val node = ((Node) v).remove(edit, shift + 5, hash, key, removed);
+                if (node == v)
+                    return this;
+                if (node != null)
+                    return editAndSet(edit, 2 * i + 1, node);
+            } else if (key.equals(k)) {
+                removed.set = true;
+            } else {
+                return this;
+            }
+            if (bitmap == bit)
+                return null;
+            return editAndRemovePair(edit, bit, i);
+        }
+
+        private BitmapNode editAndSet(@Nullable Object edit, int index, Object value) {
+            if (isEditable(edit)) {
+                array[index] = value;
+                return this;
+            }
+            val newArray = Arrays.copyOf(array, 2 * pairCount());
+            newArray[index] = value;
+            return new BitmapNode(edit, bitmap, newArray);
+        }
+
+        private BitmapNode editAndRemovePair(@Nullable Object edit, int bit, int i) {
+            int n = pairCount();
+            if (isEditable(edit)) {
+                System.arraycopy(array, 2 * (i + 1), array, 2 * i, 2 * (n - i - 1));
+                array[2 * n - 2] = null;
+                array[2 * n - 1] = null;
+                bitmap ^= bit;
+                return this;
+            }
+            val newArray = new Object[2 * (n - 1)];
+            System.arraycopy(array, 0, newArray, 0, 2 * i);
+            System.arraycopy(array, 2 * (i + 1), newArray, 2 * i, 2 * (n - i - 1));
+            return new BitmapNode(edit, bitmap ^ bit, newArray);
+        }
+
+        private static Node createNode(@Nullable Object edit, int shift, Object key1, Object value1, int hash2,
+                Object key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2)
+                return new CollisionNode(edit, hash1, new Object[] { key1, value1, key2, value2 });
+            val flag = new Flag();
+            return EMPTY.put(edit, shift, hash1, key1, value1, flag).put(edit, shift, hash2, key2, value2, flag);
+        }
+    }
+
+    /**
+     * Node for keys whose hashes are fully equal.
+     */
+    static final class CollisionNode extends Node {
+        @Nullable
+        private final Object edit;
+        private final int hash;
+
+        CollisionNode(@Nullable Object edit, int hash, Object[] array) {
+            this.edit = edit;
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        int pairCount() {
+            return array.length / 2;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if (hash != this.hash)
+                return NOT_FOUND;
+            int i = indexOf(key);
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        Node put(@Nullable Object edit, int shift, int hash, Object key, Object value, Flag added) {
+            if (hash != this.hash) {
+                // Push this node one level down, next to the new key
+                val parent = new BitmapNode(edit, 1 << ((this.hash >>> shift) & 0x1f), new Object[] { null, this });
+                return parent.put(edit, shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (value.equals(array[i + 1]))
+                    return this;
+                if (edit != null && edit == this.edit) {
+                    array[i + 1] = value;
+                    return this;
+                }
+                val newArray = array.clone();
+                newArray[i + 1] = value;
+                return new CollisionNode(edit, hash, newArray);
+            }
+            added.set = true;
+            val newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            return new CollisionNode(edit, hash, newArray);
+        }
+
+        @Override
+        @Nullable
+        Node remove(@Nullable Object edit, int shift, int hash, Object key, Flag removed) {
+            if (hash != this.hash)
+                return this;
+            int i = indexOf(key);
+            if (i < 0)
+                return this;
+            removed.set = true;
+            if (array.length == 2)
+                return null;
+            val newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+            return new CollisionNode(edit, hash, newArray);
+        }
+    }
+
+    /**
+     * Depth-first iterator over the entries or keys of a trie.
+     */
+    static final class EntryIterator extends UnmodifiableIterator<Object> {
+        // 32-bit hashes need at most 7 bitmap levels, plus one collision level
+        private final Node[] nodes = new Node[8];
+        private final int[] indexes = new int[8];
+        private int top = -1;
+        private final boolean entries;
+
+        EntryIterator(@Nullable Node root, boolean entries) {
+            this.entries = entries;
+            if (root != null) {
+                nodes[0] = root;
+                top = 0;
+                skipToEntry();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return top >= 0;
+        }
+
+        @Override
+        public Object next() {
+            if (top < 0)
+                throw new NoSuchElementException();
+            val array = nodes[top].array;
+            int i = indexes[top];
+            val result = entries ? Tuple2.of(array[i], array[i + 1]) : array[i];
+            indexes[top] = i + 2;
+            skipToEntry();
+            return result;
+        }
+
+        /**
+         * Moves to the next pair that contains an entry, descending into subtries and ascending from finished nodes.
+         */
+        private void skipToEntry() {
+            while (top >= 0) {
+                val node = nodes[top];
+                int i = indexes[top];
+                if (i >= 2 * node.pairCount()) {
+                    indexes[top] = 0;
+                    top--;
+                } else if (node.array[i] == null) {
+                    indexes[top] = i + 2;
+                    top++;
+                    nodes[top] = (Node) node.array[i + 1];
+                    indexes[top] = 0;
+                } else {
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Iterator;
+
+import lombok.val;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+/**
+ * Persistent immutable hash set, backed by a {@link HashMap}.
+ * 
+ * @param <K>
+ *            element type
+ */
+public class HashSet<K> implements Iterable<K>, Serializable {
+
+    private static final long serialVersionUID = -7402917235710983186L;
+
+    private static final HashSet<?> EMPTY = new HashSet<Object>(HashMap.<Object, Object> empty());
+
+    private final HashMap<K, Object> map;
+
+    private transient int hashCode;
+
+    private HashSet(HashMap<K, Object> map) {
+        this.map = map;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K> HashSet<K> empty() {
+        return (HashSet<K>) EMPTY;
+    }
+
+    public static <K> HashSet<K> of(K... elements) {
+        val builder = HashSet.<K> empty().asTransient();
+        for (K e : elements)
+            builder.add(e);
+        return builder.persistent();
+    }
+
+    public static <K> HashSet<K> copyOf(Iterable<? extends K> elements) {
+        val builder = HashSet.<K> empty().asTransient();
+        for (K e : elements)
+            builder.add(e);
+        return builder.persistent();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean contains(K element) {
+        Preconditions.checkNotNull(element, "element cannot be null");
+        return map.containsKey(element);
+    }
+
+    /**
+     * Returns a set with the given element added. If the element is already in this set, this set is returned.
+     * 
+     * @param element
+     *            element
+     * @return set
+     */
+    public HashSet<K> add(K element) {
+        Preconditions.checkNotNull(element, "element cannot be null");
+        val newMap = map.put(element, Boolean.TRUE);
+        return newMap == map ? this : new HashSet<K>(newMap);
+    }
+
+    /**
+     * Returns a set without the given element. If the element is not in this set, this set is returned.
+     * 
+     * @param element
+     *            element
+     * @return set
+     */
+    public HashSet<K> remove(K element) {
+        Preconditions.checkNotNull(element, "element cannot be null");
+        val newMap = map.remove(element);
+        if (newMap == map)
+            return this;
+        return newMap.isEmpty() ? HashSet.<K> empty() : new HashSet<K>(newMap);
+    }
+
+    /**
+     * Returns a transient copy of this set, which can be used to apply a batch of updates efficiently. This set is not
+     * modified.
+     * 
+     * @return transient set
+     */
+    public Transient<K> asTransient() {
+        return new Transient<K>(map.asTransient());
+    }
+
+    /**
+     * Returns an iterator over the elements of this set in unspecified order.
+     */
+    @Override
+    public Iterator<K> iterator() {
+        return map.keys().iterator();
+    }
+
+    /**
+     * Mutable set for applying a batch of updates to a {@link HashSet}. See {@link HashMap.Transient}.
+     * 
+     * @param <K>
+     *            element type
+     */
+    public static final class Transient<K> {
+        private final HashMap.Transient<K, Object> map;
+
+        private Transient(HashMap.Transient<K, Object> map) {
+            this.map = map;
+        }
+
+        public int size() {
+            return map.size();
+        }
+
+        public boolean contains(K element) {
+            Preconditions.checkNotNull(element, "element cannot be null");
+            return map.containsKey(element);
+        }
+
+        public Transient<K> add(K element) {
+            Preconditions.checkNotNull(element, "element cannot be null");
+            map.put(element, Boolean.TRUE);
+            return this;
+        }
+
+        public Transient<K> remove(K element) {
+            Preconditions.checkNotNull(element, "element cannot be null");
+            map.remove(element);
+            return this;
+        }
+
+        /**
+         * Returns a persistent set with the contents of this transient set, and ends the batch.
+         * 
+         * @return set
+         */
+        public HashSet<K> persistent() {
+            val persistent = map.persistent();
+            return persistent.isEmpty() ? HashSet.<K> empty() : new HashSet<K>(persistent);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj.getClass() == this.getClass()))
+            return false;
+        HashSet<?> other = (HashSet<?>) obj;
+        if (size() != other.size() || hashCode() != other.hashCode())
+            return false;
+        @SuppressWarnings("unchecked")
+        val otherMap = (HashMap<Object, Object>) other.map;
+        for (K e : this) {
+            if (!otherMap.containsKey(e))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the same hash code as {@link java.util.Set#hashCode()} would for a set with the same elements.
+     */
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            for (K e : this)
+                h += e.hashCode();
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Serializes this set as its size and elements instead of the internal structure.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(this);
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 3879016829335271054L;
+
+        private transient HashSet<?> set;
+
+        SerializedForm(HashSet<?> set) {
+            this.set = set;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(set.size());
+            for (Object e : set)
+                out.writeObject(e);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0)
+                throw new InvalidObjectException("Invalid serialized set size");
+            val builder = HashSet.<Object> empty().asTransient();
+            for (int i = 0; i < size; i++) {
+                val e = in.readObject();
+                if (e == null)
+                    throw new InvalidObjectException("element cannot be null");
+                builder.add(e);
+            }
+            set = builder.persistent();
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return set;
+        }
+    }
+
+}
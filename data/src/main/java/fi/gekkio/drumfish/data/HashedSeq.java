@@ -0,0 +1,345 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Iterator;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
+import fi.gekkio.drumfish.lang.Effect;
+import fi.gekkio.drumfish.lang.Monoid;
+
+/**
+ * Persistent immutable indexed sequence that maintains a polynomial hash of its elements.
+ * <p>
+ * Elements are kept in a finger tree measured by the number of elements and a polynomial rolling hash of their hash
+ * codes. The hash is updated in logarithmic time together with the tree, so {@link #hashCode()} takes constant time,
+ * sequences with different hashes are found unequal without comparing elements, and the hash of any slice can be
+ * computed in logarithmic time. The hash code is the same as {@link java.util.List#hashCode()} would return for the
+ * same elements, so it also equals the hash code of an {@link IndexedSeq} with the same elements.
+ * <p>
+ * Compared to {@link IndexedSeq}, every element occupies its own tree slot, so this class needs more memory per
+ * element. The hash codes of the elements must not change while they are in a sequence.
+ * 
+ * @param <T>
+ *            element type
+ */
+public class HashedSeq<T> implements Iterable<T>, Serializable {
+
+    private static final long serialVersionUID = 2208264470316571634L;
+
+    private static final FingerTreeFactory<HashMeasure, Object> FACTORY = FingerTreeFactory.<HashMeasure, Object> create(
+            HashMonoid.INSTANCE, ElementHash.INSTANCE);
+
+    private static final HashedSeq<?> EMPTY = new HashedSeq<Object>(FACTORY.tree());
+
+    private final FingerTree<HashMeasure, Object> tree;
+
+    private HashedSeq(FingerTree<HashMeasure, Object> tree) {
+        this.tree = tree;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> HashedSeq<T> empty() {
+        return (HashedSeq<T>) EMPTY;
+    }
+
+    public static <T> HashedSeq<T> of(T... elements) {
+        return new HashedSeq<T>(FACTORY.tree(checkElements(elements)));
+    }
+
+    public static <T> HashedSeq<T> of(Iterable<T> elements) {
+        return new HashedSeq<T>(FACTORY.tree(checkElements(Iterables.toArray(elements, Object.class))));
+    }
+
+    private static Object[] checkElements(Object[] elements) {
+        for (Object e : elements)
+            Preconditions.checkNotNull(e, "element cannot be null");
+        return elements;
+    }
+
+    public int size() {
+        return tree.measure().size;
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        Preconditions.checkElementIndex(index, size());
+        return (T) tree.cursor(new SizeGreaterThan(index)).next();
+    }
+
+    public HashedSeq<T> set(int index, T e) {
+        Preconditions.checkElementIndex(index, size());
+        Preconditions.checkNotNull(e, "element cannot be null");
+        val split = tree.split(new SizeGreaterThan(index), HashMeasure.EMPTY);
+        return new HashedSeq<T>(split.left.concat(e, split.right));
+    }
+
+    public HashedSeq<T> append(T e) {
+        Preconditions.checkNotNull(e, "element cannot be null");
+        return new HashedSeq<T>(tree.append(e));
+    }
+
+    public HashedSeq<T> prepend(T e) {
+        Preconditions.checkNotNull(e, "element cannot be null");
+        return new HashedSeq<T>(tree.prepend(e));
+    }
+
+    /**
+     * Returns a sequence with the given element inserted at the given index. Elements at and after the index are
+     * shifted to the right.
+     * 
+     * @param index
+     *            index, between 0 and size (inclusive)
+     * @param e
+     *            element
+     * @return sequence
+     */
+    public HashedSeq<T> insert(int index, T e) {
+        Preconditions.checkPositionIndex(index, size());
+        Preconditions.checkNotNull(e, "element cannot be null");
+        val split = tree.split(new SizeGreaterThan(index));
+        return new HashedSeq<T>(split.a.concat(e, split.b));
+    }
+
+    /**
+     * Returns a sequence without the element at the given index. Elements after the index are shifted to the left.
+     * 
+     * @param index
+     *            index of the removed element
+     * @return sequence
+     */
+    public HashedSeq<T> remove(int index) {
+        Preconditions.checkElementIndex(index, size());
+        val split = tree.split(new SizeGreaterThan(index), HashMeasure.EMPTY);
+        return new HashedSeq<T>(split.left.concat(split.right));
+    }
+
+    public HashedSeq<T> concat(HashedSeq<T> other) {
+        return new HashedSeq<T>(tree.concat(other.tree));
+    }
+
+    /**
+     * Returns a sequence containing the elements between the given indexes.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return sequence
+     */
+    public HashedSeq<T> slice(int from, int to) {
+        Preconditions.checkPositionIndexes(from, to, size());
+        if (from == 0 && to == size())
+            return this;
+        return new HashedSeq<T>(tree.takeUntil(new SizeGreaterThan(to)).dropUntil(new SizeGreaterThan(from)));
+    }
+
+    /**
+     * Returns the hash code of the elements between the given indexes, which is the same as
+     * {@code slice(from, to).hashCode()}, without building the slice.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return hash code
+     */
+    public int hashCode(int from, int to) {
+        Preconditions.checkPositionIndexes(from, to, size());
+        int length = to - from;
+        // hash(prefix to) = hash(prefix from) * 31^length + hash(slice)
+        int hash = prefixHash(to) - prefixHash(from) * power(length);
+        return power(length) + hash;
+    }
+
+    private int prefixHash(int n) {
+        if (n == 0)
+            return 0;
+        if (n == size())
+            return tree.measure().hash;
+        return tree.prefixMeasure(new SizeGreaterThan(n)).hash;
+    }
+
+    /**
+     * Returns the index of the first occurrence of the given sequence in this sequence, or -1 if there is none. Uses the
+     * Rabin-Karp algorithm: the hash of every window is updated in constant time, and windows are compared element by
+     * element only if their hash matches, so the expected time is linear in the size of this sequence.
+     * 
+     * @param slice
+     *            sequence to search for
+     * @return index, or -1 if not found
+     */
+    public int indexOfSlice(HashedSeq<T> slice) {
+        Preconditions.checkNotNull(slice, "slice cannot be null");
+        int n = size();
+        int m = slice.size();
+        if (m == 0)
+            return 0;
+        if (m > n)
+            return -1;
+        int target = slice.tree.measure().hash;
+        int highestPower = power(m - 1);
+
+        val head = tree.iterator();
+        val tail = tree.iterator();
+        int hash = 0;
+        for (int i = 0; i < m; i++)
+            hash = 31 * hash + head.next().hashCode();
+        int index = 0;
+        while (true) {
+            if (hash == target && windowEquals(index, slice))
+                return index;
+            if (index + m == n)
+                return -1;
+            hash = 31 * (hash - tail.next().hashCode() * highestPower) + head.next().hashCode();
+            index++;
+        }
+    }
+
+    private boolean windowEquals(int index, HashedSeq<T> slice) {
+        val window = tree.cursor(new SizeGreaterThan(index));
+        for (Object e : slice.tree) {
+            if (!e.equals(window.next()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns 31 to the given power, with int overflow.
+     */
+    private static int power(int exponent) {
+        int result = 1;
+        int base = 31;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0)
+                result *= base;
+            base *= base;
+            exponent >>= 1;
+        }
+        return result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<T> iterator() {
+        return (Iterator<T>) tree.iterator();
+    }
+
+    /**
+     * Passes all elements to the given effect in order, without allocating iterators.
+     * 
+     * @param e
+     *            effect
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Effect<? super T> e) {
+        Preconditions.checkNotNull(e, "effect cannot be null");
+        tree.forEach((Effect<Object>) (Effect<?>) e);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj.getClass() == this.getClass()))
+            return false;
+        HashedSeq<?> other = (HashedSeq<?>) obj;
+        val measure = tree.measure();
+        val otherMeasure = other.tree.measure();
+        if (measure.size != otherMeasure.size || measure.hash != otherMeasure.hash)
+            return false;
+        return tree.elementsEqual(other.tree);
+    }
+
+    /**
+     * Returns the same hash code as {@link java.util.List#hashCode()} would for a list with the same elements. Takes
+     * constant time.
+     */
+    @Override
+    public int hashCode() {
+        val measure = tree.measure();
+        return measure.power + measure.hash;
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Measure of a part of the sequence: the number of elements, the polynomial hash of their hash codes and 31 to the
+     * power of the number of elements, all with int overflow.
+     */
+    @RequiredArgsConstructor
+    static final class HashMeasure implements Serializable {
+        private static final long serialVersionUID = -5309187427905131553L;
+
+        static final HashMeasure EMPTY = new HashMeasure(0, 0, 1);
+
+        final int size;
+        final int hash;
+        final int power;
+    }
+
+    private static final class HashMonoid implements Monoid<HashMeasure>, Serializable {
+        private static final long serialVersionUID = 6811397620447785069L;
+
+        private static final HashMonoid INSTANCE = new HashMonoid();
+
+        @Override
+        public HashMeasure mempty() {
+            return HashMeasure.EMPTY;
+        }
+
+        @Override
+        public HashMeasure mappend(HashMeasure a, HashMeasure b) {
+            if (a.size == 0)
+                return b;
+            if (b.size == 0)
+                return a;
+            return new HashMeasure(a.size + b.size, a.hash * b.power + b.hash, a.power * b.power);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    private static final class ElementHash implements Function<Object, HashMeasure>, Serializable {
+        private static final long serialVersionUID = -1245180309437395215L;
+
+        private static final ElementHash INSTANCE = new ElementHash();
+
+        @Override
+        public HashMeasure apply(Object input) {
+            return new HashMeasure(1, input.hashCode(), 31);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class SizeGreaterThan implements Predicate<HashMeasure> {
+        private final int index;
+
+        @Override
+        public boolean apply(HashMeasure input) {
+            return input.size > index;
+        }
+    }
+
+}
@@ -1,10 +1,18 @@
 package fi.gekkio.drumfish.data;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -15,34 +23,150 @@ import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.collect.UnmodifiableListIterator;
 
+import fi.gekkio.drumfish.data.IntFingerTree.Lookup;
+import fi.gekkio.drumfish.lang.Effect;
 import fi.gekkio.drumfish.lang.Function2;
+import fi.gekkio.drumfish.lang.IntPredicate;
+import fi.gekkio.drumfish.lang.Monoid;
 import fi.gekkio.drumfish.lang.Monoids;
+import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.ToIntFunction;
+import fi.gekkio.drumfish.lang.Tuple2;
 
+/**
+ * Persistent immutable indexed sequence.
+ * <p>
+ * Elements are stored in small immutable arrays ("chunks") of at most {@value #CHUNK_SIZE} elements, which are kept in
+ * a finger tree measured by chunk length. Compared to storing every element in its own tree slot, this needs far fewer
+ * objects per element and keeps neighbouring elements in contiguous memory, while indexing, updates and concatenation
+ * still take logarithmic time.
+ * 
+ * @param <T>
+ *            element type
+ */
 public class IndexedSeq<T> implements Iterable<T>, Serializable {
 
     private static final long serialVersionUID = -1323354912381469298L;
 
-    private static final FingerTreeFactory<Integer, Object> FACTORY = new FingerTreeFactory<Integer, Object>(Monoids.integerSum(), Functions.constant(1));
+    /**
+     * Maximum number of elements in a chunk.
+     */
+    static final int CHUNK_SIZE = 32;
 
-    private final FingerTree<Integer, T> tree;
+    private static final IntFingerTreeFactory<Object[]> FACTORY = IntFingerTreeFactory.create(Monoids.intSum(), ChunkSize.INSTANCE);
 
-    private IndexedSeq(FingerTree<Integer, T> tree) {
+    private final IntFingerTree<Object[]> tree;
+
+    private transient int hashCode;
+
+    private IndexedSeq(IntFingerTree<Object[]> tree) {
         this.tree = tree;
     }
 
     public static <T> IndexedSeq<T> of(T e) {
-        return new IndexedSeq<T>(FACTORY.<T> cast().tree(e));
+        Preconditions.checkNotNull(e, "element cannot be null");
+        return new IndexedSeq<T>(FACTORY.tree(new Object[] { e }));
     }
 
     public static <T> IndexedSeq<T> of(T... elements) {
-        return new IndexedSeq<T>(FACTORY.<T> cast().tree(elements));
+        IntFingerTreeFactory.checkElements(elements);
+        return new IndexedSeq<T>(chunkTree(elements, elements.length));
     }
 
     public static <T> IndexedSeq<T> of(Iterable<T> elements) {
-        return new IndexedSeq<T>(FACTORY.<T> cast().tree(elements));
+        val array = Iterables.toArray(elements, Object.class);
+        IntFingerTreeFactory.checkElements(array);
+        return new IndexedSeq<T>(chunkTree(array, array.length));
+    }
+
+    private static <T> IndexedSeq<T> empty() {
+        return new IndexedSeq<T>(FACTORY.tree());
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    /**
+     * Mutable builder for IndexedSeq objects.
+     * <p>
+     * Elements are staged in a growable array, and packed into chunks and a finger tree in linear time when
+     * {@link #build()} is called. The builder can still be used after calling build(), and later builds do not affect previously built
+     * sequences.
+     * 
+     * @param <T>
+     *            element type
+     */
+    public static final class Builder<T> {
+        private Object[] elements = new Object[16];
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an element to the end of this builder.
+         * 
+         * @param e
+         *            element
+         * @return this builder
+         */
+        public Builder<T> add(T e) {
+            Preconditions.checkNotNull(e, "element cannot be null");
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+            elements[size++] = e;
+            return this;
+        }
+
+        /**
+         * Adds the given elements to the end of this builder.
+         * 
+         * @param elements
+         *            elements
+         * @return this builder
+         */
+        public Builder<T> addAll(T... elements) {
+            for (T e : elements)
+                add(e);
+            return this;
+        }
+
+        /**
+         * Adds the given elements to the end of this builder.
+         * 
+         * @param elements
+         *            elements
+         * @return this builder
+         */
+        public Builder<T> addAll(Iterable<? extends T> elements) {
+            for (T e : elements)
+                add(e);
+            return this;
+        }
+
+        /**
+         * Returns the number of elements added to this builder.
+         * 
+         * @return element count
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns a sequence containing all elements added to this builder.
+         * 
+         * @return sequence
+         */
+        public IndexedSeq<T> build() {
+            return new IndexedSeq<T>(chunkTree(elements, size));
+        }
     }
 
     public List<T> asList() {
@@ -56,17 +180,39 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
             public int size() {
                 return IndexedSeq.this.size();
             }
+
+            @Override
+            public Iterator<T> iterator() {
+                return IndexedSeq.this.iterator();
+            }
+
+            @Override
+            public ListIterator<T> listIterator(int index) {
+                return IndexedSeq.this.listIterator(index);
+            }
         }
         return new ListAdapter();
     }
 
     @Override
     public Iterator<T> iterator() {
-        return tree.iterator();
+        return new ElementIterator<T>(tree.iterator(), false);
     }
 
     public Iterator<T> reverseIterator() {
-        return tree.reverseIterator();
+        return new ElementIterator<T>(tree.reverseIterator(), true);
+    }
+
+    /**
+     * Passes all elements to the given effect in order. This is faster than iteration, because the chunks are
+     * traversed without iterators.
+     * 
+     * @param e
+     *            effect
+     */
+    public void forEach(Effect<? super T> e) {
+        Preconditions.checkNotNull(e, "effect cannot be null");
+        tree.forEach(new ChunkEffect<T>(e));
     }
 
     public int indexOf(T value) {
@@ -83,7 +229,7 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
     public int lastIndexOf(T value) {
         Preconditions.checkNotNull(value, "value cannot be null");
 
-        val it = listIterator();
+        val it = listIterator(size());
         while (it.hasPrevious())
             if (value.equals(it.previous()))
                 return it.nextIndex();
@@ -96,45 +242,75 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
     }
 
     public ListIterator<T> listIterator(final int index) {
-        Preconditions.checkElementIndex(index, tree.measure());
+        Preconditions.checkPositionIndex(index, tree.measure());
 
+        /*
+         * The chunk cursor is always positioned after the current chunk, and offset points to the next element inside
+         * the current chunk.
+         */
         class ListIterator extends UnmodifiableListIterator<T> {
-            private int cursor = index;
+            private final IntFingerTreeCursor<Object[]> cursor = tree.cursor(new ElementAt(index));
+            private Object[] chunk;
+            private int offset;
+            private int cursorIndex = index;
+
+            {
+                if (index < size()) {
+                    chunk = cursor.next();
+                    offset = chunk.length - (chunkEnd(index) - index);
+                } else if (index > 0) {
+                    chunk = cursor.previous();
+                    cursor.next();
+                    offset = chunk.length;
+                }
+            }
 
             @Override
             public boolean hasNext() {
-                return cursor != size();
+                return cursorIndex != size();
             }
 
             @Override
+            @SuppressWarnings("unchecked")
             public T next() {
-                int i = cursor + 1;
-                T e = get(i);
-                cursor = i;
-                return e;
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                if (offset == chunk.length) {
+                    chunk = cursor.next();
+                    offset = 0;
+                }
+                cursorIndex++;
+                return (T) chunk[offset++];
             }
 
             @Override
             public boolean hasPrevious() {
-                return cursor != 0;
+                return cursorIndex != 0;
             }
 
             @Override
+            @SuppressWarnings("unchecked")
             public T previous() {
-                int i = cursor - 1;
-                T e = get(i);
-                cursor = i;
-                return e;
+                if (!hasPrevious())
+                    throw new NoSuchElementException();
+                if (offset == 0) {
+                    cursor.previous();
+                    chunk = cursor.previous();
+                    cursor.next();
+                    offset = chunk.length;
+                }
+                cursorIndex--;
+                return (T) chunk[--offset];
             }
 
             @Override
             public int nextIndex() {
-                return cursor;
+                return cursorIndex;
             }
 
             @Override
             public int previousIndex() {
-                return cursor - 1;
+                return cursorIndex - 1;
             }
         }
         return new ListIterator();
@@ -153,32 +329,271 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
     }
 
     public IndexedSeq<T> append(T e) {
-        return new IndexedSeq<T>(tree.append(e));
+        Preconditions.checkNotNull(e, "value cannot be null");
+        if (tree.isEmpty())
+            return of(e);
+        val last = tree.getLastUnsafe();
+        if (last.length == CHUNK_SIZE)
+            return new IndexedSeq<T>(tree.append(new Object[] { e }));
+        val chunk = Arrays.copyOf(last, last.length + 1);
+        chunk[last.length] = e;
+        return new IndexedSeq<T>(tree.init().append(chunk));
     }
 
     public IndexedSeq<T> prepend(T e) {
-        return new IndexedSeq<T>(tree.prepend(e));
+        Preconditions.checkNotNull(e, "value cannot be null");
+        if (tree.isEmpty())
+            return of(e);
+        val head = tree.getHeadUnsafe();
+        if (head.length == CHUNK_SIZE)
+            return new IndexedSeq<T>(tree.prepend(new Object[] { e }));
+        val chunk = new Object[head.length + 1];
+        chunk[0] = e;
+        System.arraycopy(head, 0, chunk, 1, head.length);
+        return new IndexedSeq<T>(tree.tail().prepend(chunk));
+    }
+
+    /**
+     * Returns the first element of this sequence.
+     * 
+     * @return Some(element), or None if this sequence is empty
+     */
+    @SuppressWarnings("unchecked")
+    public Option<T> peekFirst() {
+        if (tree.isEmpty())
+            return Option.none();
+        return Option.some((T) tree.getHeadUnsafe()[0]);
+    }
+
+    /**
+     * Returns the last element of this sequence.
+     * 
+     * @return Some(element), or None if this sequence is empty
+     */
+    @SuppressWarnings("unchecked")
+    public Option<T> peekLast() {
+        if (tree.isEmpty())
+            return Option.none();
+        val last = tree.getLastUnsafe();
+        return Option.some((T) last[last.length - 1]);
+    }
+
+    /**
+     * Returns a sequence without the first element of this sequence.
+     * 
+     * @return sequence
+     * @throws NoSuchElementException
+     *             if this sequence is empty
+     */
+    public IndexedSeq<T> removeFirst() {
+        if (tree.isEmpty())
+            throw new NoSuchElementException("Cannot remove from an empty sequence");
+        val head = tree.getHeadUnsafe();
+        if (head.length == 1)
+            return new IndexedSeq<T>(tree.tail());
+        return new IndexedSeq<T>(tree.tail().prepend(Arrays.copyOfRange(head, 1, head.length)));
+    }
+
+    /**
+     * Returns a sequence without the last element of this sequence.
+     * 
+     * @return sequence
+     * @throws NoSuchElementException
+     *             if this sequence is empty
+     */
+    public IndexedSeq<T> removeLast() {
+        if (tree.isEmpty())
+            throw new NoSuchElementException("Cannot remove from an empty sequence");
+        val last = tree.getLastUnsafe();
+        if (last.length == 1)
+            return new IndexedSeq<T>(tree.init());
+        return new IndexedSeq<T>(tree.init().append(Arrays.copyOf(last, last.length - 1)));
+    }
+
+    /**
+     * Removes the first element of this sequence.
+     * 
+     * @return Some(first element and the remaining sequence), or None if this sequence is empty
+     */
+    public Option<Tuple2<T, IndexedSeq<T>>> pollFirst() {
+        if (tree.isEmpty())
+            return Option.none();
+        return Option.some(Tuple2.of(peekFirst().getValue(), removeFirst()));
+    }
+
+    /**
+     * Removes the last element of this sequence.
+     * 
+     * @return Some(last element and the remaining sequence), or None if this sequence is empty
+     */
+    public Option<Tuple2<T, IndexedSeq<T>>> pollLast() {
+        if (tree.isEmpty())
+            return Option.none();
+        return Option.some(Tuple2.of(peekLast().getValue(), removeLast()));
     }
 
     public <O> IndexedSeq<O> map(Function<? super T, O> f) {
-        return new IndexedSeq<O>(tree.map(FACTORY.<O> cast(), f));
+        return new IndexedSeq<O>(tree.map(FACTORY, new ChunkMapper<T, O>(f)));
     }
 
     public boolean isEmpty() {
         return tree.isEmpty();
     }
 
+    @SuppressWarnings("unchecked")
     public T get(int index) {
         Preconditions.checkElementIndex(index, tree.measure());
-        val split = tree.split(byIndex(index), 0);
-        return split.pivot;
+        val elementAt = new ElementAt(index);
+        return (T) tree.lookup(elementAt, 0, elementAt);
     }
 
     public IndexedSeq<T> set(int index, T e) {
         Preconditions.checkElementIndex(index, tree.measure());
-        val split = tree.split(byIndex(index), 0);
+        Preconditions.checkNotNull(e, "element cannot be null");
+        val split = tree.split(new ElementAt(index), 0);
 
-        return new IndexedSeq<T>(split.left.append(e).concat(split.right));
+        val chunk = split.pivot.clone();
+        chunk[index - split.left.measure()] = e;
+        return new IndexedSeq<T>(split.left.append(chunk).concat(split.right));
+    }
+
+    /**
+     * Returns a sequence with the given element inserted at the given index. Elements at and after the index are
+     * shifted to the right.
+     * 
+     * @param index
+     *            index, between 0 and size (inclusive)
+     * @param e
+     *            element
+     * @return sequence
+     */
+    public IndexedSeq<T> insert(int index, T e) {
+        Preconditions.checkPositionIndex(index, tree.measure());
+        Preconditions.checkNotNull(e, "element cannot be null");
+        if (index == tree.measure())
+            return append(e);
+        if (index == 0)
+            return prepend(e);
+        val split = tree.split(new ElementAt(index), 0);
+        val pivot = split.pivot;
+        int offset = index - split.left.measure();
+
+        if (pivot.length < CHUNK_SIZE) {
+            val chunk = new Object[pivot.length + 1];
+            System.arraycopy(pivot, 0, chunk, 0, offset);
+            chunk[offset] = e;
+            System.arraycopy(pivot, offset, chunk, offset + 1, pivot.length - offset);
+            return new IndexedSeq<T>(split.left.append(chunk).concat(split.right));
+        }
+
+        val left = Arrays.copyOf(pivot, offset + 1);
+        left[offset] = e;
+        val right = Arrays.copyOfRange(pivot, offset, pivot.length);
+        return new IndexedSeq<T>(split.left.append(left).append(right).concat(split.right));
+    }
+
+    /**
+     * Returns a sequence without the element at the given index. Elements after the index are shifted to the left.
+     * 
+     * @param index
+     *            index of the removed element
+     * @return sequence
+     */
+    public IndexedSeq<T> remove(int index) {
+        Preconditions.checkElementIndex(index, tree.measure());
+        val split = tree.split(new ElementAt(index), 0);
+        val pivot = split.pivot;
+        if (pivot.length == 1)
+            return new IndexedSeq<T>(split.left.concat(split.right));
+
+        int offset = index - split.left.measure();
+        val chunk = new Object[pivot.length - 1];
+        System.arraycopy(pivot, 0, chunk, 0, offset);
+        System.arraycopy(pivot, offset + 1, chunk, offset, chunk.length - offset);
+        return new IndexedSeq<T>(split.left.append(chunk).concat(split.right));
+    }
+
+    /**
+     * Splits this sequence into two sequences. The first one contains the elements before the given index, and the
+     * second one contains the rest.
+     * 
+     * @param index
+     *            split index, between 0 and size (inclusive)
+     * @return the elements before the index and the elements starting at the index
+     */
+    public Tuple2<IndexedSeq<T>, IndexedSeq<T>> splitAt(int index) {
+        Preconditions.checkPositionIndex(index, tree.measure());
+        if (index == 0)
+            return Tuple2.of(IndexedSeq.<T> empty(), this);
+        if (index == tree.measure())
+            return Tuple2.of(this, IndexedSeq.<T> empty());
+
+        val split = tree.split(new ElementAt(index), 0);
+        val pivot = split.pivot;
+        int offset = index - split.left.measure();
+        if (offset == 0)
+            return Tuple2.of(new IndexedSeq<T>(split.left), new IndexedSeq<T>(split.right.prepend(pivot)));
+
+        val left = split.left.append(Arrays.copyOf(pivot, offset));
+        val right = split.right.prepend(Arrays.copyOfRange(pivot, offset, pivot.length));
+        return Tuple2.of(new IndexedSeq<T>(left), new IndexedSeq<T>(right));
+    }
+
+    /**
+     * Returns a sequence containing the first n elements of this sequence.
+     * 
+     * @param n
+     *            number of elements, between 0 and size (inclusive)
+     * @return sequence
+     */
+    public IndexedSeq<T> take(int n) {
+        Preconditions.checkPositionIndex(n, tree.measure());
+        if (n == tree.measure())
+            return this;
+        if (n == 0)
+            return empty();
+
+        val split = tree.split(new ElementAt(n), 0);
+        int offset = n - split.left.measure();
+        if (offset == 0)
+            return new IndexedSeq<T>(split.left);
+        return new IndexedSeq<T>(split.left.append(Arrays.copyOf(split.pivot, offset)));
+    }
+
+    /**
+     * Returns a sequence without the first n elements of this sequence.
+     * 
+     * @param n
+     *            number of elements, between 0 and size (inclusive)
+     * @return sequence
+     */
+    public IndexedSeq<T> drop(int n) {
+        Preconditions.checkPositionIndex(n, tree.measure());
+        if (n == 0)
+            return this;
+        if (n == tree.measure())
+            return empty();
+
+        val split = tree.split(new ElementAt(n), 0);
+        val pivot = split.pivot;
+        int offset = n - split.left.measure();
+        if (offset == 0)
+            return new IndexedSeq<T>(split.right.prepend(pivot));
+        return new IndexedSeq<T>(split.right.prepend(Arrays.copyOfRange(pivot, offset, pivot.length)));
+    }
+
+    /**
+     * Returns a sequence containing the elements between the given indexes.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return sequence
+     */
+    public IndexedSeq<T> slice(int from, int to) {
+        Preconditions.checkPositionIndexes(from, to, tree.measure());
+        return take(to).drop(from);
     }
 
     public IndexedSeq<T> concat(IndexedSeq<T> other) {
@@ -186,22 +601,325 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
             return this;
         if (this.isEmpty())
             return other;
-        return new IndexedSeq<T>(tree.concat(other.tree));
+        val last = tree.getLastUnsafe();
+        val head = other.tree.getHeadUnsafe();
+        if (last.length + head.length > CHUNK_SIZE)
+            return new IndexedSeq<T>(tree.concat(other.tree));
+        val chunk = Arrays.copyOf(last, last.length + head.length);
+        System.arraycopy(head, 0, chunk, last.length, head.length);
+        return new IndexedSeq<T>(tree.init().append(chunk).concat(other.tree.tail()));
+    }
+
+    /**
+     * Returns the index ranges that differ between this sequence and the given sequence, in order. Chunks that the
+     * sequences share (e.g. because one sequence was derived from the other) are skipped without looking at their
+     * elements, so comparing two versions of a large sequence that differ by replaced elements takes time proportional
+     * to the number of changes. Changes that add or remove chunks shift the chunks after them, so all elements between
+     * the first and the last such change are compared.
+     * <p>
+     * The common prefix and suffix are never reported as changed, but the result is not guaranteed to be minimal:
+     * elements between two edits that shifted positions are reported as changed.
+     * 
+     * @param other
+     *            other sequence
+     * @return changed ranges, or an empty list if the sequences contain equal elements
+     */
+    public List<Edit> diff(IndexedSeq<T> other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        val result = ImmutableList.<Edit> builder();
+        Edit pending = null;
+        for (Edit edit : tree.diff(other.tree)) {
+            // Chunks are compared by identity, and chunks that differ can contain different numbers of elements. Until
+            // the lengths of the pending edits balance out, equal chunks after them can be matched at shifted
+            // positions, so such edits are joined before they are narrowed down to the elements that differ
+            if (pending != null)
+                edit = new Edit(pending.from, edit.to, pending.otherFrom, edit.otherTo);
+            if (edit.to - edit.from != edit.otherTo - edit.otherFrom) {
+                pending = edit;
+                continue;
+            }
+            pending = null;
+            addNarrowed(result, other, edit);
+        }
+        if (pending != null)
+            addNarrowed(result, other, pending);
+        return result.build();
+    }
+
+    /**
+     * Adds the given edit to the result without the equal elements at its start and end, or skips it if all its
+     * elements are equal.
+     */
+    private void addNarrowed(ImmutableList.Builder<Edit> result, IndexedSeq<T> other, Edit edit) {
+        int from = edit.from;
+        int to = edit.to;
+        int otherFrom = edit.otherFrom;
+        int otherTo = edit.otherTo;
+        val it = listIterator(from);
+        val otherIt = other.listIterator(otherFrom);
+        while (from < to && otherFrom < otherTo && it.next().equals(otherIt.next())) {
+            from++;
+            otherFrom++;
+        }
+        val reverseIt = listIterator(to);
+        val otherReverseIt = other.listIterator(otherTo);
+        while (from < to && otherFrom < otherTo && reverseIt.previous().equals(otherReverseIt.previous())) {
+            to--;
+            otherTo--;
+        }
+        if (from < to || otherFrom < otherTo)
+            result.add(new Edit(from, to, otherFrom, otherTo));
     }
 
     @CheckForNull
     public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
-        return tree.foldLeft(initial, f);
+        U accum = initial;
+        for (T e : this)
+            accum = f.apply(accum, e);
+        return accum;
     }
 
-    private static Predicate<Integer> byIndex(final int index) {
-        class ByIndexPredicate implements Predicate<Integer> {
-            @Override
-            public boolean apply(Integer input) {
-                return input > index;
+    /**
+     * Maps all elements with the given function, and combines the results from left to right with the given monoid.
+     * 
+     * @param monoid
+     *            monoid
+     * @param f
+     *            mapper function
+     * @return combined result, or the monoid identity if this sequence is empty
+     */
+    public <M> M foldMap(Monoid<M> monoid, Function<? super T, M> f) {
+        return TreeFolds.foldMap(null, tree, CHUNK_SIZE, monoid, new ChunkFoldMap<T, M>(monoid, f));
+    }
+
+    /**
+     * Maps the elements between the given indexes with the given function, and combines the results from left to right
+     * with the given monoid. Only the chunks containing the range are visited, so no intermediate sequences are built.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @param monoid
+     *            monoid
+     * @param f
+     *            mapper function
+     * @return combined result, or the monoid identity if the range is empty
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M foldMap(int from, int to, Monoid<M> monoid, Function<? super T, M> f) {
+        Preconditions.checkPositionIndexes(from, to, tree.measure());
+        M result = monoid.mempty();
+        if (from == to)
+            return result;
+        val cursor = tree.cursor(new ElementAt(from));
+        Object[] chunk = cursor.next();
+        int offset = from - (chunkEnd(from) - chunk.length);
+        int index = from;
+        while (true) {
+            for (; offset < chunk.length && index < to; offset++, index++)
+                result = monoid.mappend(result, f.apply((T) chunk[offset]));
+            if (index == to)
+                return result;
+            chunk = cursor.next();
+            offset = 0;
+        }
+    }
+
+    /**
+     * Combines the elements between the given indexes from left to right with the given monoid, e.g.
+     * {@code seq.fold(from, to, Monoids.integerSum())}.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @param monoid
+     *            monoid
+     * @return combined result, or the monoid identity if the range is empty
+     */
+    public T fold(int from, int to, Monoid<T> monoid) {
+        return foldMap(from, to, monoid, Functions.<T> identity());
+    }
+
+    /**
+     * Works like {@link #foldMap(Monoid, Function)}, but large sequences are folded in parallel by submitting tasks to
+     * the given executor. A {@code ForkJoinPool} can be used on Java 7+.
+     * 
+     * @param executor
+     *            executor used for folding parts of large sequences
+     * @param monoid
+     *            monoid, which must be safe to use from multiple threads
+     * @param f
+     *            mapper function, which must be safe to use from multiple threads
+     * @return combined result, or the monoid identity if this sequence is empty
+     */
+    public <M> M parallelFoldMap(ExecutorService executor, Monoid<M> monoid, Function<? super T, M> f) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        return TreeFolds.foldMap(executor, tree, CHUNK_SIZE, monoid, new ChunkFoldMap<T, M>(monoid, f));
+    }
+
+    /**
+     * Returns the index after the last element of the chunk that contains the given index.
+     */
+    private int chunkEnd(int index) {
+        val elementAt = new ElementAt(index);
+        return tree.lookup(elementAt, 0, ChunkEnd.INSTANCE);
+    }
+
+    private static IntFingerTree<Object[]> chunkTree(Object[] elements, int size) {
+        val chunks = new Object[(size + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        for (int i = 0; i < chunks.length; i++) {
+            int from = i * CHUNK_SIZE;
+            chunks[i] = Arrays.copyOfRange(elements, from, Math.min(from + CHUNK_SIZE, size));
+        }
+        return FACTORY.build(chunks, 0, chunks.length);
+    }
+
+    /**
+     * Finds the chunk containing the element at the given index, and returns the element.
+     */
+    private static final class ElementAt implements IntPredicate, Lookup<Object[], Object> {
+        private final int index;
+
+        ElementAt(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean apply(int input) {
+            return input > index;
+        }
+
+        @Override
+        public Object apply(Object[] chunk, int accum) {
+            return chunk[index - accum];
+        }
+    }
+
+    private static final class ChunkEnd implements Lookup<Object[], Integer> {
+        private static final ChunkEnd INSTANCE = new ChunkEnd();
+
+        @Override
+        public Integer apply(Object[] chunk, int accum) {
+            return accum + chunk.length;
+        }
+    }
+
+    private static final class ChunkSize implements ToIntFunction<Object[]>, Serializable {
+        private static final long serialVersionUID = -6283049920874511953L;
+
+        private static final ChunkSize INSTANCE = new ChunkSize();
+
+        @Override
+        public int apply(Object[] input) {
+            return input.length;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    private static final class ChunkMapper<T, O> implements Function<Object[], Object[]> {
+        private final Function<? super T, O> f;
+
+        ChunkMapper(Function<? super T, O> f) {
+            this.f = f;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object[] apply(Object[] input) {
+            val result = new Object[input.length];
+            for (int i = 0; i < input.length; i++)
+                result[i] = f.apply((T) input[i]);
+            return result;
+        }
+    }
+
+    private static final class ChunkFoldMap<T, M> implements Function<Object, M> {
+        private final Monoid<M> monoid;
+        private final Function<? super T, M> f;
+
+        ChunkFoldMap(Monoid<M> monoid, Function<? super T, M> f) {
+            this.monoid = monoid;
+            this.f = f;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public M apply(Object input) {
+            val chunk = (Object[]) input;
+            M result = f.apply((T) chunk[0]);
+            for (int i = 1; i < chunk.length; i++)
+                result = monoid.mappend(result, f.apply((T) chunk[i]));
+            return result;
+        }
+    }
+
+    private static final class ChunkReverser implements Function<Object[], Object[]> {
+        private static final ChunkReverser INSTANCE = new ChunkReverser();
+
+        @Override
+        public Object[] apply(Object[] input) {
+            val result = new Object[input.length];
+            for (int i = 0; i < input.length; i++)
+                result[i] = input[input.length - 1 - i];
+            return result;
+        }
+    }
+
+    private static final class ChunkEffect<T> implements Effect<Object[]> {
+        private final Effect<? super T> e;
+
+        ChunkEffect(Effect<? super T> e) {
+            this.e = e;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void apply(Object[] input) {
+            for (Object element : input)
+                e.apply((T) element);
+        }
+    }
+
+    private static final class HashCodeEffect implements Effect<Object> {
+        private int hashCode = 1;
+
+        @Override
+        public void apply(Object input) {
+            hashCode = 31 * hashCode + input.hashCode();
+        }
+    }
+
+    private static final class ElementIterator<T> extends UnmodifiableIterator<T> {
+        private final Iterator<Object[]> chunks;
+        private final boolean reverse;
+        private Object[] chunk = new Object[0];
+        private int offset;
+
+        ElementIterator(Iterator<Object[]> chunks, boolean reverse) {
+            this.chunks = chunks;
+            this.reverse = reverse;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return offset < chunk.length || chunks.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (offset == chunk.length) {
+                chunk = chunks.next();
+                offset = 0;
             }
+            int i = offset++;
+            return (T) chunk[reverse ? chunk.length - 1 - i : i];
         }
-        return new ByIndexPredicate();
     }
 
     @Override
@@ -210,22 +928,102 @@ public class IndexedSeq<T> implements Iterable<T>, Serializable {
             return true;
         if (obj == null || !(obj.getClass() == this.getClass()))
             return false;
-        IndexedSeq<?> other = (IndexedSeq<?>) obj;
-        return this.tree.equals(other.tree);
+        @SuppressWarnings("unchecked")
+        IndexedSeq<T> other = (IndexedSeq<T>) obj;
+        if (size() != other.size())
+            return false;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode)
+            return false;
+        if (other.tree == tree)
+            return true;
+        // The sizes are equal, so the common prefix and suffix of shared chunks are at the same positions in both
+        // sequences, and only the elements between them are compared
+        val edits = tree.diff(other.tree);
+        if (edits.isEmpty())
+            return true;
+        int from = edits.get(0).from;
+        int to = edits.get(edits.size() - 1).to;
+        val it = listIterator(from);
+        val otherIt = other.listIterator(from);
+        for (int i = from; i < to; i++) {
+            if (!it.next().equals(otherIt.next()))
+                return false;
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return tree.hashCode();
+        int h = hashCode;
+        if (h == 0) {
+            val effect = new HashCodeEffect();
+            forEach(effect);
+            h = effect.hashCode;
+            hashCode = h;
+        }
+        return h;
     }
 
     @Override
     public String toString() {
-        return tree.toString();
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Serializes this sequence as its size and elements instead of the internal structure.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm<T>(this);
+    }
+
+    private static final class SerializedForm<T> implements Serializable {
+        private static final long serialVersionUID = -4729460615733140957L;
+
+        private transient IndexedSeq<T> seq;
+
+        SerializedForm(IndexedSeq<T> seq) {
+            this.seq = seq;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(seq.size());
+            for (T e : seq)
+                out.writeObject(e);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0)
+                throw new InvalidObjectException("Invalid serialized sequence size");
+            val elements = new Object[size];
+            for (int i = 0; i < size; i++) {
+                elements[i] = in.readObject();
+                if (elements[i] == null)
+                    throw new InvalidObjectException("element cannot be null");
+            }
+            seq = new IndexedSeq<T>(chunkTree(elements, size));
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return seq;
+        }
     }
 
     public IndexedSeq<T> reverse() {
-        return new IndexedSeq<T>(tree.reverse());
+        return new IndexedSeq<T>(tree.reverseAndMap(ChunkReverser.INSTANCE));
+    }
+
+    /**
+     * Returns a lazy view of this sequence. Unlike {@link #map(Function)} and {@link #reverse()}, which rebuild the
+     * whole sequence, the view operations take constant time and functions are applied only when elements are
+     * accessed.
+     * 
+     * @return view
+     */
+    public IndexedSeqView<T> view() {
+        return IndexedSeqView.of(this);
     }
 
 }
@@ -0,0 +1,167 @@
+package fi.gekkio.drumfish.data;
+
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.UnmodifiableIterator;
+
+import fi.gekkio.drumfish.lang.Effect;
+
+/**
+ * Lazy view of an {@link IndexedSeq}.
+ * <p>
+ * A view refers to a range of the underlying sequence, an orientation, and a function that is applied to the elements
+ * when they are accessed. {@link #map(Function)}, {@link #reverse()} and {@link #slice(int, int)} return new views in
+ * constant time without touching the elements, and chained maps are fused into a single function, so each element is
+ * mapped once per access. {@link #force()} builds a new sequence in linear time.
+ * <p>
+ * The mapping functions should be pure, because they are applied again every time an element is accessed.
+ * 
+ * @param <T>
+ *            element type
+ */
+public final class IndexedSeqView<T> implements Iterable<T> {
+
+    private final IndexedSeq<Object> source;
+    private final int from;
+    private final int to;
+    private final boolean reversed;
+    @Nullable
+    private final Function<Object, ? extends T> f;
+
+    private IndexedSeqView(IndexedSeq<Object> source, int from, int to, boolean reversed, @Nullable Function<Object, ? extends T> f) {
+        this.source = source;
+        this.from = from;
+        this.to = to;
+        this.reversed = reversed;
+        this.f = f;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> IndexedSeqView<T> of(IndexedSeq<T> source) {
+        return new IndexedSeqView<T>((IndexedSeq<Object>) source, 0, source.size(), false, null);
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return from == to;
+    }
+
+    public T get(int index) {
+        Preconditions.checkElementIndex(index, size());
+        return apply(source.get(reversed ? to - 1 - index : from + index));
+    }
+
+    /**
+     * Returns a view that applies the given function to the elements of this view when they are accessed. Takes
+     * constant time.
+     * 
+     * @param g
+     *            mapper function
+     * @return mapped view
+     */
+    @SuppressWarnings("unchecked")
+    public <O> IndexedSeqView<O> map(Function<? super T, O> g) {
+        Preconditions.checkNotNull(g, "function cannot be null");
+        if (f == null)
+            return new IndexedSeqView<O>(source, from, to, reversed, (Function<Object, O>) g);
+        return new IndexedSeqView<O>(source, from, to, reversed, Functions.compose(g, f));
+    }
+
+    /**
+     * Returns a view with the elements of this view in reverse order. Takes constant time.
+     * 
+     * @return reversed view
+     */
+    public IndexedSeqView<T> reverse() {
+        return new IndexedSeqView<T>(source, from, to, !reversed, f);
+    }
+
+    /**
+     * Returns a view of the elements between the given indexes. Takes constant time.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return sliced view
+     */
+    public IndexedSeqView<T> slice(int from, int to) {
+        Preconditions.checkPositionIndexes(from, to, size());
+        if (reversed)
+            return new IndexedSeqView<T>(source, this.to - to, this.to - from, true, f);
+        return new IndexedSeqView<T>(source, this.from + from, this.from + to, false, f);
+    }
+
+    /**
+     * Builds a sequence containing the elements of this view. Takes linear time, and applies the mapping function once
+     * to every element.
+     * 
+     * @return sequence
+     */
+    public IndexedSeq<T> force() {
+        val builder = IndexedSeq.<T> builder();
+        for (T e : this)
+            builder.add(e);
+        return builder.build();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        val elements = source.listIterator(reversed ? to : from);
+        return new UnmodifiableIterator<T>() {
+            private int remaining = size();
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public T next() {
+                if (remaining == 0)
+                    throw new NoSuchElementException();
+                remaining--;
+                return apply(reversed ? elements.previous() : elements.next());
+            }
+        };
+    }
+
+    /**
+     * Passes all elements to the given effect in order.
+     * 
+     * @param e
+     *            effect
+     */
+    public void forEach(Effect<? super T> e) {
+        Preconditions.checkNotNull(e, "effect cannot be null");
+        ListIterator<Object> elements = source.listIterator(reversed ? to : from);
+        for (int i = from; i < to; i++)
+            e.apply(apply(reversed ? elements.previous() : elements.next()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private T apply(Object element) {
+        if (f == null)
+            return (T) element;
+        return f.apply(element);
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+}
@@ -0,0 +1,928 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import lombok.experimental.Value;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.UnmodifiableIterator;
+
+import fi.gekkio.drumfish.data.IntFingerTreeNode.NodeEffect;
+import fi.gekkio.drumfish.data.IntFingerTreeNode.NodeLeftFold;
+import fi.gekkio.drumfish.data.IntFingerTreeNode.NodeMapper;
+import fi.gekkio.drumfish.data.IntFingerTreeNode.NodeReverser;
+import fi.gekkio.drumfish.lang.Effect;
+import fi.gekkio.drumfish.lang.Function2;
+import fi.gekkio.drumfish.lang.IntPredicate;
+import fi.gekkio.drumfish.lang.Monoid;
+import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Finger tree measured by primitive ints.
+ * <p>
+ * This is a specialization of {@link FingerTree} for the common case of int measures (sizes, counts, positions). Nodes
+ * and digits store their measures in int fields, and all measure arithmetic is done with an
+ * {@link fi.gekkio.drumfish.lang.IntMonoid}, so no {@link Integer} objects are created when a tree is built, split or
+ * searched.
+ * 
+ * @param <T>
+ *            element type
+ */
+public abstract class IntFingerTree<T> implements Iterable<T>, Serializable {
+    private static final long serialVersionUID = -1586193734187934311L;
+
+    @Value
+    public static class Split<T> implements Serializable {
+        private static final long serialVersionUID = -8815880569281224512L;
+
+        public final IntFingerTree<T> left;
+        public final T pivot;
+        public final IntFingerTree<T> right;
+    }
+
+    /**
+     * Callback that receives the element found by a lookup and the accumulated measure before it.
+     */
+    static interface Lookup<T, R> {
+        R apply(T element, int accum);
+    }
+
+    /**
+     * Appends an element to this tree.
+     * 
+     * @param value
+     *            element
+     * @return new finger tree
+     */
+    public abstract IntFingerTree<T> append(T value);
+
+    /**
+     * Prepends an element to this tree.
+     * 
+     * @param value
+     *            element
+     * @return new finger tree
+     */
+    public abstract IntFingerTree<T> prepend(T value);
+
+    /**
+     * Concatenates this tree and the given tree.
+     * 
+     * @param tree
+     *            other finger tree
+     * @return concatenated finger tree
+     */
+    public IntFingerTree<T> concat(IntFingerTree<T> tree) {
+        return concat(NO_ITEMS, 0, tree);
+    }
+
+    /**
+     * Returns the measure of this tree.
+     * 
+     * @return measure
+     */
+    public abstract int measure();
+
+    /**
+     * Checks it this tree is empty.
+     * 
+     * @return true if empty, false otherwise
+     */
+    public abstract boolean isEmpty();
+
+    public boolean isSingle() {
+        return false;
+    }
+
+    /**
+     * Transforms all elements in this tree with the given function. The given factory is used for constructing the
+     * resulting tree.
+     * 
+     * @param factory
+     *            result tree factory
+     * @param f
+     *            mapper function
+     * @return transformed finger tree
+     */
+    public abstract <O> IntFingerTree<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f);
+
+    /**
+     * Returns the first element of this tree if it exists.
+     * 
+     * @return Some(element) if this tree is not empty, None otherwise
+     */
+    public Option<T> getHead() {
+        return isEmpty() ? Option.<T> none() : Option.some(getHeadUnsafe());
+    }
+
+    /**
+     * Returns the last element of this tree if it exists.
+     * 
+     * @return Some(element) if this tree is not empty, None otherwise
+     */
+    public Option<T> getLast() {
+        return isEmpty() ? Option.<T> none() : Option.some(getLastUnsafe());
+    }
+
+    public abstract T getHeadUnsafe();
+
+    public abstract T getLastUnsafe();
+
+    /**
+     * Returns this tree without its first element.
+     * 
+     * @return new finger tree
+     * @throws UnsupportedOperationException
+     *             if this tree is empty
+     */
+    public abstract IntFingerTree<T> tail();
+
+    /**
+     * Returns this tree without its last element.
+     * 
+     * @return new finger tree
+     * @throws UnsupportedOperationException
+     *             if this tree is empty
+     */
+    public abstract IntFingerTree<T> init();
+
+    @Override
+    public Iterator<T> iterator() {
+        return cursor();
+    }
+
+    /**
+     * Returns an iterator that iterates this tree in reverse order (e.g. last to first).
+     * 
+     * @return reverse iterator
+     */
+    public Iterator<T> reverseIterator() {
+        val cursor = new IntFingerTreeCursor<T>(this);
+        cursor.seekToEnd();
+        return new UnmodifiableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return cursor.hasPrevious();
+            }
+
+            @Override
+            public T next() {
+                return cursor.previous();
+            }
+        };
+    }
+
+    /**
+     * Splits this tree at the first element that makes the accumulated measure pass the given predicate. The tree
+     * must not be empty, and the predicate must pass for the measure of the whole tree combined with the initial
+     * accumulator.
+     * 
+     * @param p
+     *            predicate
+     * @param accum
+     *            initial accumulator
+     * @return split
+     */
+    public abstract Split<T> split(IntPredicate p, int accum);
+
+    /**
+     * Splits this tree into two trees. The right tree starts with the first element that makes the accumulated
+     * measure pass the given predicate.
+     * 
+     * @param p
+     *            predicate
+     * @return left and right trees
+     */
+    public Tuple2<IntFingerTree<T>, IntFingerTree<T>> split(IntPredicate p) {
+        val factory = getFactory();
+        if (isEmpty() || !p.apply(measure()))
+            return Tuple2.of(this, factory.emptyTree);
+        val split = split(p, factory.mempty());
+        return Tuple2.of(split.left, split.right.prepend(split.pivot));
+    }
+
+    /**
+     * Returns the factory that created this tree.
+     * 
+     * @return factory
+     */
+    public abstract IntFingerTreeFactory<T> getFactory();
+
+    /**
+     * Returns this tree with elements in reverse order.
+     * 
+     * @return reversed tree
+     */
+    public IntFingerTree<T> reverse() {
+        return reverseAndMap(Functions.<T> identity());
+    }
+
+    @CheckForNull
+    public abstract <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f);
+
+    /**
+     * Passes all elements to the given effect from left to right, without allocating iterators.
+     * 
+     * @param e
+     *            effect
+     */
+    public abstract void forEach(Effect<? super T> e);
+
+    /**
+     * Maps all elements with the given function, and combines the results from left to right with the given monoid.
+     * 
+     * @param monoid
+     *            monoid
+     * @param f
+     *            mapper function
+     * @return combined result, or the monoid identity if this tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M foldMap(Monoid<M> monoid, Function<? super T, M> f) {
+        return TreeFolds.foldMap(null, this, 1, monoid, (Function<Object, M>) f);
+    }
+
+    /**
+     * Works like {@link #foldMap(Monoid, Function)}, but large trees are split along their structure into pieces that
+     * are folded in parallel by submitting tasks to the given executor. A {@code ForkJoinPool} can be used on Java 7+.
+     * Small trees are always folded in the calling thread.
+     * 
+     * @param executor
+     *            executor used for folding pieces of large trees
+     * @param monoid
+     *            monoid, which must be safe to use from multiple threads
+     * @param f
+     *            mapper function, which must be safe to use from multiple threads
+     * @return combined result, or the monoid identity if this tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public <M> M parallelFoldMap(ExecutorService executor, Monoid<M> monoid, Function<? super T, M> f) {
+        Preconditions.checkNotNull(executor, "executor cannot be null");
+        return TreeFolds.foldMap(executor, this, 1, monoid, (Function<Object, M>) f);
+    }
+
+    /**
+     * Returns a tree which contains the left sequence of elements that pass the predicate.
+     * 
+     * @param p
+     *            predicate
+     * @return new finger tree
+     */
+    public IntFingerTree<T> takeUntil(IntPredicate p) {
+        return split(p).a;
+    }
+
+    /**
+     * Returns a tree which contains the right sequence of elements starting from the first element that passes the
+     * predicate.
+     * 
+     * @param p
+     *            predicate
+     * @return new finger tree
+     */
+    public IntFingerTree<T> dropUntil(IntPredicate p) {
+        return split(p).b;
+    }
+
+    /**
+     * Finds the first element that makes the accumulated measure pass the given predicate. Unlike
+     * {@link #split(IntPredicate)}, this does not build any new trees.
+     * 
+     * @param p
+     *            predicate
+     * @return Some(element) if an element passed the predicate, None otherwise
+     */
+    public Option<T> find(IntPredicate p) {
+        if (isEmpty() || !p.apply(measure()))
+            return Option.none();
+        return lookup(p, getFactory().mempty(), FindLookup.<T> instance());
+    }
+
+    /**
+     * Returns a cursor that is positioned before the first element of this tree.
+     * 
+     * @return cursor
+     */
+    public IntFingerTreeCursor<T> cursor() {
+        return new IntFingerTreeCursor<T>(this);
+    }
+
+    /**
+     * Returns a cursor that is positioned before the first element that makes the accumulated measure pass the given
+     * predicate. If there is no such element, the cursor is positioned after the last element.
+     * 
+     * @param p
+     *            predicate
+     * @return cursor
+     */
+    public IntFingerTreeCursor<T> cursor(IntPredicate p) {
+        val cursor = new IntFingerTreeCursor<T>(this);
+        cursor.seek(p);
+        return cursor;
+    }
+
+    /**
+     * Checks if all elements of this tree are equal to the elements in the given tree.
+     * 
+     * @param other
+     *            other finger tree
+     * @return true if elements were equal, false otherwise
+     */
+    public boolean elementsEqual(IntFingerTree<?> other) {
+        if (other == this)
+            return true;
+        // Equal elements always have equal measures with the same measurement function
+        if (other.getFactory() == getFactory() && other.measure() != measure())
+            return false;
+        return new IntFingerTreeDiff<T>(getFactory()).elementsEqual(this, other);
+    }
+
+    /**
+     * Returns the ranges that differ between this tree and the given tree, in order. Parts of the trees that are shared
+     * are skipped without looking at their elements if they have the same position in both trees. If elements were only
+     * replaced, the cost is proportional to the number of changes times the depth of the trees, but all elements
+     * between the first and the last change that inserts or removes elements are compared.
+     * <p>
+     * Positions are accumulated measures, so they are element indexes only if the measure of each element is 1. The
+     * common prefix and suffix are never reported as changed, but the result is not guaranteed to be minimal.
+     * 
+     * @param other
+     *            other finger tree
+     * @return changed ranges, or an empty list if the trees contain equal elements
+     */
+    public List<Edit> diff(IntFingerTree<T> other) {
+        Preconditions.checkNotNull(other, "other cannot be null");
+        return new IntFingerTreeDiff<T>(getFactory()).diff(this, other);
+    }
+
+    /**
+     * Finds the first element that makes the accumulated measure pass the given predicate, and passes it to the
+     * callback together with the accumulated measure before it. The tree is searched iteratively without building
+     * new trees. The tree must not be empty, and the predicate must pass for the measure of the whole tree combined
+     * with the initial accumulator.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R lookup(IntPredicate p, int accum, Lookup<? super T, R> f) {
+        val factory = getFactory();
+        IntFingerTree<?> tree = this;
+        int level = 0;
+        Object item;
+        while (true) {
+            if (tree instanceof Single) {
+                item = ((Single<?>) tree).a;
+                break;
+            }
+            val deep = (Deep<?>) tree;
+            IntFingerTreeDigit<?> digit;
+            int accumL = factory.mappend(accum, deep.left.measure());
+            if (p.apply(accumL)) {
+                digit = deep.left;
+            } else {
+                int accumM = factory.mappend(accumL, deep.middle.measure());
+                if (!deep.middle.isEmpty() && p.apply(accumM)) {
+                    accum = accumL;
+                    tree = deep.middle;
+                    level++;
+                    continue;
+                }
+                accum = accumM;
+                digit = deep.right;
+            }
+            int last = digit.size() - 1;
+            int i = 0;
+            while (i < last) {
+                int next = factory.mappend(accum, measure(level, digit.get(i)));
+                if (p.apply(next))
+                    break;
+                accum = next;
+                i++;
+            }
+            item = digit.get(i);
+            break;
+        }
+        while (level > 0) {
+            val node = (IntFingerTreeNode<?>) item;
+            level--;
+            int last = node.size() - 1;
+            int i = 0;
+            while (i < last) {
+                int next = factory.mappend(accum, measure(level, node.get(i)));
+                if (p.apply(next))
+                    break;
+                accum = next;
+                i++;
+            }
+            item = node.get(i);
+        }
+        return f.apply((T) item, accum);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int measure(int level, Object item) {
+        if (level == 0)
+            return getFactory().measure((T) item);
+        return ((IntFingerTreeNode<?>) item).measure();
+    }
+
+    /**
+     * Concatenates this tree, the given items and the given tree.
+     */
+    abstract IntFingerTree<T> concat(Object[] items, int count, IntFingerTree<T> tree);
+
+    abstract IntFingerTree<T> reverseAndMap(Function<T, T> f);
+
+    private static final Object[] NO_ITEMS = new Object[0];
+
+    private IntFingerTree() {
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj instanceof IntFingerTree))
+            return false;
+        IntFingerTree<?> other = (IntFingerTree<?>) obj;
+        return elementsEqual(other);
+    }
+
+    /**
+     * Returns a hash code computed from the elements like {@link java.util.List#hashCode()}, so equal trees have equal
+     * hash codes regardless of their internal structure.
+     */
+    @Override
+    public abstract int hashCode();
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Serializes this tree as its factory, element count and elements instead of the internal node graph. The tree is
+     * rebuilt in linear time when it is deserialized.
+     */
+    Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm<T>(this);
+    }
+
+    private static final class SerializedForm<T> implements Serializable {
+        private static final long serialVersionUID = 6409718361095267412L;
+
+        private transient IntFingerTree<T> tree;
+
+        SerializedForm(IntFingerTree<T> tree) {
+            this.tree = tree;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            val elements = Iterables.toArray(tree, Object.class);
+            out.writeObject(tree.getFactory());
+            out.writeInt(elements.length);
+            for (Object e : elements)
+                out.writeObject(e);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            val factory = (IntFingerTreeFactory<T>) in.readObject();
+            int count = in.readInt();
+            if (factory == null || count < 0)
+                throw new InvalidObjectException("Invalid serialized finger tree");
+            val elements = new Object[count];
+            for (int i = 0; i < count; i++) {
+                elements[i] = in.readObject();
+                if (elements[i] == null)
+                    throw new InvalidObjectException("element cannot be null");
+            }
+            tree = factory.build(elements, 0, count);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return tree;
+        }
+    }
+
+    @RequiredArgsConstructor
+    static abstract class Empty<T> extends IntFingerTree<T> {
+        private static final long serialVersionUID = -5848329460432066744L;
+
+        @Override
+        public boolean isEmpty() {
+            return true;
+        }
+
+        @Override
+        public int measure() {
+            return getFactory().mempty();
+        }
+
+        @Override
+        public IntFingerTree<T> prepend(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            return getFactory().tree(value);
+        }
+
+        @Override
+        public IntFingerTree<T> append(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            return getFactory().tree(value);
+        }
+
+        @Override
+        IntFingerTree<T> concat(Object[] items, int count, IntFingerTree<T> tree) {
+            return prependItems(items, count, tree);
+        }
+
+        @Override
+        public <O> IntFingerTree<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+            return factory.emptyTree;
+        }
+
+        @Override
+        public T getHeadUnsafe() {
+            throw new UnsupportedOperationException("Cannot get the head of an empty tree");
+        }
+
+        @Override
+        public T getLastUnsafe() {
+            throw new UnsupportedOperationException("Cannot get the last element of an empty tree");
+        }
+
+        @Override
+        public IntFingerTree<T> tail() {
+            throw new UnsupportedOperationException("Cannot get the tail of an empty tree");
+        }
+
+        @Override
+        public IntFingerTree<T> init() {
+            throw new UnsupportedOperationException("Cannot get the init of an empty tree");
+        }
+
+        @Override
+        public Split<T> split(IntPredicate p, int accum) {
+            throw new UnsupportedOperationException("Cannot split an empty tree");
+        }
+
+        @Override
+        <R> R lookup(IntPredicate p, int accum, Lookup<? super T, R> f) {
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+            return initial;
+        }
+
+        @Override
+        public void forEach(Effect<? super T> e) {
+        }
+
+        @Override
+        IntFingerTree<T> reverseAndMap(Function<T, T> f) {
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class Single<T> extends IntFingerTree<T> {
+        private static final long serialVersionUID = 7297441931779046425L;
+
+        @Getter
+        private final IntFingerTreeFactory<T> factory;
+        final T a;
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public boolean isSingle() {
+            return true;
+        }
+
+        @Override
+        public int measure() {
+            return factory.measure(a);
+        }
+
+        @Override
+        public IntFingerTree<T> prepend(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            return factory.deep(factory.digit(value), factory.nodeFactory().emptyTree, factory.digit(a));
+        }
+
+        @Override
+        public IntFingerTree<T> append(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            return factory.deep(factory.digit(a), factory.nodeFactory().emptyTree, factory.digit(value));
+        }
+
+        @Override
+        IntFingerTree<T> concat(Object[] items, int count, IntFingerTree<T> tree) {
+            return prependItems(items, count, tree).prepend(a);
+        }
+
+        @Override
+        public <O> IntFingerTree<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+            return factory.tree(f.apply(a));
+        }
+
+        @Override
+        public T getHeadUnsafe() {
+            return a;
+        }
+
+        @Override
+        public T getLastUnsafe() {
+            return a;
+        }
+
+        @Override
+        public IntFingerTree<T> tail() {
+            return factory.emptyTree;
+        }
+
+        @Override
+        public IntFingerTree<T> init() {
+            return factory.emptyTree;
+        }
+
+        @Override
+        public Split<T> split(IntPredicate p, int accum) {
+            return new Split<T>(factory.emptyTree, a, factory.emptyTree);
+        }
+
+        @Override
+        public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+            return f.apply(initial, a);
+        }
+
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+        }
+
+        @Override
+        IntFingerTree<T> reverseAndMap(Function<T, T> f) {
+            return factory.tree(f.apply(a));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 + a.hashCode();
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class Deep<T> extends IntFingerTree<T> {
+        private static final long serialVersionUID = -2437297957315519758L;
+
+        @Getter
+        private final IntFingerTreeFactory<T> factory;
+        private final int measure;
+        final IntFingerTreeDigit<T> left;
+        final IntFingerTree<IntFingerTreeNode<T>> middle;
+        final IntFingerTreeDigit<T> right;
+
+        private transient int hashCode;
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        public int measure() {
+            return measure;
+        }
+
+        @Override
+        public IntFingerTree<T> prepend(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            int measure = factory.mappend(factory.measure(value), this.measure);
+            if (left.size() == 4) {
+                val middle = this.middle.prepend(factory.node(left.b, left.c, left.d));
+                return factory.deep(measure, factory.digit(value, left.a), middle, right);
+            }
+            return factory.deep(measure, left.prepend(factory, value), middle, right);
+        }
+
+        @Override
+        public IntFingerTree<T> append(T value) {
+            Preconditions.checkNotNull(value, "value cannot be null");
+            int measure = factory.mappend(this.measure, factory.measure(value));
+            if (right.size() == 4) {
+                val middle = this.middle.append(factory.node(right.a, right.b, right.c));
+                return factory.deep(measure, left, middle, factory.digit(right.d, value));
+            }
+            return factory.deep(measure, left, middle, right.append(factory, value));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        IntFingerTree<T> concat(Object[] items, int count, IntFingerTree<T> tree) {
+            if (tree.isEmpty() || tree.isSingle()) {
+                IntFingerTree<T> result = this;
+                for (int i = 0; i < count; i++)
+                    result = result.append((T) items[i]);
+                return tree.isEmpty() ? result : result.append(tree.getHeadUnsafe());
+            }
+            val other = (Deep<T>) tree;
+            int rightSize = right.size();
+            int otherLeftSize = other.left.size();
+            val buffer = new Object[rightSize + count + otherLeftSize];
+            for (int i = 0; i < rightSize; i++)
+                buffer[i] = right.get(i);
+            System.arraycopy(items, 0, buffer, rightSize, count);
+            for (int i = 0; i < otherLeftSize; i++)
+                buffer[rightSize + count + i] = other.left.get(i);
+            val nodes = factory.packNodes(buffer, 0, buffer.length);
+            val middle = this.middle.concat(nodes, nodes.length, other.middle);
+            return factory.deep(left, middle, other.right);
+        }
+
+        @Override
+        public <O> IntFingerTree<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+            val left = this.left.map(factory, f);
+            val middle = this.middle.map(factory.nodeFactory(), new NodeMapper<T, O>(factory, f));
+            val right = this.right.map(factory, f);
+            return factory.deep(left, middle, right);
+        }
+
+        @Override
+        public T getHeadUnsafe() {
+            return left.getHead();
+        }
+
+        @Override
+        public T getLastUnsafe() {
+            return right.getLast();
+        }
+
+        @Override
+        public IntFingerTree<T> tail() {
+            if (left.size() > 1)
+                return factory.deep(left.slice(factory, 1, left.size()), middle, right);
+            return deepL(factory, null, middle, right);
+        }
+
+        @Override
+        public IntFingerTree<T> init() {
+            if (right.size() > 1)
+                return factory.deep(left, middle, right.slice(factory, 0, right.size() - 1));
+            return deepR(factory, left, middle, null);
+        }
+
+        @Override
+        public Split<T> split(IntPredicate p, int accum) {
+            int accumL = factory.mappend(accum, left.measure());
+            if (p.apply(accumL)) {
+                int i = search(left, p, accum);
+                return new Split<T>(toTree(factory, left.slice(factory, 0, i)), left.get(i), deepL(factory, left.slice(factory, i + 1, left.size()), middle,
+                        right));
+            }
+            int accumM = factory.mappend(accumL, middle.measure());
+            if (!middle.isEmpty() && p.apply(accumM)) {
+                val middleSplit = middle.split(p, accumL);
+                val node = middleSplit.pivot;
+                int i = search(node, p, factory.mappend(accumL, middleSplit.left.measure()));
+                val left = deepR(factory, this.left, middleSplit.left, node.slice(factory, 0, i));
+                val right = deepL(factory, node.slice(factory, i + 1, node.size()), middleSplit.right, this.right);
+                return new Split<T>(left, node.get(i), right);
+            }
+            int i = search(right, p, accumM);
+            return new Split<T>(deepR(factory, left, middle, right.slice(factory, 0, i)), right.get(i), toTree(factory,
+                    right.slice(factory, i + 1, right.size())));
+        }
+
+        private int search(IntFingerTreeDigit<T> digit, IntPredicate p, int accum) {
+            int last = digit.size() - 1;
+            for (int i = 0; i < last; i++) {
+                accum = factory.mappend(accum, factory.measure(digit.get(i)));
+                if (p.apply(accum))
+                    return i;
+            }
+            return last;
+        }
+
+        private int search(IntFingerTreeNode<T> node, IntPredicate p, int accum) {
+            int last = node.size() - 1;
+            for (int i = 0; i < last; i++) {
+                accum = factory.mappend(accum, factory.measure(node.get(i)));
+                if (p.apply(accum))
+                    return i;
+            }
+            return last;
+        }
+
+        private static <T> IntFingerTree<T> toTree(IntFingerTreeFactory<T> factory, @Nullable IntFingerTreeDigit<T> digit) {
+            return digit == null ? factory.emptyTree : digit.toTree(factory);
+        }
+
+        private static <T> IntFingerTree<T> deepL(IntFingerTreeFactory<T> factory, @Nullable IntFingerTreeDigit<T> left,
+                IntFingerTree<IntFingerTreeNode<T>> middle, IntFingerTreeDigit<T> right) {
+            if (left != null)
+                return factory.deep(left, middle, right);
+            if (middle.isEmpty())
+                return right.toTree(factory);
+            return factory.deep(middle.getHeadUnsafe().toDigit(factory), middle.tail(), right);
+        }
+
+        private static <T> IntFingerTree<T> deepR(IntFingerTreeFactory<T> factory, IntFingerTreeDigit<T> left, IntFingerTree<IntFingerTreeNode<T>> middle,
+                @Nullable IntFingerTreeDigit<T> right) {
+            if (right != null)
+                return factory.deep(left, middle, right);
+            if (middle.isEmpty())
+                return left.toTree(factory);
+            return factory.deep(left, middle.init(), middle.getLastUnsafe().toDigit(factory));
+        }
+
+        @Override
+        public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+            U accum = left.foldLeft(initial, f);
+            accum = middle.foldLeft(accum, new NodeLeftFold<T, U>(f));
+            return right.foldLeft(accum, f);
+        }
+
+        @Override
+        public void forEach(Effect<? super T> e) {
+            left.forEach(e);
+            middle.forEach(new NodeEffect<T>(e));
+            right.forEach(e);
+        }
+
+        @Override
+        IntFingerTree<T> reverseAndMap(Function<T, T> f) {
+            val left = right.reverseAndMap(factory, f);
+            val middle = this.middle.reverseAndMap(new NodeReverser<T>(factory, f));
+            val right = this.left.reverseAndMap(factory, f);
+            return factory.deep(left, middle, right);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = hashCode;
+            if (h == 0) {
+                h = 1;
+                for (T e : this)
+                    h = 31 * h + e.hashCode();
+                hashCode = h;
+            }
+            return h;
+        }
+
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> IntFingerTree<T> prependItems(Object[] items, int count, IntFingerTree<T> tree) {
+        IntFingerTree<T> result = tree;
+        for (int i = count - 1; i >= 0; i--)
+            result = result.prepend((T) items[i]);
+        return result;
+    }
+
+    static final class FindLookup<T> implements Lookup<T, Option<T>> {
+        private static final FindLookup<?> INSTANCE = new FindLookup<Object>();
+
+        @SuppressWarnings("unchecked")
+        public static <T> FindLookup<T> instance() {
+            return (FindLookup<T>) INSTANCE;
+        }
+
+        @Override
+        public Option<T> apply(T element, int accum) {
+            return Option.some(element);
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+package fi.gekkio.drumfish.data;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import lombok.val;
+
+import com.google.common.collect.UnmodifiableIterator;
+
+import fi.gekkio.drumfish.data.IntFingerTree.Deep;
+import fi.gekkio.drumfish.data.IntFingerTree.Single;
+import fi.gekkio.drumfish.lang.IntPredicate;
+
+/**
+ * Bidirectional cursor over the elements of an {@link IntFingerTree}.
+ * <p>
+ * Works exactly like {@link FingerTreeCursor}. The cursor keeps the path from the root of the tree to the current
+ * element in an explicit stack, and moves by walking digits and nodes directly. Moving to an adjacent element takes
+ * amortized constant time, and positioning the cursor with a measure predicate takes logarithmic time.
+ * <p>
+ * Like {@link java.util.ListIterator}, a cursor is always positioned between two elements: {@link #next()} returns the
+ * element after the cursor, and {@link #previous()} returns the element before the cursor.
+ * 
+ * @param <T>
+ *            element type
+ */
+public final class IntFingerTreeCursor<T> extends UnmodifiableIterator<T> {
+
+    private static final int DEEP = 0;
+    private static final int SINGLE = 1;
+    private static final int DIGIT = 2;
+    private static final int NODE = 3;
+
+    private final IntFingerTree<T> tree;
+
+    /*
+     * Path from the root to the current element. DEEP and SINGLE frames store the nesting level of the tree, DIGIT and
+     * NODE frames store the nesting level of their items. Items at level 0 are elements, other items are nodes.
+     */
+    private Object[] containers = new Object[16];
+    private int[] kinds = new int[16];
+    private int[] levels = new int[16];
+    private int[] indexes = new int[16];
+    private int top = -1;
+
+    private Object current;
+    private boolean atEnd;
+
+    IntFingerTreeCursor(IntFingerTree<T> tree) {
+        this.tree = tree;
+        if (tree.isEmpty()) {
+            atEnd = true;
+        } else {
+            pushTree(tree, 0, true);
+            descend(true);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !atEnd;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (atEnd)
+            throw new NoSuchElementException();
+        val result = (T) current;
+        if (!advance())
+            atEnd = true;
+        return result;
+    }
+
+    public boolean hasPrevious() {
+        if (atEnd)
+            return top >= 0;
+        for (int f = top; f >= 0; f--) {
+            if (previousIndex(f) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T previous() {
+        if (atEnd) {
+            if (top < 0)
+                throw new NoSuchElementException();
+            atEnd = false;
+        } else if (!retreat()) {
+            throw new NoSuchElementException();
+        }
+        return (T) current;
+    }
+
+    @SuppressWarnings("unchecked")
+    void seek(IntPredicate p) {
+        top = -1;
+        if (tree.isEmpty()) {
+            atEnd = true;
+            return;
+        }
+        pushTree(tree, 0, false);
+        if (!p.apply(tree.measure())) {
+            descend(false);
+            atEnd = true;
+            return;
+        }
+        atEnd = false;
+
+        val factory = tree.getFactory();
+        int accum = factory.mempty();
+        while (true) {
+            int f = top;
+            switch (kinds[f]) {
+            case DEEP: {
+                val deep = (Deep<Object>) containers[f];
+                int accumL = factory.mappend(accum, deep.left.measure());
+                if (p.apply(accumL)) {
+                    indexes[f] = 0;
+                    push(DIGIT, deep.left, levels[f], true);
+                    continue;
+                }
+                accum = accumL;
+                if (!deep.middle.isEmpty()) {
+                    int accumM = factory.mappend(accumL, deep.middle.measure());
+                    if (p.apply(accumM)) {
+                        indexes[f] = 1;
+                        pushTree(deep.middle, levels[f] + 1, true);
+                        continue;
+                    }
+                    accum = accumM;
+                }
+                indexes[f] = 2;
+                push(DIGIT, deep.right, levels[f], true);
+                continue;
+            }
+            case SINGLE:
+                indexes[f] = 0;
+                break;
+            default: {
+                int last = count(f) - 1;
+                int i = 0;
+                while (i < last) {
+                    int next = factory.mappend(accum, measure(levels[f], item(f, i)));
+                    if (p.apply(next))
+                        break;
+                    accum = next;
+                    i++;
+                }
+                indexes[f] = i;
+                break;
+            }
+            }
+            val item = item(f, indexes[f]);
+            if (levels[f] == 0) {
+                current = item;
+                return;
+            }
+            push(NODE, item, levels[f] - 1, true);
+        }
+    }
+
+    /**
+     * Moves the cursor after the last element.
+     */
+    void seekToEnd() {
+        top = -1;
+        atEnd = true;
+        if (!tree.isEmpty()) {
+            pushTree(tree, 0, false);
+            descend(false);
+        }
+    }
+
+    private boolean advance() {
+        for (int f = top; f >= 0; f--) {
+            int i = nextIndex(f);
+            if (i < count(f)) {
+                indexes[f] = i;
+                top = f;
+                descend(true);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean retreat() {
+        for (int f = top; f >= 0; f--) {
+            int i = previousIndex(f);
+            if (i >= 0) {
+                indexes[f] = i;
+                top = f;
+                descend(false);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int nextIndex(int f) {
+        int i = indexes[f] + 1;
+        if (i == 1 && kinds[f] == DEEP && ((Deep<?>) containers[f]).middle.isEmpty())
+            return 2;
+        return i;
+    }
+
+    private int previousIndex(int f) {
+        int i = indexes[f] - 1;
+        if (i == 1 && kinds[f] == DEEP && ((Deep<?>) containers[f]).middle.isEmpty())
+            return 0;
+        return i;
+    }
+
+    /**
+     * Descends from the current index of the top frame to the first or last element below it.
+     */
+    private void descend(boolean first) {
+        while (true) {
+            int f = top;
+            if (kinds[f] == DEEP) {
+                val deep = (Deep<?>) containers[f];
+                switch (indexes[f]) {
+                case 0:
+                    push(DIGIT, deep.left, levels[f], first);
+                    break;
+                case 1:
+                    pushTree(deep.middle, levels[f] + 1, first);
+                    break;
+                default:
+                    push(DIGIT, deep.right, levels[f], first);
+                    break;
+                }
+                continue;
+            }
+            val item = item(f, indexes[f]);
+            if (levels[f] == 0) {
+                current = item;
+                return;
+            }
+            push(NODE, item, levels[f] - 1, first);
+        }
+    }
+
+    private void pushTree(IntFingerTree<?> tree, int level, boolean first) {
+        if (tree instanceof Single)
+            push(SINGLE, tree, level, first);
+        else
+            push(DEEP, tree, level, first);
+    }
+
+    private void push(int kind, Object container, int level, boolean first) {
+        int f = ++top;
+        if (f == containers.length) {
+            int length = f * 2;
+            containers = Arrays.copyOf(containers, length);
+            kinds = Arrays.copyOf(kinds, length);
+            levels = Arrays.copyOf(levels, length);
+            indexes = Arrays.copyOf(indexes, length);
+        }
+        containers[f] = container;
+        kinds[f] = kind;
+        levels[f] = level;
+        indexes[f] = first ? 0 : count(f) - 1;
+    }
+
+    private int count(int f) {
+        switch (kinds[f]) {
+        case DEEP:
+            return 3;
+        case SINGLE:
+            return 1;
+        case DIGIT:
+            return ((IntFingerTreeDigit<?>) containers[f]).size();
+        default:
+            return ((IntFingerTreeNode<?>) containers[f]).size();
+        }
+    }
+
+    private Object item(int f, int index) {
+        switch (kinds[f]) {
+        case SINGLE:
+            return ((Single<?>) containers[f]).a;
+        case DIGIT:
+            return ((IntFingerTreeDigit<?>) containers[f]).get(index);
+        default:
+            return ((IntFingerTreeNode<?>) containers[f]).get(index);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int measure(int level, Object item) {
+        if (level == 0)
+            return tree.getFactory().measure((T) item);
+        return ((IntFingerTreeNode<?>) item).measure();
+    }
+
+}
@@ -0,0 +1,260 @@
+package fi.gekkio.drumfish.data;
+
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.val;
+
+import com.google.common.collect.ImmutableList;
+
+import fi.gekkio.drumfish.data.IntFingerTree.Deep;
+import fi.gekkio.drumfish.data.IntFingerTree.Single;
+
+/**
+ * Compares two int-measured finger trees by walking them side by side.
+ * <p>
+ * Works like {@link FingerTreeDiff}, but positions are the accumulated measures, so they are indexes only if the
+ * measure is the number of elements. Shared parts are skipped by identity, so the common prefix and suffix are found
+ * in time proportional to the number of changes times the depth of the trees, but all elements between the first and
+ * the last change that inserts or removes elements are compared with equals.
+ * 
+ * @param <T>
+ *            element type
+ */
+final class IntFingerTreeDiff<T> {
+
+    private static final int ITEM = 0;
+    private static final int DIGIT = 1;
+    private static final int TREE = 2;
+
+    private final IntFingerTreeFactory<T> factory;
+
+    IntFingerTreeDiff(IntFingerTreeFactory<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Checks if the given trees contain equal elements in the same order.
+     */
+    boolean elementsEqual(IntFingerTree<?> a, IntFingerTree<?> b) {
+        val x = new Walk(a, false);
+        val y = new Walk(b, false);
+        while (true) {
+            if (x.isEmpty() || y.isEmpty())
+                return x.isEmpty() && y.isEmpty();
+            if (!step(x, y))
+                return false;
+        }
+    }
+
+    /**
+     * Returns the ranges that differ between the given trees. The common prefix and suffix are never included, but
+     * the result is not guaranteed to be minimal: elements between two edits that shifted positions are reported as
+     * changed.
+     */
+    List<Edit> diff(IntFingerTree<T> a, IntFingerTree<T> b) {
+        val result = ImmutableList.<Edit> builder();
+        int lengthA = a.measure();
+        int lengthB = b.measure();
+
+        // The common suffix is found first by walking both trees backwards
+        val backX = new Walk(a, true);
+        val backY = new Walk(b, true);
+        boolean matching = true;
+        while (matching && !backX.isEmpty() && !backY.isEmpty())
+            matching = step(backX, backY);
+        int limitX = lengthA - backX.position;
+        int limitY = lengthB - backY.position;
+
+        val x = new Walk(a, false);
+        val y = new Walk(b, false);
+        int startX = -1;
+        int startY = -1;
+        while (true) {
+            x.limit(limitX);
+            y.limit(limitY);
+            if (x.position >= limitX || y.position >= limitY)
+                break;
+            int beforeX = x.position;
+            int beforeY = y.position;
+            if (!step(x, y)) {
+                if (startX < 0) {
+                    startX = beforeX;
+                    startY = beforeY;
+                }
+                x.skip();
+                y.skip();
+            } else if (startX >= 0 && x.position != beforeX) {
+                result.add(new Edit(startX, beforeX, startY, beforeY));
+                startX = -1;
+            }
+        }
+        if (startX < 0 && (x.position < limitX || y.position < limitY)) {
+            startX = x.position;
+            startY = y.position;
+        }
+        if (startX >= 0)
+            result.add(new Edit(startX, limitX, startY, limitY));
+        return result.build();
+    }
+
+    /**
+     * Advances both walks by one step. Returns false if the walks are at two elements that are not equal, in which
+     * case neither walk is advanced.
+     */
+    private boolean step(Walk x, Walk y) {
+        val a = x.peek();
+        val b = y.peek();
+        if (x.kind() == y.kind() && x.level() == y.level()) {
+            if (a == b) {
+                x.skip();
+                y.skip();
+                return true;
+            }
+            if (x.isElement()) {
+                if (!a.equals(b))
+                    return false;
+                x.skip();
+                y.skip();
+                return true;
+            }
+        }
+        int rankX = x.rank();
+        int rankY = y.rank();
+        if (rankX >= rankY)
+            x.expand();
+        if (rankY >= rankX)
+            y.expand();
+        return true;
+    }
+
+    /**
+     * Walk over the parts of a tree in order. The next part is at the top of an explicit stack, and expanding it
+     * replaces it with its children.
+     */
+    private final class Walk {
+        private final boolean reverse;
+
+        private Object[] parts = new Object[16];
+        private int[] kinds = new int[16];
+        private int[] levels = new int[16];
+        private int top = -1;
+
+        /**
+         * Accumulated measure of the parts that have been skipped.
+         */
+        int position;
+
+        Walk(IntFingerTree<?> tree, boolean reverse) {
+            this.reverse = reverse;
+            pushTree(tree, 0);
+        }
+
+        boolean isEmpty() {
+            return top < 0;
+        }
+
+        Object peek() {
+            return parts[top];
+        }
+
+        int kind() {
+            return kinds[top];
+        }
+
+        int level() {
+            return levels[top];
+        }
+
+        boolean isElement() {
+            return kinds[top] == ITEM && levels[top] == 0;
+        }
+
+        /**
+         * Returns the rank of the next part. A part with a higher rank can contain parts with lower ranks, but not the
+         * other way around.
+         */
+        int rank() {
+            return levels[top] * 3 + kinds[top];
+        }
+
+        void skip() {
+            position += measure();
+            top--;
+        }
+
+        /**
+         * Expands parts that would cross the given position.
+         */
+        void limit(int limit) {
+            while (!isEmpty() && !isElement() && position + measure() > limit)
+                expand();
+        }
+
+        void expand() {
+            int f = top--;
+            val part = parts[f];
+            int level = levels[f];
+            switch (kinds[f]) {
+            case TREE:
+                if (part instanceof Single) {
+                    push(ITEM, ((Single<?>) part).a, level);
+                } else {
+                    val deep = (Deep<?>) part;
+                    push(DIGIT, reverse ? deep.left : deep.right, level);
+                    pushTree(deep.middle, level + 1);
+                    push(DIGIT, reverse ? deep.right : deep.left, level);
+                }
+                break;
+            case DIGIT: {
+                val digit = (IntFingerTreeDigit<?>) part;
+                int count = digit.size();
+                for (int i = 0; i < count; i++)
+                    push(ITEM, digit.get(reverse ? i : count - 1 - i), level);
+                break;
+            }
+            default: {
+                val node = (IntFingerTreeNode<?>) part;
+                int count = node.size();
+                for (int i = 0; i < count; i++)
+                    push(ITEM, node.get(reverse ? i : count - 1 - i), level - 1);
+                break;
+            }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private int measure() {
+            val part = parts[top];
+            switch (kinds[top]) {
+            case TREE:
+                return ((IntFingerTree<?>) part).measure();
+            case DIGIT:
+                return ((IntFingerTreeDigit<?>) part).measure();
+            default:
+                if (levels[top] == 0)
+                    return factory.measure((T) part);
+                return ((IntFingerTreeNode<?>) part).measure();
+            }
+        }
+
+        private void pushTree(IntFingerTree<?> tree, int level) {
+            if (!tree.isEmpty())
+                push(TREE, tree, level);
+        }
+
+        private void push(int kind, Object part, int level) {
+            int f = ++top;
+            if (f == parts.length) {
+                int length = f * 2;
+                parts = Arrays.copyOf(parts, length);
+                kinds = Arrays.copyOf(kinds, length);
+                levels = Arrays.copyOf(levels, length);
+            }
+            parts[f] = part;
+            kinds[f] = kind;
+            levels[f] = level;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.base.Function;
+
+import fi.gekkio.drumfish.lang.Effect;
+import fi.gekkio.drumfish.lang.Function2;
+
+/**
+ * Digit of one to four elements. Unused trailing slots are null, which is safe because finger trees never contain
+ * null elements.
+ */
+@RequiredArgsConstructor
+final class IntFingerTreeDigit<T> implements Serializable {
+    private static final long serialVersionUID = -3497014916357744178L;
+
+    final int measure;
+    final T a;
+    @Nullable
+    final T b;
+    @Nullable
+    final T c;
+    @Nullable
+    final T d;
+
+    public int measure() {
+        return measure;
+    }
+
+    public int size() {
+        if (d != null)
+            return 4;
+        if (c != null)
+            return 3;
+        if (b != null)
+            return 2;
+        return 1;
+    }
+
+    public T get(int index) {
+        T value;
+        switch (index) {
+        case 0:
+            value = a;
+            break;
+        case 1:
+            value = b;
+            break;
+        case 2:
+            value = c;
+            break;
+        case 3:
+            value = d;
+            break;
+        default:
+            value = null;
+        }
+        if (value == null)
+            throw new IndexOutOfBoundsException("Invalid index " + index);
+        return value;
+    }
+
+    public T getHead() {
+        return a;
+    }
+
+    public T getLast() {
+        if (d != null)
+            return d;
+        if (c != null)
+            return c;
+        if (b != null)
+            return b;
+        return a;
+    }
+
+    public IntFingerTreeDigit<T> prepend(IntFingerTreeFactory<T> factory, T value) {
+        if (b == null)
+            return factory.digit(value, a);
+        if (c == null)
+            return factory.digit(value, a, b);
+        return factory.digit(value, a, b, c);
+    }
+
+    public IntFingerTreeDigit<T> append(IntFingerTreeFactory<T> factory, T value) {
+        if (b == null)
+            return factory.digit(a, value);
+        if (c == null)
+            return factory.digit(a, b, value);
+        return factory.digit(a, b, c, value);
+    }
+
+    /**
+     * Returns a digit containing the elements between the given indexes, or null if the range is empty.
+     */
+    @Nullable
+    public IntFingerTreeDigit<T> slice(IntFingerTreeFactory<T> factory, int from, int to) {
+        switch (to - from) {
+        case 0:
+            return null;
+        case 1:
+            return factory.digit(get(from));
+        case 2:
+            return factory.digit(get(from), get(from + 1));
+        case 3:
+            return factory.digit(get(from), get(from + 1), get(from + 2));
+        default:
+            return this;
+        }
+    }
+
+    public IntFingerTree<T> toTree(IntFingerTreeFactory<T> factory) {
+        switch (size()) {
+        case 1:
+            return factory.tree(a);
+        case 2:
+            return factory.deep(factory.digit(a), factory.nodeFactory().emptyTree, factory.digit(b));
+        case 3:
+            return factory.deep(factory.digit(a, b), factory.nodeFactory().emptyTree, factory.digit(c));
+        default:
+            return factory.deep(factory.digit(a, b), factory.nodeFactory().emptyTree, factory.digit(c, d));
+        }
+    }
+
+    public <O> IntFingerTreeDigit<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+        switch (size()) {
+        case 1:
+            return factory.digit(f.apply(a));
+        case 2:
+            return factory.digit(f.apply(a), f.apply(b));
+        case 3:
+            return factory.digit(f.apply(a), f.apply(b), f.apply(c));
+        default:
+            return factory.digit(f.apply(a), f.apply(b), f.apply(c), f.apply(d));
+        }
+    }
+
+    public IntFingerTreeDigit<T> reverseAndMap(IntFingerTreeFactory<T> factory, Function<T, T> f) {
+        switch (size()) {
+        case 1:
+            return factory.digit(f.apply(a));
+        case 2:
+            return factory.digit(f.apply(b), f.apply(a));
+        case 3:
+            return factory.digit(f.apply(c), f.apply(b), f.apply(a));
+        default:
+            return factory.digit(f.apply(d), f.apply(c), f.apply(b), f.apply(a));
+        }
+    }
+
+    public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+        U accum = f.apply(initial, a);
+        if (b == null)
+            return accum;
+        accum = f.apply(accum, b);
+        if (c == null)
+            return accum;
+        accum = f.apply(accum, c);
+        if (d == null)
+            return accum;
+        return f.apply(accum, d);
+    }
+
+    public void forEach(Effect<? super T> e) {
+        e.apply(a);
+        if (b == null)
+            return;
+        e.apply(b);
+        if (c == null)
+            return;
+        e.apply(c);
+        if (d == null)
+            return;
+        e.apply(d);
+    }
+
+}
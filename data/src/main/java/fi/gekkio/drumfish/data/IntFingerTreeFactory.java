@@ -0,0 +1,299 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+
+import fi.gekkio.drumfish.data.IntFingerTree.Deep;
+import fi.gekkio.drumfish.data.IntFingerTree.Empty;
+import fi.gekkio.drumfish.data.IntFingerTree.Single;
+import fi.gekkio.drumfish.data.IntFingerTreeNode.Node2;
+import fi.gekkio.drumfish.data.IntFingerTreeNode.Node3;
+import fi.gekkio.drumfish.lang.IntMonoid;
+import fi.gekkio.drumfish.lang.ToIntFunction;
+
+/**
+ * Factory for finger trees measured by primitive ints.
+ * <p>
+ * Works like {@link FingerTreeFactory}, but measures are never boxed, so for example indexed access does not allocate
+ * an {@link Integer} for every visited digit and node.
+ */
+@RequiredArgsConstructor
+public class IntFingerTreeFactory<T> implements Serializable {
+    private static final long serialVersionUID = 5916512300370286407L;
+
+    /**
+     * Creates a new factory that uses the given monoid and measurement function.
+     * 
+     * @param monoid
+     *            monoid
+     * @param measurement
+     *            measurement function
+     * @return factory
+     */
+    public static <T> IntFingerTreeFactory<T> create(IntMonoid monoid, ToIntFunction<? super T> measurement) {
+        return new IntFingerTreeFactory<T>(monoid, measurement);
+    }
+
+    @Getter
+    private final IntMonoid monoid;
+    @Getter
+    private final ToIntFunction<? super T> measurement;
+
+    final transient IntFingerTree<T> emptyTree = new EmptyTree();
+    private transient volatile IntFingerTreeFactory<IntFingerTreeNode<T>> nodeFactory;
+
+    /**
+     * Returns an empty finger tree.
+     * 
+     * @return finger tree
+     */
+    public IntFingerTree<T> tree() {
+        return emptyTree;
+    }
+
+    /**
+     * Returns a finger tree containing the given element.
+     * 
+     * @param a
+     *            element
+     * @return finger tree
+     */
+    public IntFingerTree<T> tree(T a) {
+        Preconditions.checkNotNull(a, "element cannot be null");
+        return new Single<T>(this, a);
+    }
+
+    /**
+     * Returns a finger tree containing the given elements.
+     * <p>
+     * The tree is built bottom-up in linear time by packing the elements directly into nodes and digits.
+     * 
+     * @param elements
+     *            elements
+     * @return finger tree
+     */
+    public IntFingerTree<T> tree(T... elements) {
+        checkElements(elements);
+        return build(elements, 0, elements.length);
+    }
+
+    /**
+     * Returns a finger tree containing the given elements.
+     * <p>
+     * The tree is built bottom-up in linear time by packing the elements directly into nodes and digits.
+     * 
+     * @param elements
+     *            elements
+     * @return finger tree
+     */
+    public IntFingerTree<T> tree(Iterable<T> elements) {
+        val array = Iterables.toArray(elements, Object.class);
+        checkElements(array);
+        return build(array, 0, array.length);
+    }
+
+    /**
+     * Downcasts this factory.
+     * 
+     * @return factory
+     */
+    @SuppressWarnings("unchecked")
+    public <O extends T> IntFingerTreeFactory<O> cast() {
+        return (IntFingerTreeFactory<O>) this;
+    }
+
+    /**
+     * Downcasts this factory.
+     * 
+     * @param clazz
+     *            element class (for convenience only)
+     * @return factory
+     */
+    @SuppressWarnings("unchecked")
+    public <O extends T> IntFingerTreeFactory<O> cast(Class<O> clazz) {
+        return (IntFingerTreeFactory<O>) this;
+    }
+
+    IntFingerTreeFactory<IntFingerTreeNode<T>> nodeFactory() {
+        if (nodeFactory == null) {
+            synchronized (this) {
+                if (nodeFactory == null)
+                    nodeFactory = new IntFingerTreeFactory<IntFingerTreeNode<T>>(monoid, NodeMeasurement.<T> instance());
+            }
+        }
+        return nodeFactory;
+    }
+
+    /**
+     * Only the monoid and the measurement function are serialized, so the empty tree and node factory are recreated.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        return new IntFingerTreeFactory<T>(monoid, measurement);
+    }
+
+    int mempty() {
+        return monoid.mempty();
+    }
+
+    int mappend(int a, int b) {
+        return monoid.mappend(a, b);
+    }
+
+    int mappend(int a, int b, int c) {
+        return monoid.mappend(monoid.mappend(a, b), c);
+    }
+
+    int measure(T a) {
+        return measurement.apply(a);
+    }
+
+    int measure(T a, T b) {
+        return monoid.mappend(measure(a), measure(b));
+    }
+
+    int measure(T a, T b, T c) {
+        return monoid.mappend(monoid.mappend(measure(a), measure(b)), measure(c));
+    }
+
+    int measure(T a, T b, T c, T d) {
+        return monoid.mappend(monoid.mappend(monoid.mappend(measure(a), measure(b)), measure(c)), measure(d));
+    }
+
+    IntFingerTree<T> deep(IntFingerTreeDigit<T> left, IntFingerTree<IntFingerTreeNode<T>> middle, IntFingerTreeDigit<T> right) {
+        return new Deep<T>(this, mappend(left.measure(), middle.measure(), right.measure()), left, middle, right);
+    }
+
+    IntFingerTree<T> deep(int measure, IntFingerTreeDigit<T> left, IntFingerTree<IntFingerTreeNode<T>> middle, IntFingerTreeDigit<T> right) {
+        return new Deep<T>(this, measure, left, middle, right);
+    }
+
+    static void checkElements(Object[] elements) {
+        for (Object e : elements)
+            Preconditions.checkNotNull(e, "element cannot be null");
+    }
+
+    @SuppressWarnings("unchecked")
+    IntFingerTree<T> build(Object[] elements, int from, int to) {
+        int size = to - from;
+        if (size == 0)
+            return emptyTree;
+        if (size == 1)
+            return new Single<T>(this, (T) elements[from]);
+        if (size <= 8) {
+            int split = from + size / 2;
+            return deep(digit(elements, from, split), nodeFactory().emptyTree, digit(elements, split, to));
+        }
+        val nodes = packNodes(elements, from + 3, to - 3);
+        val middle = nodeFactory().build(nodes, 0, nodes.length);
+        return deep(digit(elements, from, from + 3), middle, digit(elements, to - 3, to));
+    }
+
+    @SuppressWarnings("unchecked")
+    IntFingerTreeDigit<T> digit(Object[] elements, int from, int to) {
+        switch (to - from) {
+        case 1:
+            return digit((T) elements[from]);
+        case 2:
+            return digit((T) elements[from], (T) elements[from + 1]);
+        case 3:
+            return digit((T) elements[from], (T) elements[from + 1], (T) elements[from + 2]);
+        case 4:
+            return digit((T) elements[from], (T) elements[from + 1], (T) elements[from + 2], (T) elements[from + 3]);
+        default:
+            throw new IllegalArgumentException("Invalid digit size " + (to - from));
+        }
+    }
+
+    /**
+     * Packs at least 2 elements into a layer of nodes. All nodes are Node3 instances, except for one or two Node2
+     * instances at the end if the element count is not divisible by 3.
+     */
+    @SuppressWarnings("unchecked")
+    Object[] packNodes(Object[] elements, int from, int to) {
+        int count = to - from;
+        val nodes = new Object[(count + 2) / 3];
+        int node3Count;
+        switch (count % 3) {
+        case 1:
+            node3Count = nodes.length - 2;
+            break;
+        case 2:
+            node3Count = nodes.length - 1;
+            break;
+        default:
+            node3Count = nodes.length;
+        }
+        int j = from;
+        for (int i = 0; i < nodes.length; i++) {
+            if (i < node3Count) {
+                nodes[i] = node((T) elements[j], (T) elements[j + 1], (T) elements[j + 2]);
+                j += 3;
+            } else {
+                nodes[i] = node((T) elements[j], (T) elements[j + 1]);
+                j += 2;
+            }
+        }
+        return nodes;
+    }
+
+    IntFingerTreeNode<T> node(T a, T b) {
+        return new Node2<T>(measure(a, b), a, b);
+    }
+
+    IntFingerTreeNode<T> node(T a, T b, T c) {
+        return new Node3<T>(measure(a, b, c), a, b, c);
+    }
+
+    IntFingerTreeDigit<T> digit(T a) {
+        return new IntFingerTreeDigit<T>(measure(a), a, null, null, null);
+    }
+
+    IntFingerTreeDigit<T> digit(T a, T b) {
+        return new IntFingerTreeDigit<T>(measure(a, b), a, b, null, null);
+    }
+
+    IntFingerTreeDigit<T> digit(T a, T b, T c) {
+        return new IntFingerTreeDigit<T>(measure(a, b, c), a, b, c, null);
+    }
+
+    IntFingerTreeDigit<T> digit(T a, T b, T c, T d) {
+        return new IntFingerTreeDigit<T>(measure(a, b, c, d), a, b, c, d);
+    }
+
+    private static final class NodeMeasurement<T> implements ToIntFunction<IntFingerTreeNode<T>>, Serializable {
+        private static final long serialVersionUID = 3305434939178862416L;
+
+        private static final NodeMeasurement<?> INSTANCE = new NodeMeasurement<Object>();
+
+        @SuppressWarnings("unchecked")
+        public static <T> NodeMeasurement<T> instance() {
+            return (NodeMeasurement<T>) INSTANCE;
+        }
+
+        @Override
+        public int apply(IntFingerTreeNode<T> input) {
+            return input.measure();
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    private final class EmptyTree extends Empty<T> implements Serializable {
+        private static final long serialVersionUID = 4683659744432066186L;
+
+        @Override
+        public IntFingerTreeFactory<T> getFactory() {
+            return IntFingerTreeFactory.this;
+        }
+    }
+
+}
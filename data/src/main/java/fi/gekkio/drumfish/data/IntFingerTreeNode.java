@@ -0,0 +1,228 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.base.Function;
+
+import fi.gekkio.drumfish.lang.Effect;
+import fi.gekkio.drumfish.lang.Function2;
+import fi.gekkio.drumfish.lang.LeftFold;
+
+abstract class IntFingerTreeNode<T> implements Serializable {
+    private static final long serialVersionUID = 2818914186463727163L;
+
+    private IntFingerTreeNode() {
+    }
+
+    public abstract int measure();
+
+    public abstract int size();
+
+    public abstract T get(int index);
+
+    public abstract <O> IntFingerTreeNode<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f);
+
+    public abstract IntFingerTreeDigit<T> toDigit(IntFingerTreeFactory<T> factory);
+
+    public abstract IntFingerTreeNode<T> reverseAndMap(IntFingerTreeFactory<T> factory, Function<T, T> f);
+
+    public abstract <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f);
+
+    public abstract void forEach(Effect<? super T> e);
+
+    /**
+     * Returns a digit containing the elements between the given indexes, or null if the range is empty.
+     */
+    @Nullable
+    public IntFingerTreeDigit<T> slice(IntFingerTreeFactory<T> factory, int from, int to) {
+        switch (to - from) {
+        case 0:
+            return null;
+        case 1:
+            return factory.digit(get(from));
+        case 2:
+            return factory.digit(get(from), get(from + 1));
+        default:
+            return factory.digit(get(from), get(from + 1), get(from + 2));
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class Node2<T> extends IntFingerTreeNode<T> {
+        private static final long serialVersionUID = -4452766718564298446L;
+
+        final int measure;
+        final T a;
+        final T b;
+
+        @Override
+        public int measure() {
+            return measure;
+        }
+
+        @Override
+        public int size() {
+            return 2;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
+        @Override
+        public <O> IntFingerTreeNode<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+            return factory.node(f.apply(a), f.apply(b));
+        }
+
+        @Override
+        public IntFingerTreeDigit<T> toDigit(IntFingerTreeFactory<T> factory) {
+            return factory.digit(a, b);
+        }
+
+        @Override
+        public IntFingerTreeNode<T> reverseAndMap(IntFingerTreeFactory<T> factory, Function<T, T> f) {
+            return factory.node(f.apply(b), f.apply(a));
+        }
+
+        @Override
+        public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+            U accum = initial;
+            accum = f.apply(accum, a);
+            accum = f.apply(accum, b);
+            return accum;
+        }
+
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class Node3<T> extends IntFingerTreeNode<T> {
+        private static final long serialVersionUID = 6030284733434633463L;
+
+        final int measure;
+        final T a;
+        final T b;
+        final T c;
+
+        @Override
+        public int measure() {
+            return measure;
+        }
+
+        @Override
+        public int size() {
+            return 3;
+        }
+
+        @Override
+        public T get(int index) {
+            switch (index) {
+            case 0:
+                return a;
+            case 1:
+                return b;
+            case 2:
+                return c;
+            default:
+                throw new IndexOutOfBoundsException("Invalid index " + index);
+            }
+        }
+
+        @Override
+        public <O> IntFingerTreeNode<O> map(IntFingerTreeFactory<O> factory, Function<? super T, O> f) {
+            return factory.node(f.apply(a), f.apply(b), f.apply(c));
+        }
+
+        @Override
+        public IntFingerTreeDigit<T> toDigit(IntFingerTreeFactory<T> factory) {
+            return factory.digit(a, b, c);
+        }
+
+        @Override
+        public IntFingerTreeNode<T> reverseAndMap(IntFingerTreeFactory<T> factory, Function<T, T> f) {
+            return factory.node(f.apply(c), f.apply(b), f.apply(a));
+        }
+
+        @Override
+        public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+            U accum = initial;
+            accum = f.apply(accum, a);
+            accum = f.apply(accum, b);
+            accum = f.apply(accum, c);
+            return accum;
+        }
+
+        @Override
+        public void forEach(Effect<? super T> e) {
+            e.apply(a);
+            e.apply(b);
+            e.apply(c);
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class NodeMapper<T, O> implements Function<IntFingerTreeNode<T>, IntFingerTreeNode<O>>, Serializable {
+        private static final long serialVersionUID = -2109880165616553398L;
+
+        private final IntFingerTreeFactory<O> factory;
+        private final Function<? super T, O> f;
+
+        @Override
+        public IntFingerTreeNode<O> apply(IntFingerTreeNode<T> input) {
+            return input.map(factory, f);
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class NodeReverser<T> implements Function<IntFingerTreeNode<T>, IntFingerTreeNode<T>> {
+        private final IntFingerTreeFactory<T> factory;
+        private final Function<T, T> f;
+
+        @Override
+        public IntFingerTreeNode<T> apply(IntFingerTreeNode<T> input) {
+            return input.reverseAndMap(factory, f);
+        }
+    }
+
+    @RequiredArgsConstructor
+    static final class NodeLeftFold<T, U> implements LeftFold<IntFingerTreeNode<T>, U> {
+        private final Function2<U, T, U> f;
+
+        @Override
+        public U apply(U first, IntFingerTreeNode<T> second) {
+            return second.foldLeft(first, f);
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    static final class NodeEffect<T> implements Effect<IntFingerTreeNode<T>> {
+        private final Effect<? super T> e;
+
+        @Override
+        public void apply(IntFingerTreeNode<T> input) {
+            input.forEach(e);
+        }
+
+    }
+
+}
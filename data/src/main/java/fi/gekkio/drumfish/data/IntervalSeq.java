@@ -0,0 +1,315 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Ordering;
+
+import fi.gekkio.drumfish.lang.Monoid;
+import fi.gekkio.drumfish.lang.Tuple3;
+
+/**
+ * Persistent immutable sequence of closed intervals that supports overlap queries.
+ * <p>
+ * Intervals are (low, high, value) tuples, kept in a finger tree sorted by their low endpoints. The tree is measured by
+ * the number of intervals, the last low endpoint and the maximum high endpoint. Inserting an interval and checking
+ * whether any interval overlaps a query range take logarithmic time, and finding all k overlapping intervals takes
+ * O(k log(n/k)) time.
+ * <p>
+ * Intervals with equal low endpoints are kept in insertion order.
+ * 
+ * @param <K>
+ *            endpoint type
+ * @param <T>
+ *            value type
+ */
+public class IntervalSeq<K, T> implements Iterable<Tuple3<K, K, T>>, Serializable {
+
+    private static final long serialVersionUID = -1436630911542961257L;
+
+    private final Comparator<? super K> comparator;
+    private final FingerTree<IntervalMeasure, Tuple3<K, K, T>> tree;
+
+    private IntervalSeq(Comparator<? super K> comparator, FingerTree<IntervalMeasure, Tuple3<K, K, T>> tree) {
+        this.comparator = comparator;
+        this.tree = tree;
+    }
+
+    /**
+     * Returns an empty sequence that uses the natural ordering of endpoints.
+     * 
+     * @return sequence
+     */
+    public static <K extends Comparable<? super K>, T> IntervalSeq<K, T> create() {
+        return orderedBy(Ordering.<K> natural());
+    }
+
+    /**
+     * Returns a sequence containing the given intervals, which uses the natural ordering of endpoints.
+     * 
+     * @param intervals
+     *            (low, high, value) tuples
+     * @return sequence
+     */
+    public static <K extends Comparable<? super K>, T> IntervalSeq<K, T> of(Iterable<Tuple3<K, K, T>> intervals) {
+        return orderedBy(Ordering.<K> natural(), intervals);
+    }
+
+    /**
+     * Returns an empty sequence that uses the given endpoint comparator.
+     * 
+     * @param comparator
+     *            endpoint comparator
+     * @return sequence
+     */
+    public static <K, T> IntervalSeq<K, T> orderedBy(Comparator<? super K> comparator) {
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        return new IntervalSeq<K, T>(comparator, IntervalSeq.<K, T> factory(comparator).tree());
+    }
+
+    /**
+     * Returns a sequence containing the given intervals, which uses the given endpoint comparator. The intervals are
+     * sorted, and the tree is built in linear time.
+     * 
+     * @param comparator
+     *            endpoint comparator
+     * @param intervals
+     *            (low, high, value) tuples
+     * @return sequence
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, T> IntervalSeq<K, T> orderedBy(Comparator<? super K> comparator,
+            Iterable<Tuple3<K, K, T>> intervals) {
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        val array = (Tuple3<K, K, T>[]) Iterables.toArray(intervals, Tuple3.class);
+        for (val interval : array)
+            checkInterval(comparator, interval);
+        Arrays.sort(array, new LowComparator<K>(comparator));
+        return new IntervalSeq<K, T>(comparator, IntervalSeq.<K, T> factory(comparator).tree(array));
+    }
+
+    private static <K, T> FingerTreeFactory<IntervalMeasure, Tuple3<K, K, T>> factory(Comparator<? super K> comparator) {
+        return FingerTreeFactory.<IntervalMeasure, Tuple3<K, K, T>> create(new IntervalMonoid<K>(comparator),
+                IntervalMeasurement.<K, T> instance());
+    }
+
+    private static <K> void checkInterval(Comparator<? super K> comparator, Tuple3<K, K, ?> interval) {
+        Preconditions.checkNotNull(interval, "interval cannot be null");
+        Preconditions.checkNotNull(interval.a, "low cannot be null");
+        Preconditions.checkNotNull(interval.b, "high cannot be null");
+        Preconditions.checkArgument(comparator.compare(interval.a, interval.b) <= 0, "low cannot be greater than high");
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public int size() {
+        return tree.measure().size;
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns an iterator over the intervals in the order of their low endpoints.
+     */
+    @Override
+    public Iterator<Tuple3<K, K, T>> iterator() {
+        return tree.iterator();
+    }
+
+    /**
+     * Returns a sequence with the given interval inserted after any intervals with an equal low endpoint.
+     * 
+     * @param low
+     *            low endpoint
+     * @param high
+     *            high endpoint
+     * @param value
+     *            value
+     * @return sequence
+     */
+    public IntervalSeq<K, T> insert(K low, K high, @Nullable T value) {
+        val interval = Tuple3.of(low, high, value);
+        checkInterval(comparator, interval);
+        val split = tree.split(new LowGreaterThan<K>(comparator, low));
+        return new IntervalSeq<K, T>(comparator, split.a.concat(interval, split.b));
+    }
+
+    /**
+     * Returns true if any interval overlaps the closed range [low, high].
+     * 
+     * @param low
+     *            low endpoint of the query range
+     * @param high
+     *            high endpoint of the query range
+     * @return true if an overlapping interval was found
+     */
+    public boolean overlaps(K low, K high) {
+        Preconditions.checkNotNull(low, "low cannot be null");
+        Preconditions.checkNotNull(high, "high cannot be null");
+        // The first interval reaching the query range has the smallest low endpoint of such intervals
+        val cursor = tree.cursor(new HighAtLeast<K>(comparator, low));
+        return cursor.hasNext() && comparator.compare(cursor.next().a, high) <= 0;
+    }
+
+    /**
+     * Returns all intervals that overlap the closed range [low, high], in the order of their low endpoints.
+     * 
+     * @param low
+     *            low endpoint of the query range
+     * @param high
+     *            high endpoint of the query range
+     * @return overlapping intervals
+     */
+    public List<Tuple3<K, K, T>> overlapping(K low, K high) {
+        Preconditions.checkNotNull(low, "low cannot be null");
+        Preconditions.checkNotNull(high, "high cannot be null");
+        val result = ImmutableList.<Tuple3<K, K, T>> builder();
+
+        // Intervals starting after the query range cannot overlap it
+        FingerTree<IntervalMeasure, Tuple3<K, K, T>> candidates = tree.takeUntil(new LowGreaterThan<K>(comparator,
+                high));
+        val reachesLow = new HighAtLeast<K>(comparator, low);
+        val empty = candidates.getFactory().mempty();
+        while (reachesLow.apply(candidates.measure())) {
+            val split = candidates.split(reachesLow, empty);
+            result.add(split.pivot);
+            candidates = split.right;
+        }
+        return result.build();
+    }
+
+    /**
+     * Returns all intervals that contain the given point, in the order of their low endpoints.
+     * 
+     * @param point
+     *            point
+     * @return intervals containing the point
+     */
+    public List<Tuple3<K, K, T>> containing(K point) {
+        return overlapping(point, point);
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Measure of a part of the sequence: the number of intervals, the last low endpoint and the maximum high endpoint.
+     */
+    @RequiredArgsConstructor
+    static final class IntervalMeasure implements Serializable {
+        private static final long serialVersionUID = 5521809632400567513L;
+
+        private static final IntervalMeasure EMPTY = new IntervalMeasure(0, null, null);
+
+        final int size;
+        @Nullable
+        final Object lastLow;
+        @Nullable
+        final Object maxHigh;
+    }
+
+    @RequiredArgsConstructor
+    private static final class IntervalMonoid<K> implements Monoid<IntervalMeasure>, Serializable {
+        private static final long serialVersionUID = 3014968823000582714L;
+
+        private final Comparator<? super K> comparator;
+
+        @Override
+        public IntervalMeasure mempty() {
+            return IntervalMeasure.EMPTY;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public IntervalMeasure mappend(IntervalMeasure a, IntervalMeasure b) {
+            if (a.size == 0)
+                return b;
+            if (b.size == 0)
+                return a;
+            val maxHigh = comparator.compare((K) b.maxHigh, (K) a.maxHigh) > 0 ? b.maxHigh : a.maxHigh;
+            return new IntervalMeasure(a.size + b.size, b.lastLow, maxHigh);
+        }
+    }
+
+    private static final class IntervalMeasurement<K, T> implements Function<Tuple3<K, K, T>, IntervalMeasure>,
+            Serializable {
+        private static final long serialVersionUID = -7861062208410727063L;
+
+        private static final IntervalMeasurement<?, ?> INSTANCE = new IntervalMeasurement<Object, Object>();
+
+        @SuppressWarnings("unchecked")
+        static <K, T> IntervalMeasurement<K, T> instance() {
+            return (IntervalMeasurement<K, T>) INSTANCE;
+        }
+
+        @Override
+        public IntervalMeasure apply(Tuple3<K, K, T> input) {
+            return new IntervalMeasure(1, input.a, input.b);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class LowComparator<K> implements Comparator<Tuple3<K, K, ?>> {
+        private final Comparator<? super K> comparator;
+
+        @Override
+        public int compare(Tuple3<K, K, ?> o1, Tuple3<K, K, ?> o2) {
+            return comparator.compare(o1.a, o2.a);
+        }
+    }
+
+    /**
+     * Passes measures whose last low endpoint is greater than the given endpoint.
+     */
+    @RequiredArgsConstructor
+    private static final class LowGreaterThan<K> implements Predicate<IntervalMeasure> {
+        private final Comparator<? super K> comparator;
+        private final K key;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean apply(IntervalMeasure input) {
+            return input.size > 0 && comparator.compare((K) input.lastLow, key) > 0;
+        }
+    }
+
+    /**
+     * Passes measures whose maximum high endpoint is at least the given endpoint.
+     */
+    @RequiredArgsConstructor
+    private static final class HighAtLeast<K> implements Predicate<IntervalMeasure> {
+        private final Comparator<? super K> comparator;
+        private final K key;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean apply(IntervalMeasure input) {
+            return input.size > 0 && comparator.compare((K) input.maxHigh, key) >= 0;
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.UnmodifiableIterator;
+
+import fi.gekkio.drumfish.lang.Effect;
+import fi.gekkio.drumfish.lang.Function2;
+import fi.gekkio.drumfish.lang.Monoids;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable sequence of fixed-width records stored outside the heap, typically in a memory-mapped file.
+ * <p>
+ * Records are decoded on access with a {@link RecordCodec} from read-only {@link ByteBuffer} segments, which are kept
+ * in a finger tree measured by record count. Mapping a file only creates the segment buffers, so a sequence is ready
+ * immediately and uses almost no heap regardless of its size. Record access, slicing and concatenation take
+ * logarithmic time in the number of segments, and never copy bytes.
+ * <p>
+ * A sequence only shares the buffers given to it, so the contents of those buffers (or the mapped file) must not be
+ * modified afterwards.
+ * 
+ * @param <T>
+ *            record type
+ */
+public class MappedSeq<T> implements Iterable<T> {
+
+    /**
+     * Maximum number of bytes in one mapped segment. Segments are rounded down to a whole number of records, so record
+     * offsets always fit in an int.
+     */
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private final RecordCodec<T> codec;
+    private final int width;
+    private final FingerTree<Long, ByteBuffer> tree;
+
+    private MappedSeq(RecordCodec<T> codec, FingerTree<Long, ByteBuffer> tree) {
+        this.codec = codec;
+        this.width = codec.width();
+        this.tree = tree;
+    }
+
+    public static <T> MappedSeq<T> empty(RecordCodec<T> codec) {
+        return of(codec);
+    }
+
+    /**
+     * Returns a sequence containing the records in the remaining bytes of the given buffers. The buffers are not
+     * copied, and their positions and limits are not modified.
+     * 
+     * @param codec
+     *            record codec
+     * @param buffers
+     *            buffers, which must each contain a whole number of records
+     * @return sequence
+     */
+    public static <T> MappedSeq<T> of(RecordCodec<T> codec, ByteBuffer... buffers) {
+        Preconditions.checkNotNull(codec, "codec cannot be null");
+        int width = codec.width();
+        Preconditions.checkArgument(width > 0, "record width must be positive");
+        val segments = new ArrayList<ByteBuffer>(buffers.length);
+        for (ByteBuffer buffer : buffers) {
+            Preconditions.checkNotNull(buffer, "buffer cannot be null");
+            Preconditions.checkArgument(buffer.remaining() % width == 0, "buffer must contain a whole number of records");
+            if (buffer.hasRemaining())
+                segments.add(buffer.asReadOnlyBuffer().slice().order(buffer.order()));
+        }
+        return new MappedSeq<T>(codec, factory(width).tree(segments));
+    }
+
+    /**
+     * Maps the given file read-only, and returns a sequence containing its records. The file is closed before this
+     * method returns, but the mapping stays valid until the sequence and its slices are garbage collected.
+     * 
+     * @param file
+     *            file, which must contain a whole number of records
+     * @param codec
+     *            record codec
+     * @return sequence
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static <T> MappedSeq<T> map(File file, RecordCodec<T> codec) throws IOException {
+        Preconditions.checkNotNull(file, "file cannot be null");
+        val raf = new RandomAccessFile(file, "r");
+        try {
+            return map(raf.getChannel(), codec);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Maps the whole contents of the given channel read-only, and returns a sequence containing its records. Large
+     * files are mapped in several segments.
+     * 
+     * @param channel
+     *            file channel, which must contain a whole number of records
+     * @param codec
+     *            record codec
+     * @return sequence
+     * @throws IOException
+     *             if an I/O error occurs
+     */
+    public static <T> MappedSeq<T> map(FileChannel channel, RecordCodec<T> codec) throws IOException {
+        return map(channel, codec, SEGMENT_SIZE);
+    }
+
+    static <T> MappedSeq<T> map(FileChannel channel, RecordCodec<T> codec, int segmentSize) throws IOException {
+        Preconditions.checkNotNull(channel, "channel cannot be null");
+        Preconditions.checkNotNull(codec, "codec cannot be null");
+        int width = codec.width();
+        Preconditions.checkArgument(width > 0 && width <= segmentSize, "record width must be between 1 and " + segmentSize);
+        long size = channel.size();
+        Preconditions.checkArgument(size % width == 0, "file size must be a multiple of the record width");
+
+        long segmentBytes = segmentSize - segmentSize % width;
+        val segments = new ArrayList<ByteBuffer>((int) (size / segmentBytes) + 1);
+        for (long position = 0; position < size; position += segmentBytes) {
+            long length = Math.min(segmentBytes, size - position);
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, position, length).asReadOnlyBuffer());
+        }
+        return new MappedSeq<T>(codec, factory(width).tree(segments));
+    }
+
+    public RecordCodec<T> getCodec() {
+        return codec;
+    }
+
+    public long size() {
+        return tree.measure();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns the record at the given index.
+     * 
+     * @param index
+     *            index
+     * @return record
+     */
+    public T get(long index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("index (" + index + ") must be between 0 and " + (size() - 1));
+        val p = new CountGreaterThan(index);
+        val segment = tree.cursor(p).next();
+        return codec.decode(segment, (int) (index - tree.prefixMeasure(p)) * width);
+    }
+
+    /**
+     * Returns the records between the given indexes.
+     * 
+     * @param from
+     *            start index (inclusive)
+     * @param to
+     *            end index (exclusive)
+     * @return sequence
+     */
+    public MappedSeq<T> slice(long from, long to) {
+        checkPositionIndexes(from, to, size());
+        if (from == 0 && to == size())
+            return this;
+        val head = splitTree(tree, to).a;
+        return new MappedSeq<T>(codec, splitTree(head, from).b);
+    }
+
+    /**
+     * Returns a sequence containing the first n records of this sequence.
+     * 
+     * @param n
+     *            number of records, between 0 and size (inclusive)
+     * @return sequence
+     */
+    public MappedSeq<T> take(long n) {
+        return slice(0, n);
+    }
+
+    /**
+     * Returns a sequence without the first n records of this sequence.
+     * 
+     * @param n
+     *            number of records, between 0 and size (inclusive)
+     * @return sequence
+     */
+    public MappedSeq<T> drop(long n) {
+        return slice(n, size());
+    }
+
+    /**
+     * Returns a sequence containing the records of this sequence followed by the records of the given sequence. Both
+     * sequences must use equal codecs.
+     * 
+     * @param other
+     *            other sequence
+     * @return sequence
+     */
+    public MappedSeq<T> concat(MappedSeq<T> other) {
+        Preconditions.checkArgument(codec.equals(other.codec), "sequences must use equal codecs");
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+        return new MappedSeq<T>(codec, tree.concat(other.tree));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        val segments = tree.iterator();
+        return new UnmodifiableIterator<T>() {
+            private ByteBuffer segment;
+            private int offset;
+
+            @Override
+            public boolean hasNext() {
+                return (segment != null && offset < segment.limit()) || segments.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (segment == null || offset == segment.limit()) {
+                    if (!segments.hasNext())
+                        throw new NoSuchElementException();
+                    segment = segments.next();
+                    offset = 0;
+                }
+                T record = codec.decode(segment, offset);
+                offset += width;
+                return record;
+            }
+        };
+    }
+
+    /**
+     * Passes all records to the given effect in order.
+     * 
+     * @param e
+     *            effect
+     */
+    public void forEach(Effect<? super T> e) {
+        Preconditions.checkNotNull(e, "effect cannot be null");
+        for (ByteBuffer segment : tree) {
+            for (int offset = 0; offset < segment.limit(); offset += width)
+                e.apply(codec.decode(segment, offset));
+        }
+    }
+
+    @CheckForNull
+    public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+        U accum = initial;
+        for (ByteBuffer segment : tree) {
+            for (int offset = 0; offset < segment.limit(); offset += width)
+                accum = f.apply(accum, codec.decode(segment, offset));
+        }
+        return accum;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedSeq(size=" + size() + ")";
+    }
+
+    private static FingerTreeFactory<Long, ByteBuffer> factory(int width) {
+        return FingerTreeFactory.create(Monoids.longSum(), new RecordCount(width));
+    }
+
+    private static void checkPositionIndexes(long start, long end, long size) {
+        if (start < 0 || end < start || end > size)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") must be within [0, " + size + ")");
+    }
+
+    /**
+     * Splits the given tree so that the left tree contains exactly the given number of records. The segment that spans
+     * the split point is divided into two views.
+     */
+    private Tuple2<FingerTree<Long, ByteBuffer>, FingerTree<Long, ByteBuffer>> splitTree(FingerTree<Long, ByteBuffer> tree,
+            long index) {
+        val factory = tree.getFactory();
+        if (index == 0)
+            return Tuple2.of(factory.tree(), tree);
+        if (index == tree.measure())
+            return Tuple2.of(tree, factory.tree());
+        val split = tree.split(new CountGreaterThan(index), 0L);
+        int offset = (int) (index - split.left.measure()) * width;
+        if (offset == 0)
+            return Tuple2.of(split.left, split.right.prepend(split.pivot));
+        val left = split.pivot.duplicate();
+        left.limit(offset);
+        val right = split.pivot.duplicate();
+        right.position(offset);
+        return Tuple2.of(split.left.append(left.slice().order(split.pivot.order())),
+                split.right.prepend(right.slice().order(split.pivot.order())));
+    }
+
+    @RequiredArgsConstructor
+    private static final class RecordCount implements Function<ByteBuffer, Long> {
+        private final int width;
+
+        @Override
+        public Long apply(ByteBuffer input) {
+            return (long) (input.limit() / width);
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class CountGreaterThan implements Predicate<Long> {
+        private final long index;
+
+        @Override
+        public boolean apply(Long input) {
+            return input > index;
+        }
+    }
+
+}
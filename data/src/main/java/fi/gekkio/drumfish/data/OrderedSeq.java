@@ -0,0 +1,387 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+
+import fi.gekkio.drumfish.lang.Function2;
+import fi.gekkio.drumfish.lang.Monoid;
+import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable sorted sequence.
+ * <p>
+ * Keys are kept in a finger tree in sorted order. The tree is measured by the number of keys and the last (= greatest)
+ * key, so keys can be searched by value as well as by index. Insertion, removal, membership, rank and order statistics
+ * take logarithmic time. Merging two sequences takes O(m log(n/m)) time, where m is the number of interleaved runs of
+ * keys, so merging sequences with disjoint key ranges is as cheap as concatenation.
+ * <p>
+ * Equal keys are allowed, so an ordered sequence behaves like a sorted multiset. Keys that compare as equal are kept in
+ * insertion order.
+ * 
+ * @param <K>
+ *            key type
+ */
+public class OrderedSeq<K> implements Iterable<K>, Serializable {
+
+    private static final long serialVersionUID = -3526181420749580453L;
+
+    private static final FingerTreeFactory<KeyMeasure, Object> FACTORY = FingerTreeFactory.<KeyMeasure, Object> create(
+            LastKeyMonoid.INSTANCE, KeyMeasurement.INSTANCE);
+
+    private final Comparator<? super K> comparator;
+    private final FingerTree<KeyMeasure, Object> tree;
+
+    private transient int hashCode;
+
+    private OrderedSeq(Comparator<? super K> comparator, FingerTree<KeyMeasure, Object> tree) {
+        this.comparator = comparator;
+        this.tree = tree;
+    }
+
+    public static <K extends Comparable<? super K>> OrderedSeq<K> of(K key) {
+        return orderedBy(Ordering.<K> natural(), Collections.singletonList(key));
+    }
+
+    public static <K extends Comparable<? super K>> OrderedSeq<K> of(K... keys) {
+        return orderedBy(Ordering.<K> natural(), Arrays.asList(keys));
+    }
+
+    public static <K extends Comparable<? super K>> OrderedSeq<K> of(Iterable<K> keys) {
+        return orderedBy(Ordering.<K> natural(), keys);
+    }
+
+    /**
+     * Returns an empty sequence that uses the given comparator.
+     * 
+     * @param comparator
+     *            key comparator
+     * @return sequence
+     */
+    public static <K> OrderedSeq<K> orderedBy(Comparator<? super K> comparator) {
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        return new OrderedSeq<K>(comparator, FACTORY.tree());
+    }
+
+    /**
+     * Returns a sequence containing the given keys, which uses the given comparator. The keys are sorted, and the tree
+     * is built in linear time.
+     * 
+     * @param comparator
+     *            key comparator
+     * @param keys
+     *            keys
+     * @return sequence
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> OrderedSeq<K> orderedBy(Comparator<? super K> comparator, Iterable<? extends K> keys) {
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        val array = Iterables.toArray(keys, Object.class);
+        for (Object key : array)
+            Preconditions.checkNotNull(key, "key cannot be null");
+        Arrays.sort(array, (Comparator<Object>) comparator);
+        return new OrderedSeq<K>(comparator, FACTORY.tree(array));
+    }
+
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    public int size() {
+        return tree.measure().size;
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<K> iterator() {
+        return (Iterator<K>) tree.iterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Iterator<K> reverseIterator() {
+        return (Iterator<K>) tree.reverseIterator();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Option<K> first() {
+        return (Option<K>) tree.getHead();
+    }
+
+    @SuppressWarnings("unchecked")
+    public Option<K> last() {
+        return (Option<K>) tree.getLast();
+    }
+
+    /**
+     * Returns true if this sequence contains a key that is equal to the given key according to the comparator.
+     * 
+     * @param key
+     *            key
+     * @return true if the key was found
+     */
+    @SuppressWarnings("unchecked")
+    public boolean contains(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        val cursor = tree.cursor(atLeast(key));
+        return cursor.hasNext() && comparator.compare((K) cursor.next(), key) == 0;
+    }
+
+    /**
+     * Returns a sequence with the given key inserted at its sorted position, after any keys that are equal to it.
+     * 
+     * @param key
+     *            key
+     * @return sequence
+     */
+    public OrderedSeq<K> insert(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        val split = tree.split(greaterThan(key));
+        return new OrderedSeq<K>(comparator, split.a.concat(key, split.b));
+    }
+
+    /**
+     * Returns a sequence without the first key that is equal to the given key. If there is no such key, this sequence
+     * is returned.
+     * 
+     * @param key
+     *            key
+     * @return sequence
+     */
+    @SuppressWarnings("unchecked")
+    public OrderedSeq<K> remove(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        val split = tree.split(atLeast(key));
+        val view = split.b.viewL();
+        if (view.isEmpty() || comparator.compare((K) view.getLeft(), key) != 0)
+            return this;
+        return new OrderedSeq<K>(comparator, split.a.concat(view.getRight()));
+    }
+
+    /**
+     * Returns the key at the given index in sorted order.
+     * 
+     * @param index
+     *            index
+     * @return key
+     */
+    @SuppressWarnings("unchecked")
+    public K kth(int index) {
+        Preconditions.checkElementIndex(index, size());
+        return (K) tree.cursor(new SizeGreaterThan(index)).next();
+    }
+
+    /**
+     * Returns the number of keys that are less than the given key.
+     * 
+     * @param key
+     *            key
+     * @return rank
+     */
+    public int rank(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        return tree.takeUntil(atLeast(key)).measure().size;
+    }
+
+    /**
+     * Returns the lower median of this sequence, which is the key at index (size - 1) / 2.
+     * 
+     * @return Some(median), or None if this sequence is empty
+     */
+    public Option<K> median() {
+        if (isEmpty())
+            return Option.none();
+        return Option.some(kth((size() - 1) / 2));
+    }
+
+    /**
+     * Splits this sequence by the given key.
+     * 
+     * @param key
+     *            key
+     * @return the keys less than the given key, and the keys greater than or equal to the given key
+     */
+    public Tuple2<OrderedSeq<K>, OrderedSeq<K>> split(K key) {
+        Preconditions.checkNotNull(key, "key cannot be null");
+        val split = tree.split(atLeast(key));
+        return Tuple2.of(new OrderedSeq<K>(comparator, split.a), new OrderedSeq<K>(comparator, split.b));
+    }
+
+    /**
+     * Merges this sequence and the given sequence. The other sequence must be sorted consistently with the comparator
+     * of this sequence. Keys from this sequence are placed before equal keys from the other sequence.
+     * <p>
+     * The sequences are merged run by run: every step moves the longest run of keys that can be taken from one
+     * sequence with a single split and a single concatenation.
+     * 
+     * @param other
+     *            other sequence
+     * @return merged sequence
+     */
+    @SuppressWarnings("unchecked")
+    public OrderedSeq<K> merge(OrderedSeq<K> other) {
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return new OrderedSeq<K>(comparator, other.tree);
+
+        FingerTree<KeyMeasure, Object> result = FACTORY.tree();
+        FingerTree<KeyMeasure, Object> a = this.tree;
+        FingerTree<KeyMeasure, Object> b = other.tree;
+        boolean fromThis = true;
+        while (!b.isEmpty()) {
+            // Keys from this sequence go before equal keys from the other sequence
+            val head = (K) b.getHeadUnsafe();
+            val split = a.split(fromThis ? greaterThan(head) : atLeast(head));
+            result = result.concat(split.a);
+            a = b;
+            b = split.b;
+            fromThis = !fromThis;
+        }
+        return new OrderedSeq<K>(comparator, result.concat(a));
+    }
+
+    @CheckForNull
+    public <U> U foldLeft(@Nullable U initial, Function2<U, K, U> f) {
+        U accum = initial;
+        for (K key : this)
+            accum = f.apply(accum, key);
+        return accum;
+    }
+
+    private Predicate<KeyMeasure> atLeast(K key) {
+        return new KeyPredicate<K>(comparator, key, 0);
+    }
+
+    private Predicate<KeyMeasure> greaterThan(K key) {
+        return new KeyPredicate<K>(comparator, key, 1);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj.getClass() == this.getClass()))
+            return false;
+        OrderedSeq<?> other = (OrderedSeq<?>) obj;
+        return size() == other.size() && Iterators.elementsEqual(iterator(), other.iterator());
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            h = 1;
+            for (K key : this)
+                h = 31 * h + key.hashCode();
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Measure of a part of the sequence: the number of keys and the last key.
+     */
+    @RequiredArgsConstructor
+    static final class KeyMeasure implements Serializable {
+        private static final long serialVersionUID = 4970183225434312846L;
+
+        private static final KeyMeasure EMPTY = new KeyMeasure(0, null);
+
+        final int size;
+        @Nullable
+        final Object last;
+    }
+
+    private static final class LastKeyMonoid implements Monoid<KeyMeasure>, Serializable {
+        private static final long serialVersionUID = -5108960413436207227L;
+
+        private static final LastKeyMonoid INSTANCE = new LastKeyMonoid();
+
+        @Override
+        public KeyMeasure mempty() {
+            return KeyMeasure.EMPTY;
+        }
+
+        @Override
+        public KeyMeasure mappend(KeyMeasure a, KeyMeasure b) {
+            if (a.size == 0)
+                return b;
+            if (b.size == 0)
+                return a;
+            return new KeyMeasure(a.size + b.size, b.last);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    private static final class KeyMeasurement implements Function<Object, KeyMeasure>, Serializable {
+        private static final long serialVersionUID = 2289187062461622604L;
+
+        private static final KeyMeasurement INSTANCE = new KeyMeasurement();
+
+        @Override
+        public KeyMeasure apply(Object input) {
+            return new KeyMeasure(1, input);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Passes measures whose last key is at least the given key (threshold 0), or greater than the given key (threshold
+     * 1).
+     */
+    @RequiredArgsConstructor
+    private static final class KeyPredicate<K> implements Predicate<KeyMeasure> {
+        private final Comparator<? super K> comparator;
+        private final K key;
+        private final int threshold;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean apply(KeyMeasure input) {
+            return input.size > 0 && comparator.compare((K) input.last, key) >= threshold;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class SizeGreaterThan implements Predicate<KeyMeasure> {
+        private final int index;
+
+        @Override
+        public boolean apply(KeyMeasure input) {
+            return input.size > index;
+        }
+    }
+
+}
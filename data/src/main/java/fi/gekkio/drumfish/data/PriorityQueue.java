@@ -0,0 +1,235 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Ordering;
+
+import fi.gekkio.drumfish.lang.Monoid;
+import fi.gekkio.drumfish.lang.Option;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable priority queue.
+ * <p>
+ * Entries are kept in a finger tree in insertion order, and the tree is measured by the maximum priority. Inserting
+ * takes amortized constant time, finding the entry with the highest priority takes constant time, removing it takes
+ * logarithmic time, and melding two queues takes logarithmic time. Since the queue is immutable, taking a snapshot
+ * is free and snapshots can be shared between threads without locking.
+ * <p>
+ * Entries with equal priorities are dequeued in insertion order.
+ * 
+ * @param <P>
+ *            priority type
+ * @param <T>
+ *            value type
+ */
+public class PriorityQueue<P, T> implements Serializable {
+
+    private static final long serialVersionUID = 6815480527064139512L;
+
+    private final FingerTree<Option<P>, Tuple2<P, T>> tree;
+
+    private PriorityQueue(FingerTree<Option<P>, Tuple2<P, T>> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Returns an empty queue that uses the natural ordering of priorities. Greater priorities are dequeued first.
+     * 
+     * @return queue
+     */
+    public static <P extends Comparable<? super P>, T> PriorityQueue<P, T> create() {
+        return orderedBy(Ordering.<P> natural());
+    }
+
+    /**
+     * Returns an empty queue that uses the given priority comparator. Greater priorities are dequeued first.
+     * 
+     * @param comparator
+     *            priority comparator
+     * @return queue
+     */
+    public static <P, T> PriorityQueue<P, T> orderedBy(Comparator<? super P> comparator) {
+        Preconditions.checkNotNull(comparator, "comparator cannot be null");
+        val factory = FingerTreeFactory.<Option<P>, Tuple2<P, T>> create(new MaxPriorityMonoid<P>(comparator),
+                PriorityMeasurement.<P, T> instance());
+        return new PriorityQueue<P, T>(factory.tree());
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns a queue with the given value inserted with the given priority.
+     * 
+     * @param priority
+     *            priority
+     * @param value
+     *            value
+     * @return queue
+     */
+    public PriorityQueue<P, T> insert(P priority, T value) {
+        Preconditions.checkNotNull(priority, "priority cannot be null");
+        return new PriorityQueue<P, T>(tree.append(Tuple2.of(priority, value)));
+    }
+
+    /**
+     * Returns a queue that contains the entries of this queue and the given queue. The queues must use equal priority
+     * comparators.
+     * 
+     * @param other
+     *            other queue
+     * @return queue
+     */
+    public PriorityQueue<P, T> meld(PriorityQueue<P, T> other) {
+        Preconditions.checkArgument(comparator().equals(other.comparator()), "queues must use equal priority comparators");
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+        return new PriorityQueue<P, T>(tree.concat(other.tree));
+    }
+
+    /**
+     * Returns the entry with the highest priority.
+     * 
+     * @return Some(entry), or None if this queue is empty
+     */
+    public Option<Tuple2<P, T>> peek() {
+        if (isEmpty())
+            return Option.none();
+        return Option.some(top().pivot);
+    }
+
+    /**
+     * Returns the value with the highest priority.
+     * 
+     * @return value
+     * @throws NoSuchElementException
+     *             if this queue is empty
+     */
+    public T peekValue() {
+        if (isEmpty())
+            throw new NoSuchElementException("Cannot peek an empty queue");
+        return top().pivot.b;
+    }
+
+    /**
+     * Returns the highest priority in this queue without locating the entry.
+     * 
+     * @return Some(priority), or None if this queue is empty
+     */
+    public Option<P> topPriority() {
+        return tree.measure();
+    }
+
+    /**
+     * Returns a queue without the entry with the highest priority.
+     * 
+     * @return queue
+     * @throws NoSuchElementException
+     *             if this queue is empty
+     */
+    public PriorityQueue<P, T> pop() {
+        if (isEmpty())
+            throw new NoSuchElementException("Cannot pop an empty queue");
+        val split = top();
+        return new PriorityQueue<P, T>(split.left.concat(split.right));
+    }
+
+    /**
+     * Removes the entry with the highest priority.
+     * 
+     * @return Some(entry and the remaining queue), or None if this queue is empty
+     */
+    public Option<Tuple2<Tuple2<P, T>, PriorityQueue<P, T>>> poll() {
+        if (isEmpty())
+            return Option.none();
+        val split = top();
+        return Option.some(Tuple2.of(split.pivot, new PriorityQueue<P, T>(split.left.concat(split.right))));
+    }
+
+    private FingerTree.Split<Option<P>, Tuple2<P, T>> top() {
+        val max = tree.measure().getValue();
+        return tree.split(new ReachesPriority<P>(comparator(), max), Option.<P> none());
+    }
+
+    private Comparator<? super P> comparator() {
+        return ((MaxPriorityMonoid<P>) tree.getFactory().getMonoid()).comparator;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityQueue(" + tree.toString() + ")";
+    }
+
+    /**
+     * Measures parts of the queue by their maximum priority, or None if the part is empty.
+     */
+    @RequiredArgsConstructor
+    private static final class MaxPriorityMonoid<P> implements Monoid<Option<P>>, Serializable {
+        private static final long serialVersionUID = -2749157207851350164L;
+
+        private final Comparator<? super P> comparator;
+
+        @Override
+        public Option<P> mempty() {
+            return Option.none();
+        }
+
+        @Override
+        public Option<P> mappend(Option<P> a, Option<P> b) {
+            if (!a.isDefined())
+                return b;
+            if (!b.isDefined())
+                return a;
+            // Ties keep the left priority, so equal priorities are found in insertion order
+            return comparator.compare(b.getValue(), a.getValue()) > 0 ? b : a;
+        }
+    }
+
+    private static final class PriorityMeasurement<P, T> implements Function<Tuple2<P, T>, Option<P>>, Serializable {
+        private static final long serialVersionUID = 7405276953718398820L;
+
+        private static final PriorityMeasurement<?, ?> INSTANCE = new PriorityMeasurement<Object, Object>();
+
+        @SuppressWarnings("unchecked")
+        static <P, T> PriorityMeasurement<P, T> instance() {
+            return (PriorityMeasurement<P, T>) INSTANCE;
+        }
+
+        @Override
+        public Option<P> apply(Tuple2<P, T> input) {
+            return Option.some(input.a);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * Passes measures whose priority is at least the given maximum priority.
+     */
+    @RequiredArgsConstructor
+    private static final class ReachesPriority<P> implements Predicate<Option<P>> {
+        private final Comparator<? super P> comparator;
+        private final P max;
+
+        @Override
+        public boolean apply(Option<P> input) {
+            return input.isDefined() && comparator.compare(input.getValue(), max) >= 0;
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package fi.gekkio.drumfish.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes fixed-width records from a buffer. Used by {@link MappedSeq}.
+ * <p>
+ * Implementations must only use absolute get methods of the buffer, because the same buffer is shared by all readers.
+ * 
+ * @param <T>
+ *            record type
+ */
+public interface RecordCodec<T> {
+
+    /**
+     * Returns the number of bytes in one record.
+     * 
+     * @return record width, which must be positive
+     */
+    int width();
+
+    /**
+     * Decodes the record that starts at the given offset.
+     * 
+     * @param buffer
+     *            buffer
+     * @param offset
+     *            offset of the first byte of the record
+     * @return record, which must not be null
+     */
+    T decode(ByteBuffer buffer, int offset);
+
+}
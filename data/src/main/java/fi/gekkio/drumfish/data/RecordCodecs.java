@@ -0,0 +1,68 @@
+package fi.gekkio.drumfish.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Record codecs for primitive values. The byte order of the buffer is used, which is big-endian unless the buffer
+ * was given a different order.
+ */
+public final class RecordCodecs {
+
+    private RecordCodecs() {
+    }
+
+    static class IntCodec implements RecordCodec<Integer> {
+        private static final IntCodec INSTANCE = new IntCodec();
+
+        @Override
+        public int width() {
+            return 4;
+        }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+    }
+
+    public static RecordCodec<Integer> ints() {
+        return IntCodec.INSTANCE;
+    }
+
+    static class LongCodec implements RecordCodec<Long> {
+        private static final LongCodec INSTANCE = new LongCodec();
+
+        @Override
+        public int width() {
+            return 8;
+        }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int offset) {
+            return buffer.getLong(offset);
+        }
+    }
+
+    public static RecordCodec<Long> longs() {
+        return LongCodec.INSTANCE;
+    }
+
+    static class DoubleCodec implements RecordCodec<Double> {
+        private static final DoubleCodec INSTANCE = new DoubleCodec();
+
+        @Override
+        public int width() {
+            return 8;
+        }
+
+        @Override
+        public Double decode(ByteBuffer buffer, int offset) {
+            return buffer.getDouble(offset);
+        }
+    }
+
+    public static RecordCodec<Double> doubles() {
+        return DoubleCodec.INSTANCE;
+    }
+
+}
@@ -0,0 +1,417 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+import fi.gekkio.drumfish.lang.Monoid;
+import fi.gekkio.drumfish.lang.Tuple2;
+
+/**
+ * Persistent immutable text buffer.
+ * <p>
+ * Text is stored in immutable character arrays ("chunks") of at most {@value #CHUNK_SIZE} characters, which are kept in
+ * a finger tree measured by the number of characters and line breaks. Character access, substrings, insertion,
+ * deletion and line lookups take logarithmic time, and only the chunks at the edit boundaries are copied.
+ * <p>
+ * Lines are separated by '\n' characters, so text with n line feeds has n + 1 lines.
+ */
+public class Rope implements CharSequence, Serializable {
+
+    private static final long serialVersionUID = -1938432574210418716L;
+
+    /**
+     * Maximum number of characters in a chunk.
+     */
+    static final int CHUNK_SIZE = 256;
+
+    private static final FingerTreeFactory<TextMeasure, Chunk> FACTORY = FingerTreeFactory.create(TextMonoid.INSTANCE,
+            ChunkMeasurement.INSTANCE);
+
+    private static final Rope EMPTY = new Rope(FACTORY.tree());
+
+    private final FingerTree<TextMeasure, Chunk> tree;
+
+    private transient int hashCode;
+
+    private Rope(FingerTree<TextMeasure, Chunk> tree) {
+        this.tree = tree;
+    }
+
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    public static Rope of(CharSequence text) {
+        Preconditions.checkNotNull(text, "text cannot be null");
+        if (text instanceof Rope)
+            return (Rope) text;
+        return new Rope(chunkTree(text));
+    }
+
+    private static FingerTree<TextMeasure, Chunk> chunkTree(CharSequence text) {
+        int length = text.length();
+        val chunks = new ArrayList<Chunk>((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int start = 0; start < length; start += CHUNK_SIZE) {
+            int end = Math.min(start + CHUNK_SIZE, length);
+            val chars = new char[end - start];
+            for (int i = start; i < end; i++)
+                chars[i - start] = text.charAt(i);
+            chunks.add(new Chunk(chars));
+        }
+        return FACTORY.tree(chunks);
+    }
+
+    @Override
+    public int length() {
+        return tree.measure().chars;
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    /**
+     * Returns the number of lines in this text, which is the number of line feeds plus one.
+     * 
+     * @return line count
+     */
+    public int lineCount() {
+        return tree.measure().lines + 1;
+    }
+
+    @Override
+    public char charAt(int index) {
+        Preconditions.checkElementIndex(index, length());
+        val p = new CharsGreaterThan(index);
+        val chunk = tree.cursor(p).next();
+        return chunk.chars[index - tree.prefixMeasure(p).chars];
+    }
+
+    /**
+     * Returns the text between the given indexes.
+     * 
+     * @param start
+     *            start index (inclusive)
+     * @param end
+     *            end index (exclusive)
+     * @return rope
+     */
+    public Rope substring(int start, int end) {
+        Preconditions.checkPositionIndexes(start, end, length());
+        if (start == 0 && end == length())
+            return this;
+        val head = splitAt(end).a;
+        return new Rope(splitTree(head, start).b);
+    }
+
+    @Override
+    public Rope subSequence(int start, int end) {
+        return substring(start, end);
+    }
+
+    /**
+     * Returns a rope with the given text inserted at the given index.
+     * 
+     * @param index
+     *            index
+     * @param text
+     *            text
+     * @return rope
+     */
+    public Rope insert(int index, CharSequence text) {
+        Preconditions.checkPositionIndex(index, length());
+        Preconditions.checkNotNull(text, "text cannot be null");
+        if (text.length() == 0)
+            return this;
+        val inserted = text instanceof Rope ? ((Rope) text).tree : chunkTree(text);
+        val split = splitAt(index);
+        return new Rope(join(join(split.a, inserted), split.b));
+    }
+
+    /**
+     * Returns a rope without the text between the given indexes.
+     * 
+     * @param start
+     *            start index (inclusive)
+     * @param end
+     *            end index (exclusive)
+     * @return rope
+     */
+    public Rope delete(int start, int end) {
+        Preconditions.checkPositionIndexes(start, end, length());
+        if (start == end)
+            return this;
+        val tail = splitAt(end).b;
+        return new Rope(join(splitAt(start).a, tail));
+    }
+
+    public Rope append(CharSequence text) {
+        return insert(length(), text);
+    }
+
+    public Rope concat(Rope other) {
+        return new Rope(join(tree, other.tree));
+    }
+
+    /**
+     * Returns the index of the first character of the given line.
+     * 
+     * @param line
+     *            line number, starting from 0
+     * @return character index
+     */
+    public int lineStart(int line) {
+        Preconditions.checkElementIndex(line, lineCount());
+        if (line == 0)
+            return 0;
+        // The line starts after the chunk that contains the line feed which ends the previous line
+        val p = new LinesAtLeast(line);
+        val before = tree.prefixMeasure(p);
+        val chars = tree.cursor(p).next().chars;
+        int remaining = line - before.lines;
+        int i = 0;
+        while (true) {
+            if (chars[i] == '\n' && --remaining == 0)
+                return before.chars + i + 1;
+            i++;
+        }
+    }
+
+    /**
+     * Returns the line that contains the character at the given index.
+     * 
+     * @param index
+     *            character index, or the length of this text
+     * @return line number, starting from 0
+     */
+    public int lineOf(int index) {
+        Preconditions.checkPositionIndex(index, length());
+        if (index == length())
+            return lineCount() - 1;
+        val p = new CharsGreaterThan(index);
+        val before = tree.prefixMeasure(p);
+        val chars = tree.cursor(p).next().chars;
+        int lines = before.lines;
+        for (int i = 0; i < index - before.chars; i++) {
+            if (chars[i] == '\n')
+                lines++;
+        }
+        return lines;
+    }
+
+    private Tuple2<FingerTree<TextMeasure, Chunk>, FingerTree<TextMeasure, Chunk>> splitAt(int index) {
+        return splitTree(tree, index);
+    }
+
+    /**
+     * Splits the given tree so that the left tree contains exactly the given number of characters. The chunk that
+     * spans the split point is divided in two.
+     */
+    private static Tuple2<FingerTree<TextMeasure, Chunk>, FingerTree<TextMeasure, Chunk>> splitTree(
+            FingerTree<TextMeasure, Chunk> tree, int index) {
+        if (index == 0)
+            return Tuple2.of(FACTORY.tree(), tree);
+        if (index == tree.measure().chars)
+            return Tuple2.of(tree, FACTORY.tree());
+        val split = tree.split(new CharsGreaterThan(index), TextMeasure.EMPTY);
+        int offset = index - split.left.measure().chars;
+        if (offset == 0)
+            return Tuple2.of(split.left, split.right.prepend(split.pivot));
+        val chars = split.pivot.chars;
+        val left = new Chunk(Arrays.copyOfRange(chars, 0, offset));
+        val right = new Chunk(Arrays.copyOfRange(chars, offset, chars.length));
+        return Tuple2.of(split.left.append(left), split.right.prepend(right));
+    }
+
+    /**
+     * Concatenates the given trees, merging the chunks at the boundary if they fit in a single chunk.
+     */
+    private static FingerTree<TextMeasure, Chunk> join(FingerTree<TextMeasure, Chunk> a,
+            FingerTree<TextMeasure, Chunk> b) {
+        if (a.isEmpty())
+            return b;
+        if (b.isEmpty())
+            return a;
+        val last = a.getLastUnsafe().chars;
+        val first = b.getHeadUnsafe().chars;
+        if (last.length + first.length > CHUNK_SIZE)
+            return a.concat(b);
+        val chars = new char[last.length + first.length];
+        System.arraycopy(last, 0, chars, 0, last.length);
+        System.arraycopy(first, 0, chars, last.length, first.length);
+        return a.viewR().getLeft().concat(new Chunk(chars), b.viewL().getRight());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof Rope))
+            return false;
+        Rope other = (Rope) obj;
+        int length = length();
+        if (length != other.length() || lineCount() != other.lineCount())
+            return false;
+        if (hashCode != 0 && other.hashCode != 0 && hashCode != other.hashCode)
+            return false;
+        // Chunk boundaries can be at different positions, so the chunks are compared with an offset into each
+        val chunks = tree.iterator();
+        val otherChunks = other.tree.iterator();
+        char[] chars = null;
+        char[] otherChars = null;
+        int offset = 0;
+        int otherOffset = 0;
+        int remaining = length;
+        while (remaining > 0) {
+            if (chars == null || offset == chars.length) {
+                chars = chunks.next().chars;
+                offset = 0;
+            }
+            if (otherChars == null || otherOffset == otherChars.length) {
+                otherChars = otherChunks.next().chars;
+                otherOffset = 0;
+            }
+            if (chars == otherChars && offset == otherOffset) {
+                remaining -= chars.length - offset;
+                offset = chars.length;
+                otherOffset = chars.length;
+                continue;
+            }
+            int n = Math.min(chars.length - offset, otherChars.length - otherOffset);
+            for (int i = 0; i < n; i++) {
+                if (chars[offset + i] != otherChars[otherOffset + i])
+                    return false;
+            }
+            offset += n;
+            otherOffset += n;
+            remaining -= n;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the same hash code as {@link String#hashCode()} would for the same text.
+     */
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            for (Chunk chunk : tree) {
+                for (char c : chunk.chars)
+                    h = 31 * h + c;
+            }
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        val sb = new StringBuilder(length());
+        for (Chunk chunk : tree)
+            sb.append(chunk.chars);
+        return sb.toString();
+    }
+
+    /**
+     * Measure of a part of the text: the number of characters and line feeds.
+     */
+    @RequiredArgsConstructor
+    static final class TextMeasure implements Serializable {
+        private static final long serialVersionUID = 4352137926839000631L;
+
+        static final TextMeasure EMPTY = new TextMeasure(0, 0);
+
+        final int chars;
+        final int lines;
+    }
+
+    /**
+     * Immutable chunk of text, which caches its measure so that line feeds are counted only once.
+     */
+    static final class Chunk implements Serializable {
+        private static final long serialVersionUID = -6911240316003000870L;
+
+        final char[] chars;
+        final TextMeasure measure;
+
+        Chunk(char[] chars) {
+            this.chars = chars;
+            int lines = 0;
+            for (char c : chars) {
+                if (c == '\n')
+                    lines++;
+            }
+            this.measure = new TextMeasure(chars.length, lines);
+        }
+    }
+
+    private static final class TextMonoid implements Monoid<TextMeasure>, Serializable {
+        private static final long serialVersionUID = 1857297290390561045L;
+
+        private static final TextMonoid INSTANCE = new TextMonoid();
+
+        @Override
+        public TextMeasure mempty() {
+            return TextMeasure.EMPTY;
+        }
+
+        @Override
+        public TextMeasure mappend(TextMeasure a, TextMeasure b) {
+            if (a.chars == 0)
+                return b;
+            if (b.chars == 0)
+                return a;
+            return new TextMeasure(a.chars + b.chars, a.lines + b.lines);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    private static final class ChunkMeasurement implements Function<Chunk, TextMeasure>, Serializable {
+        private static final long serialVersionUID = -3405851016185432412L;
+
+        private static final ChunkMeasurement INSTANCE = new ChunkMeasurement();
+
+        @Override
+        public TextMeasure apply(Chunk input) {
+            return input.measure;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class CharsGreaterThan implements Predicate<TextMeasure> {
+        private final int index;
+
+        @Override
+        public boolean apply(TextMeasure input) {
+            return input.chars > index;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class LinesAtLeast implements Predicate<TextMeasure> {
+        private final int lines;
+
+        @Override
+        public boolean apply(TextMeasure input) {
+            return input.lines >= lines;
+        }
+    }
+
+}
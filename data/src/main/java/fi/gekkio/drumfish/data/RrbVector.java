@@ -0,0 +1,746 @@
+package fi.gekkio.drumfish.data;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.collect.UnmodifiableListIterator;
+
+import fi.gekkio.drumfish.lang.Function2;
+
+/**
+ * Persistent immutable indexed sequence based on a relaxed radix balanced (RRB) tree.
+ * <p>
+ * Elements are stored in leaf arrays of at most 32 elements, and internal nodes have at most 32 children, so random
+ * access and updates take O(log32 n) time. The last leaf is kept outside the tree as a tail, which makes appending
+ * amortized constant time. Unlike a strict radix balanced vector, nodes may contain partially filled children, which
+ * allows concatenation in O(log n) time.
+ * <p>
+ * Offers the same API as {@link IndexedSeq}. IndexedSeq is better suited for prepending and repeated slicing, while
+ * RrbVector is better suited for read-heavy workloads.
+ *
+ * @param <T>
+ *            element type
+ */
+public class RrbVector<T> implements Iterable<T>, Serializable {
+
+    private static final long serialVersionUID = 3085416427932786512L;
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+
+    /**
+     * Number of extra nodes a level may have after concatenation compared to an optimally packed level. Higher values
+     * make concatenation cheaper, and indexing slightly more expensive.
+     */
+    private static final int EXTRAS = 2;
+
+    private static final Object[] EMPTY_LEAF = new Object[0];
+
+    /*
+     * Leaves are arrays of elements. Internal nodes are arrays of children followed by an int[] table of cumulative
+     * child sizes. The shift of a node is 0 for leaves and grows by BITS for every level above them, so a child of a
+     * node with shift s contains at most 1 << s elements.
+     */
+    @Nullable
+    private final Object[] root;
+    private final int shift;
+    private final Object[] tail;
+    private final int size;
+
+    private transient int hashCode;
+
+    private RrbVector(@Nullable Object[] root, int shift, Object[] tail, int size) {
+        this.root = root;
+        this.shift = shift;
+        this.tail = tail;
+        this.size = size;
+    }
+
+    public static <T> RrbVector<T> of(T e) {
+        Preconditions.checkNotNull(e, "element cannot be null");
+        return new RrbVector<T>(null, 0, new Object[] { e }, 1);
+    }
+
+    public static <T> RrbVector<T> of(T... elements) {
+        IntFingerTreeFactory.checkElements(elements);
+        return build(elements, elements.length);
+    }
+
+    public static <T> RrbVector<T> of(Iterable<T> elements) {
+        val array = Iterables.toArray(elements, Object.class);
+        IntFingerTreeFactory.checkElements(array);
+        return build(array, array.length);
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<T>();
+    }
+
+    /**
+     * Mutable builder for RrbVector objects.
+     * <p>
+     * Elements are staged in a growable array, and packed into leaves and internal nodes in linear time when
+     * {@link #build()} is called. The builder can still be used after calling build(), and later builds do not affect
+     * previously built vectors.
+     * 
+     * @param <T>
+     *            element type
+     */
+    public static final class Builder<T> {
+        private Object[] elements = new Object[16];
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an element to the end of this builder.
+         * 
+         * @param e
+         *            element
+         * @return this builder
+         */
+        public Builder<T> add(T e) {
+            Preconditions.checkNotNull(e, "element cannot be null");
+            if (size == elements.length)
+                elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+            elements[size++] = e;
+            return this;
+        }
+
+        /**
+         * Adds the given elements to the end of this builder.
+         * 
+         * @param elements
+         *            elements
+         * @return this builder
+         */
+        public Builder<T> addAll(T... elements) {
+            for (T e : elements)
+                add(e);
+            return this;
+        }
+
+        /**
+         * Adds the given elements to the end of this builder.
+         * 
+         * @param elements
+         *            elements
+         * @return this builder
+         */
+        public Builder<T> addAll(Iterable<? extends T> elements) {
+            for (T e : elements)
+                add(e);
+            return this;
+        }
+
+        /**
+         * Returns the number of elements added to this builder.
+         * 
+         * @return element count
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Returns a vector containing all elements added to this builder.
+         * 
+         * @return vector
+         */
+        public RrbVector<T> build() {
+            return RrbVector.<T> build(elements, size);
+        }
+    }
+
+    public List<T> asList() {
+        class ListAdapter extends AbstractList<T> {
+            @Override
+            public T get(int index) {
+                return RrbVector.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return RrbVector.this.size();
+            }
+
+            @Override
+            public Iterator<T> iterator() {
+                return RrbVector.this.iterator();
+            }
+
+            @Override
+            public ListIterator<T> listIterator(int index) {
+                return RrbVector.this.listIterator(index);
+            }
+        }
+        return new ListAdapter();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return listIterator(0);
+    }
+
+    public Iterator<T> reverseIterator() {
+        val it = listIterator(size);
+        return new UnmodifiableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasPrevious();
+            }
+
+            @Override
+            public T next() {
+                return it.previous();
+            }
+        };
+    }
+
+    public int indexOf(T value) {
+        Preconditions.checkNotNull(value, "value cannot be null");
+
+        val it = listIterator();
+        while (it.hasNext())
+            if (value.equals(it.next()))
+                return it.previousIndex();
+
+        return -1;
+    }
+
+    public int lastIndexOf(T value) {
+        Preconditions.checkNotNull(value, "value cannot be null");
+
+        val it = listIterator(size());
+        while (it.hasPrevious())
+            if (value.equals(it.previous()))
+                return it.nextIndex();
+
+        return -1;
+    }
+
+    public ListIterator<T> listIterator() {
+        return listIterator(0);
+    }
+
+    public ListIterator<T> listIterator(final int index) {
+        Preconditions.checkPositionIndex(index, size);
+
+        /*
+         * Keeps the leaf of the previously returned element, so that walking the vector descends the tree only once per
+         * leaf.
+         */
+        class ListIterator extends UnmodifiableListIterator<T> {
+            private int cursorIndex = index;
+            private Object[] leaf = EMPTY_LEAF;
+            private int leafStart;
+
+            @Override
+            public boolean hasNext() {
+                return cursorIndex != size;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return element(cursorIndex++);
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return cursorIndex != 0;
+            }
+
+            @Override
+            public T previous() {
+                if (!hasPrevious())
+                    throw new NoSuchElementException();
+                return element(--cursorIndex);
+            }
+
+            @Override
+            public int nextIndex() {
+                return cursorIndex;
+            }
+
+            @Override
+            public int previousIndex() {
+                return cursorIndex - 1;
+            }
+
+            @SuppressWarnings("unchecked")
+            private T element(int i) {
+                if (i < leafStart || i >= leafStart + leaf.length) {
+                    int treeSize = size - tail.length;
+                    if (i >= treeSize) {
+                        leaf = tail;
+                        leafStart = treeSize;
+                    } else {
+                        int offset = i;
+                        Object[] node = root;
+                        for (int s = shift; s > 0; s -= BITS) {
+                            val sizes = (int[]) node[node.length - 1];
+                            int c = childIndex(sizes, offset, s);
+                            if (c > 0)
+                                offset -= sizes[c - 1];
+                            node = (Object[]) node[c];
+                        }
+                        leaf = node;
+                        leafStart = i - offset;
+                    }
+                }
+                return (T) leaf[i - leafStart];
+            }
+        }
+        return new ListIterator();
+    }
+
+    public boolean contains(T value) {
+        for (T e : this) {
+            if (Objects.equal(e, value))
+                return true;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public RrbVector<T> append(T e) {
+        Preconditions.checkNotNull(e, "value cannot be null");
+        if (tail.length < WIDTH) {
+            val newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = e;
+            return new RrbVector<T>(root, shift, newTail, size + 1);
+        }
+        return pushTail(new Object[] { e }, size + 1);
+    }
+
+    public RrbVector<T> prepend(T e) {
+        Preconditions.checkNotNull(e, "value cannot be null");
+        if (root == null && tail.length < WIDTH) {
+            val newTail = new Object[tail.length + 1];
+            newTail[0] = e;
+            System.arraycopy(tail, 0, newTail, 1, tail.length);
+            return new RrbVector<T>(null, 0, newTail, size + 1);
+        }
+        return of(e).concat(this);
+    }
+
+    public <O> RrbVector<O> map(Function<? super T, O> f) {
+        val newRoot = root == null ? null : map(root, shift, f);
+        return new RrbVector<O>(newRoot, shift, map(tail, 0, f), size);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        Preconditions.checkElementIndex(index, size);
+        int treeSize = size - tail.length;
+        if (index >= treeSize)
+            return (T) tail[index - treeSize];
+        Object[] node = root;
+        for (int s = shift; s > 0; s -= BITS) {
+            val sizes = (int[]) node[node.length - 1];
+            int c = childIndex(sizes, index, s);
+            if (c > 0)
+                index -= sizes[c - 1];
+            node = (Object[]) node[c];
+        }
+        return (T) node[index];
+    }
+
+    public RrbVector<T> set(int index, T e) {
+        Preconditions.checkElementIndex(index, size);
+        Preconditions.checkNotNull(e, "element cannot be null");
+        int treeSize = size - tail.length;
+        if (index >= treeSize) {
+            val newTail = tail.clone();
+            newTail[index - treeSize] = e;
+            return new RrbVector<T>(root, shift, newTail, size);
+        }
+        return new RrbVector<T>(set(root, shift, index, e), shift, tail, size);
+    }
+
+    public RrbVector<T> concat(RrbVector<T> other) {
+        if (other.isEmpty())
+            return this;
+        if (this.isEmpty())
+            return other;
+        if (other.root == null && tail.length + other.tail.length <= WIDTH) {
+            val newTail = Arrays.copyOf(tail, tail.length + other.tail.length);
+            System.arraycopy(other.tail, 0, newTail, tail.length, other.tail.length);
+            return new RrbVector<T>(root, shift, newTail, size + other.size);
+        }
+        val left = pushTail(EMPTY_LEAF, size);
+        if (other.root == null)
+            return new RrbVector<T>(left.root, left.shift, other.tail, size + other.size);
+
+        Object[] newRoot = concat(left.root, left.shift, other.root, other.shift);
+        int newShift = Math.max(left.shift, other.shift) + BITS;
+        if (newRoot.length == 2) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new RrbVector<T>(newRoot, newShift, other.tail, size + other.size);
+    }
+
+    @CheckForNull
+    public <U> U foldLeft(@Nullable U initial, Function2<U, T, U> f) {
+        U accum = initial;
+        for (T e : this)
+            accum = f.apply(accum, e);
+        return accum;
+    }
+
+    public RrbVector<T> reverse() {
+        val elements = new Object[size];
+        int i = size;
+        for (T e : this)
+            elements[--i] = e;
+        return build(elements, size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || !(obj.getClass() == this.getClass()))
+            return false;
+        RrbVector<?> other = (RrbVector<?>) obj;
+        return size == other.size && Iterators.elementsEqual(iterator(), other.iterator());
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hashCode;
+        if (h == 0) {
+            h = 1;
+            for (T e : this)
+                h = 31 * h + e.hashCode();
+            hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return Iterables.toString(this);
+    }
+
+    /**
+     * Serializes this vector as its size and elements instead of the internal structure.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm<T>(this);
+    }
+
+    private static final class SerializedForm<T> implements Serializable {
+        private static final long serialVersionUID = 8212473369084531260L;
+
+        private transient RrbVector<T> vector;
+
+        SerializedForm(RrbVector<T> vector) {
+            this.vector = vector;
+        }
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(vector.size());
+            for (T e : vector)
+                out.writeObject(e);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            int size = in.readInt();
+            if (size < 0)
+                throw new InvalidObjectException("Invalid serialized vector size");
+            val elements = new Object[size];
+            for (int i = 0; i < size; i++) {
+                elements[i] = in.readObject();
+                if (elements[i] == null)
+                    throw new InvalidObjectException("element cannot be null");
+            }
+            vector = RrbVector.<T> build(elements, size);
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return vector;
+        }
+    }
+
+    /**
+     * Returns a vector that contains the current tail in the tree, and uses the given tail.
+     */
+    private RrbVector<T> pushTail(Object[] newTail, int newSize) {
+        if (root == null)
+            return new RrbVector<T>(tail, 0, newTail, newSize);
+        val newRoot = pushLeaf(root, shift, tail);
+        if (newRoot != null)
+            return new RrbVector<T>(newRoot, shift, newTail, newSize);
+        val children = new Object[] { root, path(tail, shift) };
+        return new RrbVector<T>(node(children, 0, 2, shift + BITS), shift + BITS, newTail, newSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> RrbVector<T> build(Object[] elements, int size) {
+        if (size == 0)
+            return new RrbVector<T>(null, 0, EMPTY_LEAF, 0);
+        int treeSize = (size - 1) >>> BITS << BITS;
+        val tail = Arrays.copyOfRange(elements, treeSize, size);
+        if (treeSize == 0)
+            return new RrbVector<T>(null, 0, tail, size);
+
+        Object[] level = new Object[treeSize >>> BITS];
+        for (int i = 0; i < level.length; i++)
+            level[i] = Arrays.copyOfRange(elements, i << BITS, (i + 1) << BITS);
+        int shift = 0;
+        while (level.length > 1) {
+            shift += BITS;
+            val parents = new Object[(level.length + WIDTH - 1) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                int from = i << BITS;
+                parents[i] = node(level, from, Math.min(from + WIDTH, level.length), shift);
+            }
+            level = parents;
+        }
+        return new RrbVector<T>((Object[]) level[0], shift, tail, size);
+    }
+
+    /**
+     * Returns the index of the child that contains the given index. Every child contains at most 1 << shift elements,
+     * so the radix index is a lower bound for the child index.
+     */
+    private static int childIndex(int[] sizes, int index, int shift) {
+        int c = index >>> shift;
+        while (sizes[c] <= index)
+            c++;
+        return c;
+    }
+
+    private static Object[] node(Object[] children, int from, int to, int shift) {
+        int count = to - from;
+        val node = new Object[count + 1];
+        val sizes = new int[count];
+        int total = 0;
+        for (int i = 0; i < count; i++) {
+            val child = (Object[]) children[from + i];
+            node[i] = child;
+            total += sizeOf(child, shift - BITS);
+            sizes[i] = total;
+        }
+        node[count] = sizes;
+        return node;
+    }
+
+    private static int sizeOf(Object[] node, int shift) {
+        if (shift == 0)
+            return node.length;
+        return ((int[]) node[node.length - 1])[node.length - 2];
+    }
+
+    private static int slotCount(Object[] node, int shift) {
+        return shift == 0 ? node.length : node.length - 1;
+    }
+
+    private static Object[] lastChild(Object[] node) {
+        return (Object[]) node[node.length - 2];
+    }
+
+    /**
+     * Returns a chain of single-child nodes from the given shift down to the leaf.
+     */
+    private static Object[] path(Object[] leaf, int shift) {
+        Object[] node = leaf;
+        for (int s = BITS; s <= shift; s += BITS)
+            node = new Object[] { node, new int[] { leaf.length } };
+        return node;
+    }
+
+    /**
+     * Adds a leaf after the last leaf below the given node, or returns null if the node is full.
+     */
+    @CheckForNull
+    private static Object[] pushLeaf(Object[] node, int shift, Object[] leaf) {
+        if (shift == 0)
+            return null;
+        int count = node.length - 1;
+        val sizes = (int[]) node[count];
+        if (shift > BITS) {
+            val child = pushLeaf(lastChild(node), shift - BITS, leaf);
+            if (child != null) {
+                val copy = node.clone();
+                val newSizes = sizes.clone();
+                copy[count - 1] = child;
+                newSizes[count - 1] += leaf.length;
+                copy[count] = newSizes;
+                return copy;
+            }
+        }
+        if (count == WIDTH)
+            return null;
+        val copy = Arrays.copyOf(node, count + 2);
+        val newSizes = Arrays.copyOf(sizes, count + 1);
+        copy[count] = path(leaf, shift - BITS);
+        newSizes[count] = sizes[count - 1] + leaf.length;
+        copy[count + 1] = newSizes;
+        return copy;
+    }
+
+    private static Object[] set(Object[] node, int shift, int index, Object e) {
+        val copy = node.clone();
+        if (shift == 0) {
+            copy[index] = e;
+            return copy;
+        }
+        val sizes = (int[]) node[node.length - 1];
+        int c = childIndex(sizes, index, shift);
+        copy[c] = set((Object[]) node[c], shift - BITS, c > 0 ? index - sizes[c - 1] : index, e);
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, O> Object[] map(Object[] node, int shift, Function<? super T, O> f) {
+        if (shift == 0) {
+            val result = new Object[node.length];
+            for (int i = 0; i < node.length; i++)
+                result[i] = f.apply((T) node[i]);
+            return result;
+        }
+        val result = node.clone();
+        for (int i = 0; i < node.length - 1; i++)
+            result[i] = map((Object[]) node[i], shift - BITS, f);
+        return result;
+    }
+
+    /**
+     * Concatenates two trees, and returns a node one level above the taller tree that contains one or two children.
+     */
+    private static Object[] concat(Object[] left, int leftShift, Object[] right, int rightShift) {
+        if (leftShift > rightShift) {
+            val centre = concat(lastChild(left), leftShift - BITS, right, rightShift);
+            return rebalance(left, centre, null, leftShift);
+        }
+        if (leftShift < rightShift) {
+            val centre = concat(left, leftShift, (Object[]) right[0], rightShift - BITS);
+            return rebalance(null, centre, right, rightShift);
+        }
+        if (leftShift == 0) {
+            if (left.length + right.length <= WIDTH) {
+                val leaf = Arrays.copyOf(left, left.length + right.length);
+                System.arraycopy(right, 0, leaf, left.length, right.length);
+                return node(new Object[] { leaf }, 0, 1, BITS);
+            }
+            return node(new Object[] { left, right }, 0, 2, BITS);
+        }
+        val centre = concat(lastChild(left), leftShift - BITS, (Object[]) right[0], rightShift - BITS);
+        return rebalance(left, centre, right, leftShift);
+    }
+
+    /**
+     * Merges the children of the given nodes (excluding the children that were replaced by the centre node), and
+     * redistributes their slots so that the level has at most {@link #EXTRAS} more nodes than necessary. Returns a
+     * node one level above the given nodes that contains one or two children.
+     */
+    private static Object[] rebalance(@Nullable Object[] left, Object[] centre, @Nullable Object[] right, int shift) {
+        int leftCount = left == null ? 0 : left.length - 2;
+        int centreCount = centre.length - 1;
+        int rightCount = right == null ? 0 : right.length - 2;
+        val all = new Object[leftCount + centreCount + rightCount];
+        if (left != null)
+            System.arraycopy(left, 0, all, 0, leftCount);
+        System.arraycopy(centre, 0, all, leftCount, centreCount);
+        if (right != null)
+            System.arraycopy(right, 1, all, leftCount + centreCount, rightCount);
+
+        val merged = redistribute(all, shift - BITS);
+        if (merged.length <= WIDTH)
+            return node(new Object[] { node(merged, 0, merged.length, shift) }, 0, 1, shift + BITS);
+        val children = new Object[] { node(merged, 0, WIDTH, shift), node(merged, WIDTH, merged.length, shift) };
+        return node(children, 0, 2, shift + BITS);
+    }
+
+    private static Object[] redistribute(Object[] nodes, int shift) {
+        val plan = new int[nodes.length];
+        int total = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            plan[i] = slotCount((Object[]) nodes[i], shift);
+            total += plan[i];
+        }
+        int optimal = (total + WIDTH - 1) >>> BITS;
+        int count = nodes.length;
+        int i = 0;
+        while (optimal + EXTRAS < count) {
+            while (plan[i] > WIDTH - EXTRAS / 2)
+                i++;
+            int remaining = plan[i];
+            do {
+                int newSize = Math.min(remaining + plan[i + 1], WIDTH);
+                remaining = remaining + plan[i + 1] - newSize;
+                plan[i] = newSize;
+                i++;
+            } while (remaining > 0);
+            System.arraycopy(plan, i + 1, plan, i, count - i - 1);
+            count--;
+            i--;
+        }
+
+        val result = new Object[count];
+        int source = 0;
+        int offset = 0;
+        for (int n = 0; n < count; n++) {
+            int size = plan[n];
+            val first = (Object[]) nodes[source];
+            if (offset == 0 && slotCount(first, shift) == size) {
+                result[n] = first;
+                source++;
+                continue;
+            }
+            val slots = new Object[size];
+            int filled = 0;
+            while (filled < size) {
+                val node = (Object[]) nodes[source];
+                int available = slotCount(node, shift) - offset;
+                int copied = Math.min(size - filled, available);
+                System.arraycopy(node, offset, slots, filled, copied);
+                filled += copied;
+                offset += copied;
+                if (copied == available) {
+                    source++;
+                    offset = 0;
+                }
+            }
+            result[n] = shift == 0 ? slots : node(slots, 0, size, shift);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,168 @@
+package fi.gekkio.drumfish.data;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+import com.google.common.base.Function;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import fi.gekkio.drumfish.lang.Monoid;
+
+/**
+ * foldMap implementation shared by {@link FingerTree} and {@link IntFingerTree}.
+ * <p>
+ * The tree is cut along its natural structure into pieces: the digit items along the spine, and nodes that are small
+ * enough to be folded by a single task. In parallel mode consecutive pieces are grouped into tasks, the tasks are run
+ * with the executor, and the results are combined in order with the monoid. Tasks never wait for each other, so any
+ * executor works, including fixed-size thread pools.
+ */
+final class TreeFolds {
+
+    /**
+     * Nodes above this level are split into their children before folding.
+     */
+    static final int PIECE_LEVEL = 10;
+
+    private TreeFolds() {
+    }
+
+    /**
+     * Folds the given tree. If executor is null, or the tree is estimated to be smaller than
+     * {@link FingerTreeFactory#PARALLEL_THRESHOLD} elements, the tree is folded in the calling thread.
+     * 
+     * @param leafWeight
+     *            estimated number of elements in one tree element (e.g. the chunk size of a chunked sequence)
+     */
+    static <M> M foldMap(@Nullable ExecutorService executor, Object tree, int leafWeight, Monoid<M> monoid, Function<Object, M> f) {
+        val items = Lists.newArrayList();
+        val levels = Lists.<Integer> newArrayList();
+        collectTree(tree, 0, items, levels);
+
+        long weight = 0;
+        for (int level : levels)
+            weight += weight(level, leafWeight);
+
+        if (executor == null || weight < FingerTreeFactory.PARALLEL_THRESHOLD)
+            return new FoldTask<M>(items, levels, 0, items.size(), monoid, f).call();
+
+        val tasks = Lists.<Callable<M>> newArrayList();
+        long taskWeight = 0;
+        int start = 0;
+        for (int i = 0; i < items.size(); i++) {
+            taskWeight += weight(levels.get(i), leafWeight);
+            if (taskWeight >= FingerTreeFactory.PARALLEL_THRESHOLD / 4 || i == items.size() - 1) {
+                tasks.add(new FoldTask<M>(items, levels, start, i + 1, monoid, f));
+                taskWeight = 0;
+                start = i + 1;
+            }
+        }
+        try {
+            M result = monoid.mempty();
+            List<Future<M>> futures = executor.invokeAll(tasks);
+            for (Future<M> future : futures) {
+                result = monoid.mappend(result, future.get());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Estimates the number of elements in a node of the given level. A node at level n contains between 2^n and 3^n
+     * tree elements.
+     */
+    private static long weight(int level, int leafWeight) {
+        return (long) leafWeight << (level * 3 / 2);
+    }
+
+    private static void collectTree(Object tree, int level, List<Object> items, List<Integer> levels) {
+        if (tree instanceof FingerTree) {
+            val root = ((FingerTree<?, ?>) tree).unwrap();
+            if (root instanceof FingerTree.Single) {
+                collectItem(((FingerTree.Single<?, ?>) root).a, level, items, levels);
+            } else if (root instanceof FingerTree.Deep) {
+                val deep = (FingerTree.Deep<?, ?>) root;
+                for (int i = 0; i < deep.left.size(); i++)
+                    collectItem(deep.left.get(i), level, items, levels);
+                collectTree(deep.middle, level + 1, items, levels);
+                for (int i = 0; i < deep.right.size(); i++)
+                    collectItem(deep.right.get(i), level, items, levels);
+            }
+        } else {
+            val root = (IntFingerTree<?>) tree;
+            if (root instanceof IntFingerTree.Single) {
+                collectItem(((IntFingerTree.Single<?>) root).a, level, items, levels);
+            } else if (root instanceof IntFingerTree.Deep) {
+                val deep = (IntFingerTree.Deep<?>) root;
+                for (int i = 0; i < deep.left.size(); i++)
+                    collectItem(deep.left.get(i), level, items, levels);
+                collectTree(deep.middle, level + 1, items, levels);
+                for (int i = 0; i < deep.right.size(); i++)
+                    collectItem(deep.right.get(i), level, items, levels);
+            }
+        }
+    }
+
+    private static void collectItem(Object item, int level, List<Object> items, List<Integer> levels) {
+        if (level <= PIECE_LEVEL) {
+            items.add(item);
+            levels.add(level);
+            return;
+        }
+        for (int i = 0; i < nodeSize(item); i++)
+            collectItem(nodeChild(item, i), level - 1, items, levels);
+    }
+
+    private static int nodeSize(Object node) {
+        if (node instanceof FingerTreeNode)
+            return ((FingerTreeNode<?, ?>) node).size();
+        return ((IntFingerTreeNode<?>) node).size();
+    }
+
+    private static Object nodeChild(Object node, int index) {
+        if (node instanceof FingerTreeNode)
+            return ((FingerTreeNode<?, ?>) node).get(index);
+        return ((IntFingerTreeNode<?>) node).get(index);
+    }
+
+    private static <M> M fold(Object item, int level, Monoid<M> monoid, Function<Object, M> f) {
+        if (level == 0)
+            return f.apply(item);
+        M result = fold(nodeChild(item, 0), level - 1, monoid, f);
+        for (int i = 1; i < nodeSize(item); i++)
+            result = monoid.mappend(result, fold(nodeChild(item, i), level - 1, monoid, f));
+        return result;
+    }
+
+    @RequiredArgsConstructor
+    private static final class FoldTask<M> implements Callable<M> {
+        private final List<Object> items;
+        private final List<Integer> levels;
+        private final int from;
+        private final int to;
+        private final Monoid<M> monoid;
+        private final Function<Object, M> f;
+
+        @Override
+        public M call() {
+            M result = monoid.mempty();
+            for (int i = from; i < to; i++)
+                result = monoid.mappend(result, fold(items.get(i), levels.get(i), monoid, f));
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import java.nio.ByteBuffer
+import java.nio.channels.GatheringByteChannel
+import java.io.ByteArrayOutputStream
+
+@RunWith(classOf[JUnitRunner])
+class ByteRopeSpec extends Specification with ScalaCheck {
+
+  /**
+   * Gathering channel that accepts at most the given number of bytes per write.
+   */
+  class LimitedChannel(limit: Int) extends GatheringByteChannel {
+    val out = new ByteArrayOutputStream
+    var writes = 0
+
+    def write(srcs: Array[ByteBuffer], offset: Int, length: Int): Long = {
+      writes += 1
+      var written = 0
+      for (i <- offset until offset + length) {
+        val src = srcs(i)
+        while (src.hasRemaining && written < limit) {
+          out.write(src.get())
+          written += 1
+        }
+      }
+      written
+    }
+    def write(srcs: Array[ByteBuffer]): Long = write(srcs, 0, srcs.length)
+    def write(src: ByteBuffer): Int = write(Array(src)).toInt
+    def isOpen = true
+    def close() {}
+  }
+
+  def ropeOf(fragments: List[Array[Byte]]) = fragments.foldLeft(ByteRope.empty()) { (r, f) => r.append(ByteBuffer.wrap(f)) }
+
+  def clamp(x: Int, size: Int) = (x & 0xffff) % (size + 1)
+
+  def is =
+    "ByteRope specification" ^
+      "appending buffers must result in the concatenated bytes" ! check { fragments: List[Array[Byte]] =>
+        val rope = ropeOf(fragments)
+        val expected = fragments.flatten
+
+        rope.length() must be_==(expected.size.toLong)
+        rope.toByteArray.toList must be_==(expected)
+        ByteRope.of(fragments.map(ByteBuffer.wrap): _*).toByteArray.toList must be_==(expected)
+      } ^
+      "get must return the same bytes as an array" ! check { fragments: List[Array[Byte]] =>
+        val rope = ropeOf(fragments)
+        val expected = fragments.flatten.toArray
+        (0 until expected.length).forall(i => rope.get(i) == expected(i)) must beTrue
+        rope.get(expected.length) must throwA[IndexOutOfBoundsException]
+      } ^
+      "slice must return the same bytes as an array slice" ! check { (fragments: List[Array[Byte]], a: Int, b: Int) =>
+        val rope = ropeOf(fragments)
+        val expected = fragments.flatten
+        val (x, y) = (clamp(a, expected.size), clamp(b, expected.size))
+        val (from, to) = (x min y, x max y)
+
+        rope.slice(from, to).toByteArray.toList must be_==(expected.slice(from, to))
+        rope.take(from).concat(rope.drop(from)).toByteArray.toList must be_==(expected)
+      } ^
+      "building a rope must not modify or copy the source buffers" ! check { bytes: Array[Byte] =>
+        val buffer = ByteBuffer.wrap(bytes)
+        val rope = ByteRope.of(buffer)
+        buffer.position() must be_==(0)
+        if (bytes.length > 0) {
+          bytes(0) = (bytes(0) + 1).toByte
+          rope.get(0) must be_==(bytes(0))
+        }
+        rope.toByteBuffers.forall(_.isReadOnly) must beTrue
+      } ^
+      "writeTo must write all bytes with gathering writes" ! check { fragments: List[Array[Byte]] =>
+        val rope = ropeOf(fragments)
+        val channel = new LimitedChannel(Int.MaxValue)
+
+        rope.writeTo(channel).isEmpty() must beTrue
+        channel.out.toByteArray.toList must be_==(fragments.flatten)
+        channel.writes must be_<=((fragments.count(_.length > 0) + ByteRope.WRITE_BATCH_SIZE - 1) / ByteRope.WRITE_BATCH_SIZE)
+        rope.toByteArray.toList must be_==(fragments.flatten)
+      } ^
+      "writeTo must return the unwritten bytes when the channel stops accepting bytes" ! check { (fragments: List[Array[Byte]], n: Int) =>
+        val rope = ropeOf(fragments)
+        val limit = n & 0xff
+        val channel = new LimitedChannel(limit) {
+          override def write(srcs: Array[ByteBuffer], offset: Int, length: Int): Long =
+            if (writes > 0) 0 else super.write(srcs, offset, length)
+        }
+        val remaining = rope.writeTo(channel)
+
+        (channel.out.toByteArray.toList ++ remaining.toByteArray.toList) must be_==(fragments.flatten)
+      }
+
+}
@@ -0,0 +1,104 @@
+package fi.gekkio.drumfish.data
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Compares the throughput of draining a tree or a sequence from the front, which is the typical queue workload.
+ */
+object DequeCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[DequeCaliper], args)
+}
+
+class DequeCaliper extends Benchmark {
+
+  @Param(Array("10", "1000", "100000"))
+  private[this] var elementCount: Int = _
+
+  private[this] var tree: FingerTree[Int, Int] = _
+  private[this] var seq: IndexedSeq[Int] = _
+
+  override def setUp() {
+    tree = (0 until elementCount).foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+    seq = IndexedSeq.of((0 until elementCount): _*)
+  }
+
+  def timeFingerTreeViewL(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      var t = tree
+      while (!t.isEmpty) {
+        val view = t.viewL()
+        result = result ^ view.getLeft()
+        t = view.getRight()
+      }
+      rep += 1
+    }
+    result
+  }
+
+  def timeFingerTreePopHead(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      var t = tree
+      while (!t.isEmpty) {
+        val view = t.popHead()
+        result = result ^ view.getLeft()
+        t = view.getRight()
+      }
+      rep += 1
+    }
+    result
+  }
+
+  def timeFingerTreeTail(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      var t = tree
+      while (!t.isEmpty) {
+        result = result ^ t.getHeadUnsafe()
+        t = t.tail()
+      }
+      rep += 1
+    }
+    result
+  }
+
+  def timeFingerTreeInit(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      var t = tree
+      while (!t.isEmpty) {
+        result = result ^ t.getLastUnsafe()
+        t = t.init()
+      }
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqRemoveFirst(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      var s = seq
+      while (!s.isEmpty) {
+        result = result ^ s.peekFirst().getValue()
+        s = s.removeFirst()
+      }
+      rep += 1
+    }
+    result
+  }
+
+}
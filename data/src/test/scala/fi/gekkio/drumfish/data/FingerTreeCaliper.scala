@@ -6,6 +6,8 @@ import com.google.caliper.runner.CaliperMain
 import com.google.common.collect.ImmutableList
 import com.google.common.collect.Iterables
 
+import fi.gekkio.drumfish.lang.Effect
+
 object FingerTreeCaliper {
   def main(args: Array[String]) = CaliperMain.main(classOf[FingerTreeCaliper], args)
 }
@@ -30,6 +32,20 @@ class FingerTreeCaliper extends Benchmark {
     result
   }
 
+  def timeFingerTreeBulkBuild(reps: Int) = {
+    var rep = 0
+
+    val elements = (0 until elementCount).toList
+
+    var result = false
+    while (rep < reps) {
+      val tree = indexSeqTreeFactory[Int].tree(elements: _*)
+      result = result ^ tree.isEmpty
+      rep += 1
+    }
+    result
+  }
+
   def timeImmutableListAppend(reps: Int) = {
     var rep = 0
 
@@ -94,6 +110,22 @@ class FingerTreeCaliper extends Benchmark {
     result
   }
 
+  def timeIndexedSeqListIterator(reps: Int) = {
+    var rep = 0
+
+    val seq = IndexedSeq.of((0 until elementCount).toList: _*)
+
+    var result = 0
+    while (rep < reps) {
+      val it = seq.listIterator()
+      while (it.hasNext) {
+        result = result ^ it.next()
+      }
+      rep += 1
+    }
+    result
+  }
+
   def timeElementsEqual(reps: Int) = {
     var rep = 0
 
@@ -120,4 +152,82 @@ class FingerTreeCaliper extends Benchmark {
     result
   }
 
-}
\ No newline at end of file
+  def timeFingerTreeIterator(reps: Int) = {
+    var rep = 0
+
+    val tree = (0 until elementCount).foldLeft(initialTree) { (t, e) => t.append(e) }
+
+    var result = 0
+    while (rep < reps) {
+      val it = tree.iterator()
+      while (it.hasNext())
+        result = result ^ it.next()
+      rep += 1
+    }
+    result
+  }
+
+  def timeFingerTreeForEach(reps: Int) = {
+    var rep = 0
+
+    val tree = (0 until elementCount).foldLeft(initialTree) { (t, e) => t.append(e) }
+    val effect = new XorEffect
+
+    while (rep < reps) {
+      tree.forEach(effect)
+      rep += 1
+    }
+    effect.result
+  }
+
+  def timeIndexedSeqIterator(reps: Int) = {
+    var rep = 0
+
+    val seq = IndexedSeq.of((0 until elementCount).toList: _*)
+
+    var result = 0
+    while (rep < reps) {
+      val it = seq.iterator()
+      while (it.hasNext())
+        result = result ^ it.next()
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqForEach(reps: Int) = {
+    var rep = 0
+
+    val seq = IndexedSeq.of((0 until elementCount).toList: _*)
+    val effect = new XorEffect
+
+    while (rep < reps) {
+      seq.forEach(effect)
+      rep += 1
+    }
+    effect.result
+  }
+
+  def timeElementsEqualDistinctTrees(reps: Int) = {
+    var rep = 0
+
+    val appended = (0 until elementCount).foldLeft(initialTree) { (t, e) => t.append(e) }
+    val prepended = (0 until elementCount).reverse.foldLeft(initialTree) { (t, e) => t.prepend(e) }
+
+    var result = false
+    while (rep < reps) {
+      result = result ^ appended.elementsEqual(prepended)
+      rep += 1
+    }
+    result
+  }
+
+}
+
+class XorEffect extends Effect[Int] {
+  var result = 0
+
+  def apply(input: Int) {
+    result = result ^ input
+  }
+}
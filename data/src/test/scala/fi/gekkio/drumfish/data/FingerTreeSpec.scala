@@ -1,5 +1,10 @@
 package fi.gekkio.drumfish.data
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+import scala.collection.JavaConverters.asScalaBufferConverter
+import scala.collection.JavaConverters.asScalaIteratorConverter
 import scala.collection.JavaConverters.iterableAsScalaIterableConverter
 import scala.collection.JavaConverters.seqAsJavaListConverter
 
@@ -7,10 +12,14 @@ import org.junit.runner.RunWith
 import org.scalacheck.Arbitrary
 import org.scalacheck.Gen
 import org.scalacheck.Gen.value
+import org.scalacheck.Prop
 import org.specs2.ScalaCheck
 import org.specs2.Specification
 import org.specs2.runner.JUnitRunner
 
+import fi.gekkio.drumfish.lang.Effect
+import fi.gekkio.drumfish.lang.ToIntFunction
+
 @RunWith(classOf[JUnitRunner])
 class FingerTreeSpec extends Specification with ScalaCheck {
 
@@ -84,6 +93,255 @@ class FingerTreeSpec extends Specification with ScalaCheck {
       } ^
       "reverse must work correctly" ! check { tree: FingerTree[Int, Int] => tree.reverse().asScala must containAllOf(tree.asScala.toList.reverse).inOrder } ^
       "a double reverse must be equal to original" ! check { tree: FingerTree[Int, Int] => tree.reverse().reverse() must be_==(tree) } ^
-      "fold left must work correctly" ! check { tree: FingerTree[Int, Int] => tree.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(tree.asScala.foldLeft(0) { _ + _ }) }
+      "fold left must work correctly" ! check { tree: FingerTree[Int, Int] => tree.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(tree.asScala.foldLeft(0) { _ + _ }) } ^
+      "bulk construction must result in a tree with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val tree = indexSeqTreeFactory[Int].tree(elements: _*)
+
+        tree.measure() must be_==(elements.size)
+        tree.asScala.toList must be_==(elements)
+        tree.reverseIterator().asScala.toList must be_==(elements.reverse)
+      } ^
+      "bulk constructed trees must support splitting at any index" ! check { elements: List[Int] =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+
+        elements.indices.forall { i =>
+          val split = tree.split(guavaPredicate((m: Int) => m > i), 0)
+          split.pivot == elements(i) && split.left.measure() == i && split.right.measure() == elements.size - i - 1
+        } must beTrue
+      } ^
+      "bulk constructed trees must support append, prepend and concat" ! check { elements: (List[Int], List[Int]) =>
+        val left = indexSeqTreeFactory[Int].tree(elements._1.asJava)
+        val right = indexSeqTreeFactory[Int].tree(elements._2.asJava)
+
+        left.concat(right).append(1).prepend(2).asScala.toList must be_==(2 :: elements._1 ++ elements._2 ++ List(1))
+      } ^
+      "cursor must walk all elements in both directions" ! check { elements: List[Int] =>
+        val tree = elements.foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+        val cursor = tree.cursor()
+
+        val forward = Iterator.continually(cursor).takeWhile(_.hasNext).map(_.next()).toList
+        val backward = Iterator.continually(cursor).takeWhile(_.hasPrevious).map(_.previous()).toList
+
+        forward must be_==(elements)
+        backward must be_==(elements.reverse)
+      } ^
+      "cursor positioned with a predicate must start before the correct element" ! check { elements: List[Int] =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+
+        (0 to elements.size).forall { i =>
+          val forward = tree.cursor(guavaPredicate((m: Int) => m > i))
+          val backward = tree.cursor(guavaPredicate((m: Int) => m > i))
+
+          val nextOk = if (i < elements.size) forward.hasNext && forward.next() == elements(i) else !forward.hasNext
+          val previousOk = if (i > 0) backward.hasPrevious && backward.previous() == elements(i - 1) else !backward.hasPrevious
+          nextOk && previousOk
+        } must beTrue
+      } ^
+      "cursor must stay consistent when changing directions" ! check { (elements: List[Int], moves: List[Boolean]) =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+        val cursor = tree.cursor()
+
+        var index = 0
+        moves.forall { forward =>
+          if (forward && index < elements.size) {
+            index += 1
+            cursor.next() == elements(index - 1)
+          } else if (!forward && index > 0) {
+            index -= 1
+            cursor.previous() == elements(index)
+          } else {
+            cursor.hasNext == (index < elements.size) && cursor.hasPrevious == (index > 0)
+          }
+        } must beTrue
+      } ^
+      "parallel bulk construction must result in the same tree as sequential bulk construction" ! {
+        val elements = (0 until 200000).map(Int.box).toArray
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+          val factory = FingerTreeFactory.create(monoid, (x: Integer) => 1)
+          val parallel = factory.parallelTree(executor, elements)
+
+          parallel.measure() must be_==(elements.size)
+          parallel.printToString() must be_==(factory.tree(elements: _*).printToString())
+        } finally {
+          executor.shutdown()
+        }
+      } ^
+      "foldMap must combine all elements in order" ! check { elements: List[Int] =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+
+        tree.foldMap(hashMonoid, (x: Int) => hashOf(x)) must be_==(elements.map(hashOf).foldLeft(hashMonoid.mempty)(hashMonoid.mappend))
+      } ^
+      "parallel foldMap must give the same result as sequential foldMap" ! {
+        val elements = (0 until 200000).toList
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+          val appended = elements.foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+          val built = indexSeqTreeFactory[Int].tree(elements.asJava)
+          val expected = elements.map(hashOf).foldLeft(hashMonoid.mempty)(hashMonoid.mappend)
+
+          appended.parallelFoldMap(executor, hashMonoid, (x: Int) => hashOf(x)) must be_==(expected)
+          built.parallelFoldMap(executor, hashMonoid, (x: Int) => hashOf(x)) must be_==(expected)
+        } finally {
+          executor.shutdown()
+        }
+      } ^
+      "serialization must preserve the elements and write little more than the elements" ! check { elements: List[Int] =>
+        val appended = elements.foldLeft(serializableTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+        val lazyTree = if (appended.isEmpty()) appended else appended.viewL().getRight()
+        val (copy, bytes) = roundTrip(appended)
+        val (lazyCopy, _) = roundTrip(lazyTree)
+
+        copy.asScala.toList must be_==(elements)
+        copy.measure() must be_==(elements.size)
+        lazyCopy.asScala.toList must be_==(lazyTree.asScala.toList)
+        bytes must be_<=(serializedSize(new java.util.ArrayList(elements.asJava)) + 1024)
+      } ^
+      dequeExamples
+
+  def dequeExamples =
+    "tail and popHead must remove elements from the front in order" ! check { ops: List[Operation] =>
+        val tree = ops.foldLeft(indexSeqTreeFactory[Int].tree()) { (tree, op) => op.execute(tree) }
+        val elements = tree.asScala.toList
+
+        val popped = Iterator.iterate(tree)(_.popHead().getRight()).take(elements.size + 1).toList
+        popped.map(_.measure()) must be_==((elements.size to 0 by -1).toList)
+        popped.init.map(_.popHead().getLeft()) must be_==(elements)
+        popped.last.popHead().isEmpty() must beTrue
+        Iterator.iterate(tree)(_.tail()).take(elements.size + 1).map(_.asScala.toList).toList must be_==(elements.tails.toList)
+      } ^
+      "init and popLast must remove elements from the back in order" ! check { ops: List[Operation] =>
+        val tree = ops.foldLeft(indexSeqTreeFactory[Int].tree()) { (tree, op) => op.execute(tree) }
+        val elements = tree.asScala.toList
+
+        val popped = Iterator.iterate(tree)(_.popLast().getLeft()).take(elements.size + 1).toList
+        popped.map(_.measure()) must be_==((elements.size to 0 by -1).toList)
+        popped.init.map(_.popLast().getRight()) must be_==(elements.reverse)
+        popped.last.popLast().isEmpty() must beTrue
+        Iterator.iterate(tree)(_.init()).take(elements.size + 1).map(_.asScala.toList).toList must be_==(elements.inits.toList)
+      } ^
+      "lazy views must return the correct head and last elements" ! check { elements: List[Int] =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+        (elements.size >= 2) ==> {
+          tree.viewL().getRight().getLastUnsafe() must be_==(elements.last)
+          tree.viewL().getRight().getHeadUnsafe() must be_==(elements(1))
+          tree.viewR().getLeft().getLastUnsafe() must be_==(elements(elements.size - 2))
+          tree.viewR().getLeft().getHeadUnsafe() must be_==(elements.head)
+        }
+      } ^
+      "lazy views unwrapped concurrently must give the same elements in every thread" ! {
+        val elements = (0 until 10000).toList
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+          val lazyTrees = (1 to 50).map { _ => tree.viewL().getRight().viewR().getLeft() }
+          val tasks = lazyTrees.flatMap { t =>
+            (1 to 8).map { _ => new Callable[List[Int]] { def call() = t.asScala.toList } }
+          }
+          val results = executor.invokeAll(tasks.asJava).asScala.map(_.get())
+
+          results.forall(_ == elements.tail.init) must beTrue
+        } finally {
+          executor.shutdown()
+        }
+      } ^
+      "forEach and both iterators must visit the elements of any tree in order" ! check { ops: List[Operation] =>
+        val tree = ops.foldLeft(indexSeqTreeFactory[Int].tree()) { (tree, op) => op.execute(tree) }
+        val lazyTree = if (tree.isEmpty()) tree else tree.viewR().getLeft()
+        val expected = tree.foldLeft(List[Int](), (l: List[Int], e: Int) => e :: l).reverse
+
+        tree.asScala.toList must be_==(expected)
+        tree.reverseIterator().asScala.toList must be_==(expected.reverse)
+        collect(tree) must be_==(expected)
+        collect(lazyTree) must be_==(expected.dropRight(1))
+      } ^
+      diffExamples
+
+  def diffExamples =
+    "diff must describe how to turn a tree into a modified version of it" ! check { (elements: List[Int], changes: List[(Int, Int)]) =>
+        val tree = indexSeqTreeFactory[Int].tree(elements.asJava)
+        val modified = changes.foldLeft(tree) {
+          case (t, (i, v)) =>
+            val split = t.split((_: Int) > math.abs(i % (t.measure() + 1)))
+            math.abs(v % 3) match {
+              case 0 => split.a.append(v).concat(split.b)
+              case 1 if !split.b.isEmpty() => split.a.concat(split.b.tail())
+              case _ if !split.b.isEmpty() => split.a.append(v).concat(split.b.tail())
+              case _ => t
+            }
+        }
+        val edits = tree.diff(modified, size).asScala
+
+        applyEdits(elements, modified.asScala.toList, edits) must beSome(modified.asScala.toList)
+        tree.elementsEqual(modified) must be_==(edits.isEmpty)
+        tree.diff(tree, size).isEmpty() must beTrue
+      } ^
+      "diff must find a single replaced element exactly" ! Prop.forAll(Gen.choose(1, 2000), Arbitrary.arbitrary[Int]) { (n: Int, i: Int) =>
+        val index = math.abs(i % n)
+        val tree = (0 until n).foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+        val split = tree.split((_: Int) > index)
+        val modified = split.a.append(-1).concat(split.b.tail())
+
+        tree.diff(modified, size).asScala.toList must be_==(List(new Edit(index, index + 1, index, index + 1)))
+      } ^
+      rangeExamples
+
+  def rangeExamples =
+    "prefixMeasure must be equal to the measure of takeUntil" ! Prop.forAll(Gen.choose(0, 2000), Arbitrary.arbitrary[Int]) { (n: Int, i: Int) =>
+        val tree = sizedHashTree(n)
+        val p = guavaPredicate((m: (Int, (Int, Int))) => m._1 > math.abs(i % (n + 1)))
+
+        tree.prefixMeasure(p) must be_==(tree.takeUntil(p).measure())
+      } ^
+      "measureRange must be equal to the measure of takeUntil and dropUntil" ! Prop.forAll(Gen.choose(0, 2000), Arbitrary.arbitrary[Int], Arbitrary.arbitrary[Int]) { (n: Int, i: Int, j: Int) =>
+        val tree = sizedHashTree(n)
+        val (x, y) = (math.abs(i % (n + 1)), math.abs(j % (n + 1)))
+        val from = guavaPredicate((m: (Int, (Int, Int))) => m._1 > (x min y))
+        val to = guavaPredicate((m: (Int, (Int, Int))) => m._1 > (x max y))
+
+        tree.measureRange(from, to) must be_==(tree.takeUntil(to).dropUntil(from).measure())
+        tree.measureRange(to, from) must be_==(sizedHashMonoid.mempty)
+      } ^
+      "measureRange must work on trees built from lazy views" ! check { (elements: List[Int], x: Int) =>
+        val prepended = elements.foldLeft(sizedHashTreeFactory.tree()) { (t, e) => t.prepend(e) }
+        val tree = if (prepended.isEmpty()) prepended else prepended.viewL().getRight()
+        val from = guavaPredicate((m: (Int, (Int, Int))) => m._1 > 1)
+        val to = guavaPredicate((m: (Int, (Int, Int))) => m._1 > math.abs(x % (elements.size + 1)))
+
+        tree.measureRange(from, to) must be_==(tree.takeUntil(to).dropUntil(from).measure())
+      } ^
+      "compact trees must give the same measures and splits as trees that store node measures" ! Prop.forAll(Gen.choose(0, 2000), Arbitrary.arbitrary[Int]) { (n: Int, i: Int) =>
+        val compactFactory = FingerTreeFactory.createCompact(sizedHashMonoid, (x: Int) => (1, hashOf(x)))
+        val tree = sizedHashTree(n)
+        val appended = (0 until n).foldLeft(compactFactory.tree()) { (t, e) => t.append(e) }
+        val built = compactFactory.tree((0 until n).toList.asJava)
+        val p = guavaPredicate((m: (Int, (Int, Int))) => m._1 > math.abs(i % (n + 1)))
+
+        appended.measure() must be_==(tree.measure())
+        built.measure() must be_==(tree.measure())
+        appended.prefixMeasure(p) must be_==(tree.prefixMeasure(p))
+        built.split(p).a.measure() must be_==(tree.split(p).a.measure())
+        appended.split(p).b.asScala.toList must be_==(tree.split(p).b.asScala.toList)
+      }
+
+  /**
+   * Measures elements by count and polynomial hash, so the measure of a range depends on its exact elements.
+   */
+  val sizedHashMonoid = new fi.gekkio.drumfish.lang.Monoid[(Int, (Int, Int))] {
+    def mempty = (0, hashMonoid.mempty)
+    def mappend(a: (Int, (Int, Int)), b: (Int, (Int, Int))) = (a._1 + b._1, hashMonoid.mappend(a._2, b._2))
+  }
+
+  val sizedHashTreeFactory = FingerTreeFactory.create(sizedHashMonoid, (x: Int) => (1, hashOf(x)))
+
+  def sizedHashTree(n: Int) = (0 until n).foldLeft(sizedHashTreeFactory.tree()) { (t, e) => t.append(e) }
+
+  val size = new ToIntFunction[Int] { def apply(x: Int) = x }
+
+  def collect(tree: FingerTree[Int, Int]): List[Int] = {
+    val buffer = scala.collection.mutable.ListBuffer[Int]()
+    tree.forEach(new Effect[Int] { def apply(input: Int) { buffer += input } })
+    buffer.toList
+  }
 
-}
\ No newline at end of file
+}
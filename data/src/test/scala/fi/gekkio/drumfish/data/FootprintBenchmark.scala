@@ -0,0 +1,57 @@
+package fi.gekkio.drumfish.data
+
+import scala.collection.JavaConverters.seqAsJavaListConverter
+
+/**
+ * Reports the retained heap per element of the data structures, excluding the elements themselves. All structures
+ * share the same element objects, so only the structural overhead is measured.
+ *
+ * The numbers are approximations based on heap usage after garbage collection, so run with a large enough fixed heap,
+ * for example "-Xms4g -Xmx4g".
+ */
+object FootprintBenchmark {
+
+  val elementCounts = Seq(1000, 10000, 100000, 1000000, 10000000)
+
+  /**
+   * Keeps the measured structure reachable while the heap is measured.
+   */
+  @volatile private var retained: AnyRef = _
+
+  def main(args: Array[String]) {
+    val elements = (0 until elementCounts.max).map(Int.box).toArray
+
+    val compactFactory = FingerTreeFactory.createCompact(monoid, (x: Integer) => 1)
+
+    println("%10s %12s %12s %12s %12s %12s".format("elements", "ArrayList", "FingerTree", "Compact", "IndexedSeq", "RrbVector"))
+    for (elementCount <- elementCounts) {
+      val slice = elements.slice(0, elementCount).toList.asJava
+
+      val list = bytesPerElement(elementCount) { new java.util.ArrayList(slice) }
+      val tree = bytesPerElement(elementCount) { indexSeqTreeFactory[Integer].tree(slice) }
+      val compact = bytesPerElement(elementCount) { compactFactory.tree(slice) }
+      val seq = bytesPerElement(elementCount) { IndexedSeq.of(slice) }
+      val vector = bytesPerElement(elementCount) { RrbVector.of(slice) }
+      println("%10d %12.2f %12.2f %12.2f %12.2f %12.2f".format(elementCount, list, tree, compact, seq, vector))
+    }
+  }
+
+  private def bytesPerElement(elementCount: Int)(build: => AnyRef): Double = {
+    val before = usedHeap()
+    retained = build
+    val after = usedHeap()
+    retained = null
+    (after - before).toDouble / elementCount
+  }
+
+  private def usedHeap(): Long = {
+    val runtime = Runtime.getRuntime
+    var used = Long.MaxValue
+    for (i <- 0 until 5) {
+      System.gc()
+      used = math.min(used, runtime.totalMemory - runtime.freeMemory)
+    }
+    used
+  }
+
+}
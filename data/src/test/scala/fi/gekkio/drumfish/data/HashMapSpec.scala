@@ -0,0 +1,114 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import scala.collection.JavaConverters._
+import org.scalacheck.Arbitrary
+import org.scalacheck.Gen
+
+object HashMapSpec {
+  /**
+   * Key with a small hash range, so that keys often share hash prefixes or collide completely.
+   */
+  case class Key(id: Int) {
+    override def hashCode = id % 37
+  }
+}
+
+@RunWith(classOf[JUnitRunner])
+class HashMapSpec extends Specification with ScalaCheck {
+  import HashMapSpec.Key
+
+  sealed trait Operation
+  case class Put(key: Key, value: Int) extends Operation
+  case class Remove(key: Key) extends Operation
+
+  implicit val arbitraryKey: Arbitrary[Key] = Arbitrary { Gen.choose(0, 500).map(Key) }
+
+  implicit val arbitraryOperation: Arbitrary[Operation] = Arbitrary {
+    Gen.frequency(
+      (3, for (k <- Arbitrary.arbitrary[Key]; v <- Arbitrary.arbitrary[Int]) yield Put(k, v)),
+      (1, Arbitrary.arbitrary[Key].map(Remove)))
+  }
+
+  def applyPersistent(map: HashMap[Key, Integer], op: Operation) = op match {
+    case Put(k, v) => map.put(k, v)
+    case Remove(k) => map.remove(k)
+  }
+
+  def applyModel(map: Map[Key, Int], op: Operation) = op match {
+    case Put(k, v) => map + (k -> v)
+    case Remove(k) => map - k
+  }
+
+  def entries(map: HashMap[Key, Integer]): Map[Key, Int] =
+    map.asScala.map(t => (t.a, t.b.intValue)).toMap
+
+  def is =
+    "HashMap specification" ^
+      "performing any number of put/remove operations must result in the same entries as a Scala map" ! check { ops: List[Operation] =>
+        val map = ops.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val model = ops.foldLeft(Map.empty[Key, Int]) { applyModel }
+
+        map.size() must be_==(model.size)
+        map.asScala.size must be_==(model.size)
+        entries(map) must be_==(model)
+      } ^
+      "get and containsKey must agree with a Scala map" ! check { (ops: List[Operation], key: Key) =>
+        val map = ops.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val model = ops.foldLeft(Map.empty[Key, Int]) { applyModel }
+
+        map.containsKey(key) must be_==(model.contains(key))
+        map.get(key).isDefined() must be_==(model.contains(key))
+        model.get(key).forall(v => map.get(key).getValue().intValue == v) must beTrue
+      } ^
+      "updates must not modify the original map" ! check { (ops: List[Operation], more: List[Operation]) =>
+        val map = ops.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val snapshot = entries(map)
+        more.foldLeft(map) { applyPersistent }
+
+        entries(map) must be_==(snapshot)
+      } ^
+      "a transient map must produce the same result as persistent updates" ! check { (initial: List[Operation], ops: List[Operation]) =>
+        val base = initial.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val baseEntries = entries(base)
+        val builder = base.asTransient()
+        ops.foreach {
+          case Put(k, v) => builder.put(k, v)
+          case Remove(k) => builder.remove(k)
+        }
+        val expected = ops.foldLeft(base) { applyPersistent }
+        val result = builder.persistent()
+
+        result must be_==(expected)
+        result.size() must be_==(expected.size())
+        entries(base) must be_==(baseEntries)
+        builder.put(Key(0), 0) must throwA[IllegalStateException]
+      } ^
+      "equals and hashCode must follow the java.util.Map contract" ! check { ops: List[Operation] =>
+        val map = ops.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val javaMap = new java.util.HashMap[Key, Integer]
+        map.asScala.foreach(t => javaMap.put(t.a, t.b))
+
+        map.hashCode must be_==(javaMap.hashCode)
+        HashMap.copyOf[Key, Integer](javaMap) must be_==(map)
+      } ^
+      "serialization must preserve the entries" ! check { ops: List[Operation] =>
+        val map = ops.foldLeft(HashMap.empty[Key, Integer]()) { applyPersistent }
+        val (copy, _) = roundTrip(map)
+
+        copy must be_==(map)
+        entries(copy.put(Key(1), 1)) must be_==(entries(map) + (Key(1) -> 1))
+      } ^
+      "large maps must keep all entries" ! check { n: Int =>
+        val count = n & 0x3fff
+        val map = (0 until count).foldLeft(HashMap.empty[Integer, Integer]()) { (m, i) => m.put(i, i) }
+
+        map.size() must be_==(count)
+        (0 until count).forall(i => map.get(i).getValue().intValue == i) must beTrue
+        (0 until count by 2).foldLeft(map) { (m, i) => m.remove(i) }.size() must be_==(count / 2)
+      }
+
+}
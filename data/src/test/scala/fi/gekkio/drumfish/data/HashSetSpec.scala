@@ -0,0 +1,44 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class HashSetSpec extends Specification with ScalaCheck {
+
+  def setOf(elements: List[Int]) = HashSet.copyOf(elements.map(Int.box).asJava)
+
+  def is =
+    "HashSet specification" ^
+      "building a set must keep distinct elements" ! check { elements: List[Int] =>
+        val set = setOf(elements)
+        set.size() must be_==(elements.distinct.size)
+        set.asScala.map(_.intValue).toSet must be_==(elements.toSet)
+      } ^
+      "add, remove and contains must agree with a Scala set" ! check { (elements: List[Int], removed: List[Int]) =>
+        val set = removed.foldLeft(setOf(elements)) { (s, e) => s.remove(e) }
+        val model = elements.toSet -- removed
+
+        set.size() must be_==(model.size)
+        (elements ++ removed).forall(e => set.contains(e) == model.contains(e)) must beTrue
+        set.add(1).contains(1) must beTrue
+      } ^
+      "adding an existing element must return the same set" ! check { elements: List[Int] =>
+        val set = setOf(elements)
+        elements.forall(e => set.add(e) eq set) must beTrue
+      } ^
+      "equals and hashCode must follow the java.util.Set contract" ! check { elements: List[Int] =>
+        val set = setOf(elements)
+        set.hashCode must be_==(new java.util.HashSet(elements.map(Int.box).asJava).hashCode)
+        set must be_==(setOf(elements.reverse))
+      } ^
+      "serialization must preserve the elements" ! check { elements: List[Int] =>
+        val set = setOf(elements)
+        val (copy, _) = roundTrip(set)
+        copy must be_==(set)
+      }
+
+}
@@ -0,0 +1,89 @@
+package fi.gekkio.drumfish.data
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Compares hashing, equality checks and subsequence search of HashedSeq against IndexedSeq.
+ */
+object HashedSeqCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[HashedSeqCaliper], args)
+}
+
+class HashedSeqCaliper extends Benchmark {
+
+  @Param(Array("10", "1000", "100000"))
+  private[this] var elementCount: Int = _
+
+  private[this] var seq: IndexedSeq[Integer] = _
+  private[this] var otherSeq: IndexedSeq[Integer] = _
+  private[this] var hashedSeq: HashedSeq[Integer] = _
+  private[this] var otherHashedSeq: HashedSeq[Integer] = _
+  private[this] var pattern: HashedSeq[Integer] = _
+
+  override def setUp() {
+    val elements = (0 until elementCount).map(x => Int.box(x % 7))
+    seq = IndexedSeq.of(elements: _*)
+    otherSeq = IndexedSeq.of(elements: _*).set(elementCount - 1, -1)
+    hashedSeq = HashedSeq.of(elements: _*)
+    otherHashedSeq = HashedSeq.of(elements: _*).set(elementCount - 1, -1)
+    pattern = HashedSeq.of(elements.takeRight(5): _*).append(-1)
+  }
+
+  def timeIndexedSeqSetAndHashCode(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ seq.set(rep % elementCount, rep).hashCode()
+      rep += 1
+    }
+    result
+  }
+
+  def timeHashedSeqSetAndHashCode(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ hashedSeq.set(rep % elementCount, rep).hashCode()
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqUnequal(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      if (seq.equals(otherSeq)) result += 1
+      rep += 1
+    }
+    result
+  }
+
+  def timeHashedSeqUnequal(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      if (hashedSeq.equals(otherHashedSeq)) result += 1
+      rep += 1
+    }
+    result
+  }
+
+  def timeHashedSeqIndexOfSlice(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ otherHashedSeq.indexOfSlice(pattern)
+      rep += 1
+    }
+    result
+  }
+
+}
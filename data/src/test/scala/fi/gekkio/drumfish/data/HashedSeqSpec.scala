@@ -0,0 +1,88 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalacheck.Prop
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class HashedSeqSpec extends Specification with ScalaCheck {
+
+  def seqOf(elements: List[Int]): HashedSeq[Integer] = HashedSeq.of(elements.map(Int.box).asJava)
+
+  def listOf(seq: HashedSeq[Integer]): List[Int] = seq.asScala.toList.map(_.intValue)
+
+  def javaHash(elements: List[Int]): Int = elements.map(Int.box).asJava.hashCode
+
+  val smallInts = Gen.listOf(Gen.choose(0, 3))
+
+  def is =
+    "HashedSeq specification" ^
+      "building a sequence must keep the elements in order" ! check { elements: List[Int] =>
+        val seq = seqOf(elements)
+        listOf(seq) must be_==(elements)
+        seq.size() must be_==(elements.size)
+        (0 until elements.size).map(i => seq.get(i).intValue) must be_==(elements)
+      } ^
+      "hashCode must be equal to the hash code of a java.util.List" ! check { elements: List[Int] =>
+        seqOf(elements).hashCode() must be_==(javaHash(elements))
+        seqOf(elements).hashCode() must be_==(IndexedSeq.of(elements.map(Int.box).asJava).hashCode())
+      } ^
+      "hashCode must be maintained by updates" ! check { (elements: List[Int], x: Int, n: Int) =>
+        val index = if (elements.isEmpty) 0 else (n & 0xffff) % elements.size
+        val seq = seqOf(elements)
+
+        listOf(seq.insert(index, x)) must be_==(elements.patch(index, List(x), 0))
+        seq.insert(index, x).hashCode() must be_==(javaHash(elements.patch(index, List(x), 0)))
+        seq.append(x).hashCode() must be_==(javaHash(elements :+ x))
+        seq.prepend(x).hashCode() must be_==(javaHash(x :: elements))
+        if (!elements.isEmpty) {
+          listOf(seq.set(index, x)) must be_==(elements.updated(index, x))
+          seq.set(index, x).hashCode() must be_==(javaHash(elements.updated(index, x)))
+          listOf(seq.remove(index)) must be_==(elements.patch(index, Nil, 1))
+          seq.remove(index).hashCode() must be_==(javaHash(elements.patch(index, Nil, 1)))
+        }
+        seq.concat(seq).hashCode() must be_==(javaHash(elements ++ elements))
+      } ^
+      "equals must agree with a list" ! check { (a: List[Int], b: List[Int]) =>
+        (seqOf(a) == seqOf(b)) must be_==(a == b)
+        seqOf(a) must be_==(seqOf(a))
+        seqOf(a ++ b) must be_==(seqOf(a).concat(seqOf(b)))
+      } ^
+      "slice hash codes must be equal to the hash codes of slices" ! check { (elements: List[Int], n: Int, m: Int) =>
+        val size = elements.size + 1
+        val (x, y) = ((n & 0xffff) % size, (m & 0xffff) % size)
+        val (from, to) = (x min y, x max y)
+        val seq = seqOf(elements)
+
+        listOf(seq.slice(from, to)) must be_==(elements.slice(from, to))
+        seq.hashCode(from, to) must be_==(javaHash(elements.slice(from, to)))
+        seq.hashCode(from, to) must be_==(seq.slice(from, to).hashCode())
+      } ^
+      "indexOfSlice must agree with a list" ! Prop.forAll(smallInts, smallInts) { (a: List[Int], b: List[Int]) =>
+        val slice = b.take(4)
+        seqOf(a).indexOfSlice(seqOf(slice)) must be_==(a.indexOfSlice(slice))
+      } ^
+      "indexOfSlice must find slices of the sequence" ! check { (elements: List[Int], n: Int, m: Int) =>
+        val size = elements.size + 1
+        val (x, y) = ((n & 0xffff) % size, (m & 0xffff) % size)
+        val slice = elements.slice(x min y, x max y)
+
+        seqOf(elements).indexOfSlice(seqOf(slice)) must be_==(elements.indexOfSlice(slice))
+      } ^
+      "null elements must be rejected" ! {
+        HashedSeq.of(List[Integer](1, null, 2).asJava) must throwA[NullPointerException]
+        HashedSeq.of(Int.box(1), null) must throwA[NullPointerException]
+        HashedSeq.of(Int.box(1)).append(null) must throwA[NullPointerException]
+      } ^
+      "serialization must preserve the elements and the hash code" ! check { elements: List[Int] =>
+        val (copy, _) = roundTrip(seqOf(elements))
+        listOf(copy) must be_==(elements)
+        copy.hashCode() must be_==(javaHash(elements))
+        copy.append(1) must be_==(seqOf(elements :+ 1))
+      }
+
+}
@@ -0,0 +1,76 @@
+package fi.gekkio.drumfish.data
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Compares the primitive int measured tree used by IndexedSeq against a boxed FingerTree[Int, Int].
+ *
+ * Run with "-i allocation" to compare allocations in addition to running time.
+ */
+object IndexedSeqCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[IndexedSeqCaliper], args)
+}
+
+class IndexedSeqCaliper extends Benchmark {
+
+  @Param(Array("10", "1000", "100000"))
+  private[this] var elementCount: Int = _
+
+  private[this] var boxedTree: FingerTree[Int, Int] = _
+  private[this] var seq: IndexedSeq[Int] = _
+
+  override def setUp() {
+    boxedTree = indexSeqTreeFactory[Int].tree((0 until elementCount): _*)
+    seq = IndexedSeq.of((0 until elementCount): _*)
+  }
+
+  def timeBoxedTreeGet(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      val index = rep % elementCount
+      result = result ^ boxedTree.split(guavaPredicate((m: Int) => m > index), 0).pivot
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqGet(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ seq.get(rep % elementCount)
+      rep += 1
+    }
+    result
+  }
+
+  def timeBoxedTreeAppend(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      val tree = (0 until elementCount).foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+      result = result ^ tree.isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqAppend(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      val seq = (0 until elementCount).foldLeft(IndexedSeq.of[Int]()) { (s, e) => s.append(e) }
+      result = result ^ seq.isEmpty
+      rep += 1
+    }
+    result
+  }
+
+}
@@ -7,7 +7,10 @@ import org.specs2.execute.Result
 import org.specs2.runner.JUnitRunner
 import java.io.PrintStream
 import java.io.ByteArrayOutputStream
+import java.util.concurrent.Executors
+import fi.gekkio.drumfish.lang.Effect
 import fi.gekkio.drumfish.lang.Monoid
+import fi.gekkio.drumfish.lang.Monoids
 import scala.collection.JavaConverters._
 import org.scalacheck.Gen
 import org.scalacheck.Arbitrary
@@ -28,6 +31,10 @@ class IndexedSeqSpec extends Specification with ScalaCheck {
     def execute(seq: DFIndexedSeq[Int]) = seq.prepend(x)
   }
 
+  class Untouchable {
+    override def equals(other: Any) = throw new IllegalStateException("shared elements must not be compared")
+  }
+
   val operationGen: Gen[Operation] = for {
     a <- Gen.oneOf(Append, Prepend)
     b <- Arbitrary.arbitrary[Int]
@@ -86,6 +93,257 @@ class IndexedSeqSpec extends Specification with ScalaCheck {
         first must be_==(second)
       } ^
       "reverse must work correctly" ! check { seq: DFIndexedSeq[Int] => seq.reverse().asScala must containAllOf(seq.asScala.toList.reverse).inOrder } ^
-      "a double reverse must be equal to original" ! check { seq: DFIndexedSeq[Int] => seq.reverse().reverse() must be_==(seq) } ^ "fold left must work correctly" ! check { seq: DFIndexedSeq[Int] => seq.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(seq.asScala.foldLeft(0) { _ + _ }) }
+      "a double reverse must be equal to original" ! check { seq: DFIndexedSeq[Int] => seq.reverse().reverse() must be_==(seq) } ^ "fold left must work correctly" ! check { seq: DFIndexedSeq[Int] => seq.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(seq.asScala.foldLeft(0) { _ + _ }) } ^
+      "list iterator must walk elements in both directions from any index" ! check { elements: List[Int] =>
+        val seq = DFIndexedSeq.of(elements.asJava)
+
+        (0 to elements.size).forall { i =>
+          val forward = seq.listIterator(i)
+          val backward = seq.listIterator(i)
+
+          Iterator.continually(forward).takeWhile(_.hasNext).map(_.next()).toList == elements.drop(i) &&
+            forward.nextIndex() == elements.size &&
+            Iterator.continually(backward).takeWhile(_.hasPrevious).map(_.previous()).toList == elements.take(i).reverse &&
+            backward.previousIndex() == -1
+        } must beTrue
+      } ^
+      "indexOf and lastIndexOf must find the first and last occurrence of an element" ! check { elements: List[Int] =>
+        val seq = DFIndexedSeq.of(elements.map(_ % 5).asJava)
+
+        (0 until 5).forall { x =>
+          seq.indexOf(x) == elements.map(_ % 5).indexOf(x) && seq.lastIndexOf(x) == elements.map(_ % 5).lastIndexOf(x)
+        } must beTrue
+      } ^
+      "builder must result in a sequence with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val builder = DFIndexedSeq.builder[Int]()
+        elements.foreach { builder.add(_) }
+        val seq = builder.build()
+
+        seq.size() must be_==(elements.size)
+        seq.asScala.toList must be_==(elements)
+        seq must be_==(elements.foldLeft(DFIndexedSeq.of[Int]()) { (s, e) => s.append(e) })
+      } ^
+      "builder must not affect previously built sequences" ! check { elements: (List[Int], List[Int]) =>
+        val builder = DFIndexedSeq.builder[Int]().addAll(elements._1.asJava)
+        val first = builder.build()
+        val second = builder.addAll(elements._2.asJava).build()
+
+        first.asScala.toList must be_==(elements._1)
+        second.asScala.toList must be_==(elements._1 ++ elements._2)
+      } ^
+      "get and set must work at every index of sequences spanning many chunks" ! Prop.forAll(Gen.choose(0, 300), Gen.choose(0, 300)) { (n: Int, m: Int) =>
+        val elements = (0 until n + m).toList
+        val appended = (0 until n).foldLeft(DFIndexedSeq.of[Int]()) { (s, e) => s.append(e) }
+        val prepended = (n until n + m).foldRight(DFIndexedSeq.of[Int]()) { (e, s) => s.prepend(e) }
+        val seq = appended.concat(prepended)
+
+        seq.size() must be_==(elements.size)
+        seq.asScala.toList must be_==(elements)
+        elements.indices.forall { i => seq.get(i) == i && seq.set(i, -1).asScala.toList == elements.updated(i, -1) } must beTrue
+      } ^
+      "list iterator must cross chunk boundaries in both directions" ! Prop.forAll(Gen.choose(0, 200), Gen.listOf(Arbitrary.arbitrary[Boolean])) { (n: Int, moves: List[Boolean]) =>
+        val seq = DFIndexedSeq.of((0 until n).toList.asJava)
+        val it = seq.listIterator(n / 2)
+
+        var index = n / 2
+        moves.forall { forward =>
+          if (forward && index < n) {
+            index += 1
+            it.next() == index - 1
+          } else if (!forward && index > 0) {
+            index -= 1
+            it.previous() == index
+          } else {
+            it.hasNext == (index < n) && it.hasPrevious == (index > 0)
+          }
+        } must beTrue
+      } ^
+      "splitAt, take, drop and slice must match the corresponding list operations" ! Prop.forAll(Gen.choose(0, 300), Gen.choose(0, 300), Gen.choose(0, 300)) { (n: Int, i: Int, j: Int) =>
+        val elements = (0 until n).toList
+        val seq = (0 until n).foldLeft(DFIndexedSeq.of[Int]()) { (s, e) => if (e % 3 == 0) s.append(e) else s.concat(DFIndexedSeq.of(List(e).asJava)) }
+        val from = math.min(i, j) % (n + 1)
+        val to = math.max(from, math.max(i, j) % (n + 1))
+        val split = seq.splitAt(from)
+
+        split.a.asScala.toList must be_==(elements.take(from))
+        split.b.asScala.toList must be_==(elements.drop(from))
+        seq.take(from).asScala.toList must be_==(elements.take(from))
+        seq.drop(from).asScala.toList must be_==(elements.drop(from))
+        seq.slice(from, to).asScala.toList must be_==(elements.slice(from, to))
+        seq.slice(from, to).size() must be_==(to - from)
+      } ^
+      "insert and remove must match the corresponding list operations" ! Prop.forAll(Gen.listOf(Gen.choose(0, 1000)), Gen.choose(0, 100)) { (indexes: List[Int], n: Int) =>
+        val model = indexes.foldLeft((DFIndexedSeq.of((0 until n).toList.asJava), (0 until n).toList)) {
+          case ((seq, list), x) =>
+            if (x % 2 == 0 || list.isEmpty) {
+              val i = x % (list.size + 1)
+              (seq.insert(i, -x), list.take(i) ++ (-x :: list.drop(i)))
+            } else {
+              val i = x % list.size
+              (seq.remove(i), list.take(i) ++ list.drop(i + 1))
+            }
+        }
+        val (seq, list) = model
+
+        seq.size() must be_==(list.size)
+        seq.asScala.toList must be_==(list)
+        list.indices.forall { i => seq.get(i) == list(i) } must beTrue
+      } ^
+      "foldMap must combine all elements in order, also in parallel" ! Prop.forAll(Gen.choose(0, 100000)) { n: Int =>
+        val elements = (0 until n).toList
+        val seq = DFIndexedSeq.of(elements.asJava)
+        val expected = elements.map(hashOf).foldLeft(hashMonoid.mempty)(hashMonoid.mappend)
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+          seq.foldMap(hashMonoid, (x: Int) => hashOf(x)) must be_==(expected)
+          seq.parallelFoldMap(executor, hashMonoid, (x: Int) => hashOf(x)) must be_==(expected)
+        } finally {
+          executor.shutdown()
+        }
+      } ^
+      "serialization must preserve the elements" ! check { elements: (List[Int], List[Int]) =>
+        val seq = DFIndexedSeq.of(elements._1.asJava).concat(DFIndexedSeq.of(elements._2.asJava))
+        val (copy, bytes) = roundTrip(seq)
+
+        copy must be_==(seq)
+        copy.append(1).asScala.toList must be_==(elements._1 ++ elements._2 :+ 1)
+        bytes must be_<=(serializedSize(new java.util.ArrayList(seq.asList())) + 1024)
+      } ^
+      dequeAndDiffExamples
+
+  def dequeAndDiffExamples =
+    "deque operations must agree with a list" ! check { (elements: (List[Int], List[Int]), ops: List[Boolean]) =>
+        val seq = DFIndexedSeq.of(elements._1.asJava).concat(DFIndexedSeq.of(elements._2.asJava))
+        val (result, model) = ops.foldLeft((seq, elements._1 ++ elements._2)) {
+          case ((s, l), _) if l.isEmpty =>
+            s.pollFirst().isDefined() must beFalse
+            s.removeLast() must throwA[java.util.NoSuchElementException]
+            (s, l)
+          case ((s, l), true) =>
+            s.peekFirst().getValue() must be_==(l.head)
+            s.pollFirst().getValue().a must be_==(l.head)
+            (s.removeFirst(), l.tail)
+          case ((s, l), false) =>
+            s.peekLast().getValue() must be_==(l.last)
+            s.pollLast().getValue().a must be_==(l.last)
+            (s.removeLast(), l.init)
+        }
+
+        result.size() must be_==(model.size)
+        result.asScala.toList must be_==(model)
+      } ^
+      "forEach must visit the elements in order" ! Prop.forAll(Gen.choose(0, 300)) { n: Int =>
+        val seq = DFIndexedSeq.of((0 until n).asJava)
+        val buffer = scala.collection.mutable.ListBuffer[Int]()
+        seq.forEach(new Effect[Int] { def apply(input: Int) { buffer += input } })
+
+        buffer.toList must be_==((0 until n).toList)
+        seq.hashCode() must be_==(new java.util.ArrayList(seq.asList()).hashCode())
+      } ^
+      "diff must describe how to turn a sequence into a modified version of it" ! Prop.forAll(Gen.choose(0, 2000), Gen.listOf(Arbitrary.arbitrary[(Int, Int)])) { (n: Int, changes: List[(Int, Int)]) =>
+        val seq = DFIndexedSeq.of((0 until n).asJava)
+        val modified = changes.foldLeft(seq) {
+          case (s, (i, v)) if s.isEmpty() => s.append(v)
+          case (s, (i, v)) =>
+            val index = math.abs(i % s.size())
+            math.abs(v % 3) match {
+              case 0 => s.insert(index, v)
+              case 1 => s.remove(index)
+              case _ => s.set(index, v)
+            }
+        }
+        val edits = seq.diff(modified).asScala
+
+        applyEdits((0 until n).toList, modified.asScala.toList, edits) must beSome(modified.asScala.toList)
+        seq.equals(modified) must be_==(edits.isEmpty)
+      } ^
+      "diff must find replaced elements exactly" ! Prop.forAll(Gen.choose(1, 2000), Gen.listOf(Arbitrary.arbitrary[Int])) { (n: Int, indexes: List[Int]) =>
+        val changed = indexes.map(i => math.abs(i % n)).distinct.sorted
+        val seq = DFIndexedSeq.of((0 until n).asJava)
+        val modified = changed.foldLeft(seq) { (s, i) => s.set(i, -1) }
+        val edits = seq.diff(modified).asScala.toList
+
+        edits.flatMap(e => e.from until e.to) must be_==(changed)
+        edits.forall(e => e.from == e.otherFrom && e.to == e.otherTo) must beTrue
+      } ^
+      "equals and diff must handle shared chunks at different positions" ! Prop.forAll(Gen.listOf(Gen.choose(0, 1)), Gen.listOf(Gen.choose(0, 1)), Gen.listOf(Gen.choose(0, 1)), Gen.listOf(Gen.choose(0, 1))) { (a: List[Int], b: List[Int], c: List[Int], d: List[Int]) =>
+        val shared = DFIndexedSeq.of(List.fill(32)(7).map(Int.box).asJava)
+        def seqOf(l: List[Int]) = DFIndexedSeq.of(l.map(Int.box).asJava)
+        val x = seqOf(a).concat(shared).concat(seqOf(b))
+        val y = seqOf(c).concat(shared).concat(seqOf(d))
+        val (xs, ys) = (x.asScala.toList.map(_.intValue), y.asScala.toList.map(_.intValue))
+        val edits = x.diff(y).asScala
+
+        x.equals(y) must be_==(xs == ys)
+        edits.isEmpty must be_==(xs == ys)
+        applyEdits(xs, ys, edits) must beSome(ys)
+      } ^
+      "equal sequences with a shared chunk at different offsets must be equal" ! {
+        val shared = DFIndexedSeq.of(List.fill(32)(Int.box(7)).asJava)
+        val x = DFIndexedSeq.of(List(Int.box(7)).asJava).concat(shared).concat(DFIndexedSeq.of(List.fill(31)(Int.box(7)).asJava))
+        val y = DFIndexedSeq.of(List.fill(31)(Int.box(7)).asJava).concat(shared).concat(DFIndexedSeq.of(List(Int.box(7)).asJava))
+
+        x.asList() must be_==(y.asList())
+        x must be_==(y)
+        x.diff(y).isEmpty() must beTrue
+        x.hashCode() must be_==(y.hashCode())
+      } ^
+      "equals must not compare the elements of shared chunks after a change" ! {
+        val untouchable = DFIndexedSeq.of(List.fill(1000)(new Untouchable: AnyRef).asJava)
+        val seq = DFIndexedSeq.of((0 until 1000).map(Int.box(_): AnyRef).asJava).concat(untouchable)
+        val changed = seq.set(3, Int.box(-1))
+        val restored = changed.set(3, Int.box(3))
+
+        seq.equals(restored) must beTrue
+        seq.equals(changed) must beFalse
+      } ^
+      "fold and foldMap over a range must agree with a list" ! Prop.forAll(Gen.choose(0, 300), Arbitrary.arbitrary[Int], Arbitrary.arbitrary[Int]) { (n: Int, i: Int, j: Int) =>
+        val (x, y) = (math.abs(i % (n + 1)), math.abs(j % (n + 1)))
+        val (from, to) = (x min y, x max y)
+        val seq = DFIndexedSeq.of((0 until n).map(Int.box).asJava)
+
+        seq.fold(from, to, Monoids.integerSum()).intValue must be_==((from until to).sum)
+        seq.foldMap(from, to, hashMonoid, (x: Integer) => hashOf(x)) must be_==((from until to).map(hashOf).foldLeft(hashMonoid.mempty)(hashMonoid.mappend))
+        seq.fold(0, n + 1, Monoids.integerSum()) must throwA[IndexOutOfBoundsException]
+      } ^
+      viewExamples
+
+  sealed trait ViewOp
+  case class MapOp(x: Int) extends ViewOp
+  case object ReverseOp extends ViewOp
+  case class SliceOp(i: Int, j: Int) extends ViewOp
+
+  val viewOpGen: Gen[ViewOp] = Gen.oneOf(
+    Arbitrary.arbitrary[Int].map(MapOp(_)),
+    Gen.value(ReverseOp),
+    for (i <- Arbitrary.arbitrary[Int]; j <- Arbitrary.arbitrary[Int]) yield SliceOp(i, j))
+
+  def viewExamples =
+    "views must agree with the corresponding list operations" ! Prop.forAll(Gen.choose(0, 300), Gen.listOf(viewOpGen)) { (n: Int, ops: List[ViewOp]) =>
+        val seq = DFIndexedSeq.of((0 until n).map(Int.box).asJava)
+        val (view, model) = ops.foldLeft((seq.view(), (0 until n).toList)) {
+          case ((v, l), MapOp(x)) => (v.map((e: Integer) => Int.box(e * 31 + x)), l.map(_ * 31 + x))
+          case ((v, l), ReverseOp) => (v.reverse(), l.reverse)
+          case ((v, l), SliceOp(i, j)) =>
+            val (a, b) = (math.abs(i % (l.size + 1)), math.abs(j % (l.size + 1)))
+            (v.slice(a min b, a max b), l.slice(a min b, a max b))
+        }
+
+        view.size() must be_==(model.size)
+        view.asScala.toList.map(_.intValue) must be_==(model)
+        (0 until model.size).map(i => view.get(i).intValue) must be_==(model)
+        view.force().asScala.toList.map(_.intValue) must be_==(model)
+        var forEached = List[Int]()
+        view.forEach(new Effect[Integer] { def apply(e: Integer) { forEached = e.intValue :: forEached } })
+        forEached.reverse must be_==(model)
+      } ^
+      "views must apply functions only to accessed elements" ! Prop.forAll(Gen.choose(1, 2000)) { (n: Int) =>
+        var calls = 0
+        val view = DFIndexedSeq.of((0 until n).map(Int.box).asJava).view().map { (e: Integer) => calls += 1; e }.reverse().slice(0, 1)
+
+        calls must be_==(0)
+        view.get(0).intValue must be_==(n - 1)
+        calls must be_==(1)
+      }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,93 @@
+package fi.gekkio.drumfish.data
+
+import scala.collection.JavaConverters.asScalaIteratorConverter
+import scala.collection.JavaConverters.iterableAsScalaIterableConverter
+import scala.collection.JavaConverters.seqAsJavaListConverter
+
+import org.junit.runner.RunWith
+import org.scalacheck.Arbitrary
+import org.scalacheck.Gen
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class IntFingerTreeSpec extends Specification with ScalaCheck {
+
+  implicit val arbitraryTree = Arbitrary {
+    intSeqTreeGen(Gen.posNum[Int])
+  }
+
+  def appended(elements: List[Int]) = elements.foldLeft(intSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+
+  def is =
+    "IntFingerTree specification" ^
+      "appending elements to tree must result in a tree with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val tree = appended(elements)
+
+        tree.measure() must be_==(elements.size)
+        tree.asScala.toList must be_==(elements)
+      } ^
+      "prepending elements to tree must result in a tree with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val tree = elements.foldRight(intSeqTreeFactory[Int].tree()) { (e, t) => t.prepend(e) }
+
+        tree.measure() must be_==(elements.size)
+        tree.asScala.toList must be_==(elements)
+      } ^
+      "bulk construction must result in a tree with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val tree = intSeqTreeFactory[Int].tree(elements: _*)
+
+        tree.measure() must be_==(elements.size)
+        tree.asScala.toList must be_==(elements)
+        tree.reverseIterator().asScala.toList must be_==(elements.reverse)
+      } ^
+      "concat must result in a tree that includes all elements in the correct order" ! check { (left: List[Int], right: List[Int]) =>
+        val tree = appended(left).concat(intSeqTreeFactory[Int].tree(right.asJava))
+
+        tree.measure() must be_==(left.size + right.size)
+        tree.asScala.toList must be_==(left ++ right)
+      } ^
+      "split must work at any index" ! check { elements: List[Int] =>
+        val tree = appended(elements)
+
+        elements.indices.forall { i =>
+          val split = tree.split(intPredicate((m: Int) => m > i), 0)
+          split.pivot == elements(i) && split.left.asScala.toList == elements.take(i) && split.right.asScala.toList == elements.drop(i + 1)
+        } must beTrue
+      } ^
+      "find must return the element at any index" ! check { elements: List[Int] =>
+        val tree = intSeqTreeFactory[Int].tree(elements.asJava)
+
+        elements.indices.forall { i => tree.find(intPredicate((m: Int) => m > i)).getOrNull() == elements(i) } must beTrue
+        tree.find(intPredicate((m: Int) => m > elements.size)).isDefined() must beFalse
+      } ^
+      "tail and init must remove the first and last elements" ! check { elements: List[Int] =>
+        val tails = Iterator.iterate(appended(elements))(_.tail()).take(elements.size + 1).map(_.asScala.toList).toList
+        val inits = Iterator.iterate(appended(elements))(_.init()).take(elements.size + 1).map(_.asScala.toList).toList
+
+        tails must be_==(elements.tails.toList)
+        inits must be_==(elements.inits.toList)
+      } ^
+      "reverse must work correctly" ! check { tree: IntFingerTree[Int] => tree.reverse().asScala.toList must be_==(tree.asScala.toList.reverse) } ^
+      "fold left must work correctly" ! check { tree: IntFingerTree[Int] => tree.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(tree.asScala.foldLeft(0) { _ + _ }) } ^
+      "map must transform all elements" ! check { tree: IntFingerTree[Int] =>
+        tree.map(intSeqTreeFactory[Int], (x: Int) => x * 2).asScala.toList must be_==(tree.asScala.toList.map(_ * 2))
+      } ^
+      "equal trees must have equal hash codes regardless of their structure" ! check { elements: List[Int] =>
+        val first = intSeqTreeFactory[Int].tree(elements.asJava)
+        val second = elements.reverse.foldLeft(intSeqTreeFactory[Int].tree()) { (t, e) => t.prepend(e) }
+
+        first must be_==(second)
+        first.hashCode() must be_==(second.hashCode())
+        first.hashCode() must be_==(elements.asJava.hashCode())
+      } ^
+      "serialization must preserve the elements and write little more than the elements" ! check { elements: List[Int] =>
+        val appended = elements.foldLeft(serializableIntTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+        val (copy, bytes) = roundTrip(appended)
+
+        copy.asScala.toList must be_==(elements)
+        copy.measure() must be_==(elements.size)
+        bytes must be_<=(serializedSize(new java.util.ArrayList(elements.asJava)) + 1024)
+      }
+
+}
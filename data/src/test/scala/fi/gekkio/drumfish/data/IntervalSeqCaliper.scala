@@ -0,0 +1,82 @@
+package fi.gekkio.drumfish.data
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+import scala.collection.JavaConverters._
+
+import fi.gekkio.drumfish.lang.Tuple3
+
+/**
+ * Compares IntervalSeq overlap queries against a linear scan over an ArrayList.
+ */
+object IntervalSeqCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[IntervalSeqCaliper], args)
+}
+
+class IntervalSeqCaliper extends Benchmark {
+
+  @Param(Array("1000", "100000", "1000000"))
+  private[this] var intervalCount: Int = _
+
+  private[this] var seq: IntervalSeq[Integer, Integer] = _
+  private[this] var list: java.util.ArrayList[Tuple3[Integer, Integer, Integer]] = _
+  private[this] var queries: Array[Int] = _
+
+  override def setUp() {
+    val random = new java.util.Random(1)
+    // Time ranges of up to 100 units, spread over 10 units per interval on average
+    val intervals = (0 until intervalCount).map { i =>
+      val low = random.nextInt(intervalCount * 10)
+      Tuple3.of[Integer, Integer, Integer](low, low + random.nextInt(100), i)
+    }
+    seq = IntervalSeq.of(intervals.asJava)
+    list = new java.util.ArrayList(intervals.asJava)
+    queries = Array.fill(1024)(random.nextInt(intervalCount * 10))
+  }
+
+  def timeBulkLoad(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ IntervalSeq.of(list).size
+      rep += 1
+    }
+    result
+  }
+
+  def timeIntervalSeqOverlapping(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      val low = queries(rep & 1023)
+      result = result ^ seq.overlapping(low, low + 50).size
+      rep += 1
+    }
+    result
+  }
+
+  def timeLinearScanOverlapping(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      val low = queries(rep & 1023)
+      val high = low + 50
+      var count = 0
+      var i = 0
+      while (i < list.size) {
+        val interval = list.get(i)
+        if (interval.a <= high && interval.b >= low)
+          count += 1
+        i += 1
+      }
+      result = result ^ count
+      rep += 1
+    }
+    result
+  }
+
+}
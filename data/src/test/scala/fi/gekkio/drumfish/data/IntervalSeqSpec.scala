@@ -0,0 +1,68 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import scala.collection.JavaConverters._
+import org.scalacheck.Arbitrary
+import org.scalacheck.Gen
+
+import fi.gekkio.drumfish.lang.Tuple3
+
+@RunWith(classOf[JUnitRunner])
+class IntervalSeqSpec extends Specification with ScalaCheck {
+
+  case class Interval(low: Int, high: Int, value: Int)
+
+  implicit val arbitraryInterval = Arbitrary {
+    for {
+      low <- Gen.choose(-1000, 1000)
+      length <- Gen.choose(0, 200)
+      value <- Arbitrary.arbitrary[Int]
+    } yield Interval(low, low + length, value)
+  }
+
+  def tuple(i: Interval) = Tuple3.of[Integer, Integer, Integer](i.low, i.high, i.value)
+
+  def seqOf(intervals: List[Interval]): IntervalSeq[Integer, Integer] = IntervalSeq.of(intervals.map(tuple).asJava)
+
+  def intervals(list: java.lang.Iterable[Tuple3[Integer, Integer, Integer]]): List[Interval] =
+    list.asScala.toList.map(t => Interval(t.a, t.b, t.c))
+
+  // Stable sort by low endpoint, so equal low endpoints keep insertion order
+  def expectedOverlapping(list: List[Interval], low: Int, high: Int) =
+    list.filter(i => i.low <= high && i.high >= low).sortBy(_.low)
+
+  def is =
+    "IntervalSeq specification" ^
+      "building a sequence must sort the intervals by low endpoint" ! check { list: List[Interval] =>
+        val seq = seqOf(list)
+        seq.size() must be_==(list.size)
+        intervals(seq) must be_==(list.sortBy(_.low))
+      } ^
+      "inserting intervals one by one must be equivalent to bulk loading" ! check { list: List[Interval] =>
+        val seq = list.foldLeft(IntervalSeq.create[Integer, Integer]()) { (s, i) => s.insert(i.low, i.high, i.value) }
+        intervals(seq) must be_==(intervals(seqOf(list)))
+      } ^
+      "overlapping must return exactly the overlapping intervals" ! check { (list: List[Interval], query: Interval) =>
+        val seq = seqOf(list)
+        intervals(seq.overlapping(query.low, query.high)) must be_==(expectedOverlapping(list, query.low, query.high))
+        seq.overlaps(query.low, query.high) must be_==(!expectedOverlapping(list, query.low, query.high).isEmpty)
+      } ^
+      "containing must return the intervals that contain a point" ! check { (list: List[Interval], point: Int) =>
+        val p = point % 1200
+        intervals(seqOf(list).containing(p)) must be_==(expectedOverlapping(list, p, p))
+      } ^
+      "intervals where low is greater than high must be rejected" ! check { i: Interval =>
+        (i.high > i.low) ==> {
+          IntervalSeq.create[Integer, Integer]().insert(i.high, i.low, i.value) must throwA[IllegalArgumentException]
+        }
+      } ^
+      "serialization must preserve the intervals" ! check { (list: List[Interval], query: Interval) =>
+        val (copy, _) = roundTrip(seqOf(list))
+        intervals(copy) must be_==(list.sortBy(_.low))
+        intervals(copy.overlapping(query.low, query.high)) must be_==(expectedOverlapping(list, query.low, query.high))
+      }
+
+}
@@ -0,0 +1,67 @@
+package fi.gekkio.drumfish.data
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+import scala.collection.JavaConverters.seqAsJavaListConverter
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Measures how well a single lazy view tree can be unwrapped by many threads at the same time.
+ */
+object LazyTreeContentionCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[LazyTreeContentionCaliper], args)
+}
+
+class LazyTreeContentionCaliper extends Benchmark {
+
+  @Param(Array("1", "4", "16"))
+  private[this] var threadCount: Int = _
+
+  @Param(Array("1000"))
+  private[this] var elementCount: Int = _
+
+  private[this] var tree: FingerTree[Int, Int] = _
+  private[this] var executor: ExecutorService = _
+
+  override def setUp() {
+    tree = (0 until elementCount).foldLeft(indexSeqTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+    executor = Executors.newFixedThreadPool(threadCount)
+  }
+
+  override def tearDown() {
+    executor.shutdown()
+  }
+
+  def timeConcurrentUnwrap(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      val lazyTree = tree.viewL().getRight()
+      val barrier = new CyclicBarrier(threadCount)
+      val tasks = (0 until threadCount).map { _ =>
+        new Callable[Int] {
+          def call() = {
+            barrier.await()
+            lazyTree.measure() ^ lazyTree.getHeadUnsafe()
+          }
+        }
+      }
+      val futures = executor.invokeAll(tasks.asJava)
+      var i = 0
+      while (i < threadCount) {
+        result = result ^ futures.get(i).get()
+        i += 1
+      }
+      rep += 1
+    }
+    result
+  }
+
+}
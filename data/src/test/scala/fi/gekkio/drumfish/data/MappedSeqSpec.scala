@@ -0,0 +1,94 @@
+package fi.gekkio.drumfish.data
+
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Gen
+import org.scalacheck.Prop
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+
+import fi.gekkio.drumfish.lang.Effect
+
+@RunWith(classOf[JUnitRunner])
+class MappedSeqSpec extends Specification with ScalaCheck {
+
+  def withFile[A](elements: List[Int])(f: File => A): A = {
+    val file = File.createTempFile("drumfish", ".dat")
+    try {
+      val out = new DataOutputStream(new FileOutputStream(file))
+      try elements.foreach(out.writeInt) finally out.close()
+      f(file)
+    } finally {
+      file.delete()
+    }
+  }
+
+  /**
+   * Maps the elements with small segments, so even short sequences have many segments.
+   */
+  def mappedSeq[A](elements: List[Int], segmentRecords: Int)(f: MappedSeq[Integer] => A): A = withFile(elements) { file =>
+    val raf = new RandomAccessFile(file, "r")
+    try f(MappedSeq.map(raf.getChannel(), RecordCodecs.ints(), segmentRecords * 4 + 3)) finally raf.close()
+  }
+
+  def listOf(seq: MappedSeq[Integer]): List[Int] = seq.asScala.toList.map(_.intValue)
+
+  def clamp(x: Int, size: Int) = (x & 0xffff) % (size + 1)
+
+  def is =
+    "MappedSeq specification" ^
+      "mapping a file must return its records" ! check { elements: List[Int] =>
+        withFile(elements) { file =>
+          val seq = MappedSeq.map(file, RecordCodecs.ints())
+          seq.size() must be_==(elements.size.toLong)
+          listOf(seq) must be_==(elements)
+        }
+      } ^
+      "get, iterator, forEach and foldLeft must agree with a list" ! Prop.forAll(Gen.listOf(Gen.choose(-1000, 1000)), Gen.choose(1, 10)) { (elements: List[Int], segmentRecords: Int) =>
+        mappedSeq(elements, segmentRecords) { seq =>
+          var forEached = List[Int]()
+          seq.forEach(new Effect[Integer] { def apply(e: Integer) { forEached = e.intValue :: forEached } })
+
+          (0 until elements.size).map(i => seq.get(i).intValue) must be_==(elements)
+          listOf(seq) must be_==(elements)
+          forEached.reverse must be_==(elements)
+          seq.foldLeft[List[Int]](Nil, (l: List[Int], e: Integer) => e.intValue :: l).reverse must be_==(elements)
+          seq.get(elements.size) must throwA[IndexOutOfBoundsException]
+        }
+      } ^
+      "slice and concat must agree with a list" ! Prop.forAll(Gen.listOf(Gen.choose(-1000, 1000)), Gen.choose(1, 10), Gen.choose(0, 1000), Gen.choose(0, 1000)) { (elements: List[Int], segmentRecords: Int, a: Int, b: Int) =>
+        mappedSeq(elements, segmentRecords) { seq =>
+          val (x, y) = (clamp(a, elements.size), clamp(b, elements.size))
+          val (from, to) = (x min y, x max y)
+          val slice = seq.slice(from, to)
+
+          listOf(slice) must be_==(elements.slice(from, to))
+          (0 until slice.size().toInt).map(i => slice.get(i).intValue) must be_==(elements.slice(from, to))
+          listOf(seq.take(from).concat(seq.drop(from))) must be_==(elements)
+          listOf(slice.concat(seq)) must be_==(elements.slice(from, to) ++ elements)
+          listOf(slice.slice(0, slice.size() / 2)) must be_==(elements.slice(from, to).take((to - from) / 2))
+        }
+      } ^
+      "buffers must keep their byte order" ! check { elements: List[Long] =>
+        val buffer = ByteBuffer.allocate(elements.size * 8).order(ByteOrder.LITTLE_ENDIAN)
+        elements.foreach(e => buffer.putLong(e))
+        buffer.flip()
+        val seq = MappedSeq.of(RecordCodecs.longs(), buffer)
+
+        seq.asScala.toList.map(_.longValue) must be_==(elements)
+        seq.drop(elements.size min 1).asScala.toList.map(_.longValue) must be_==(elements.drop(1))
+      } ^
+      "partial records must be rejected" ! {
+        MappedSeq.of(RecordCodecs.ints(), ByteBuffer.allocate(6)) must throwA[IllegalArgumentException]
+      }
+
+}
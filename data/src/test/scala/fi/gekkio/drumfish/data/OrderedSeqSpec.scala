@@ -0,0 +1,105 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import scala.collection.JavaConverters._
+
+@RunWith(classOf[JUnitRunner])
+class OrderedSeqSpec extends Specification with ScalaCheck {
+
+  def seqOf(elements: List[Int]): OrderedSeq[Integer] = OrderedSeq.of(elements.map(Int.box).asJava)
+
+  def keys(seq: OrderedSeq[Integer]): List[Int] = seq.asScala.toList.map(_.intValue)
+
+  def is =
+    "OrderedSeq specification" ^
+      "building a sequence must sort the elements" ! check { elements: List[Int] =>
+        keys(seqOf(elements)) must be_==(elements.sorted)
+      } ^
+      "inserting elements one by one must result in a sorted sequence" ! check { elements: List[Int] =>
+        val seq = elements.foldLeft(seqOf(Nil)) { (s, e) => s.insert(e) }
+
+        seq.size() must be_==(elements.size)
+        keys(seq) must be_==(elements.sorted)
+        seq must be_==(seqOf(elements))
+      } ^
+      "remove must remove exactly one equal element if there is one" ! check { (elements: List[Int], x: Int) =>
+        val seq = seqOf(elements)
+        val expected = elements.sorted diff List(x)
+
+        keys(seq.remove(x)) must be_==(expected)
+        (seq.remove(x) eq seq) must be_==(!elements.contains(x))
+      } ^
+      "contains must agree with a list" ! check { (elements: List[Int], x: Int) =>
+        val seq = seqOf(elements)
+        seq.contains(x) must be_==(elements.contains(x))
+        elements.forall(e => seq.contains(e)) must beTrue
+      } ^
+      "kth must return the element at the given index in sorted order" ! check { elements: List[Int] =>
+        val seq = seqOf(elements)
+        val sorted = elements.sorted
+
+        (0 until sorted.size).map(i => seq.kth(i).intValue) must be_==(sorted)
+        seq.kth(sorted.size) must throwA[IndexOutOfBoundsException]
+      } ^
+      "rank must return the number of smaller elements" ! check { (elements: List[Int], x: Int) =>
+        seqOf(elements).rank(x) must be_==(elements.count(_ < x))
+      } ^
+      "median must return the lower median" ! check { elements: List[Int] =>
+        val median = seqOf(elements).median()
+        if (elements.isEmpty) median.isDefined() must beFalse
+        else median.getValue().intValue must be_==(elements.sorted.apply((elements.size - 1) / 2))
+      } ^
+      "split must separate smaller elements from the rest" ! check { (elements: List[Int], x: Int) =>
+        val split = seqOf(elements).split(x)
+        val (smaller, rest) = elements.sorted.partition(_ < x)
+
+        keys(split.a) must be_==(smaller)
+        keys(split.b) must be_==(rest)
+      } ^
+      "merge must result in a sorted sequence with the elements of both sequences" ! check { (a: List[Int], b: List[Int]) =>
+        val merged = seqOf(a).merge(seqOf(b))
+
+        merged.size() must be_==(a.size + b.size)
+        keys(merged) must be_==((a ++ b).sorted)
+        keys(merged.insert(0)) must be_==((0 :: a ++ b).sorted)
+      } ^
+      "merge must keep equal elements of this sequence first" ! check { (a: List[Int], b: List[Int]) =>
+        val comparator = new java.util.Comparator[(Int, Int)] {
+          def compare(x: (Int, Int), y: (Int, Int)) = Integer.valueOf(x._1 % 10).compareTo(y._1 % 10)
+        }
+        val left = OrderedSeq.orderedBy(comparator, a.map(x => (x, 0)).asJava)
+        val right = OrderedSeq.orderedBy(comparator, b.map(x => (x, 1)).asJava)
+
+        val expected = (a.map(x => (x, 0)) ++ b.map(x => (x, 1))).sortBy(_._1 % 10)
+        left.merge(right).asScala.toList must be_==(expected)
+      } ^
+      "merging disjoint ranges must be equivalent to concatenation" ! check { (n: Int, m: Int) =>
+        val (x, y) = (n & 0xfff, m & 0xfff)
+        val low = seqOf((0 until x).toList)
+        val high = seqOf((x until x + y).toList)
+
+        keys(low.merge(high)) must be_==((0 until x + y).toList)
+        keys(high.merge(low)) must be_==((0 until x + y).toList)
+      } ^
+      "first and last must return the smallest and greatest element" ! check { elements: List[Int] =>
+        val seq = seqOf(elements)
+        if (elements.isEmpty) {
+          seq.first().isDefined() must beFalse
+          seq.last().isDefined() must beFalse
+        } else {
+          seq.first().getValue().intValue must be_==(elements.min)
+          seq.last().getValue().intValue must be_==(elements.max)
+        }
+      } ^
+      "serialization must preserve the elements and the ordering" ! check { elements: List[Int] =>
+        val seq = seqOf(elements)
+        val (copy, _) = roundTrip(seq)
+
+        copy must be_==(seq)
+        keys(copy.insert(0)) must be_==((0 :: elements).sorted)
+      }
+
+}
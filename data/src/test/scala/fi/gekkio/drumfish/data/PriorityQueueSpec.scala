@@ -0,0 +1,69 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class PriorityQueueSpec extends Specification with ScalaCheck {
+
+  def queueOf(entries: List[(Int, Int)]): PriorityQueue[Integer, Integer] =
+    entries.foldLeft(PriorityQueue.create[Integer, Integer]()) { (q, e) => q.insert(e._1, e._2) }
+
+  def drain(queue: PriorityQueue[Integer, Integer]): List[(Int, Int)] = {
+    val polled = queue.poll()
+    if (!polled.isDefined()) Nil
+    else {
+      val entry = polled.getValue().a
+      (entry.a.intValue, entry.b.intValue) :: drain(polled.getValue().b)
+    }
+  }
+
+  // Stable sort by descending priority, so equal priorities keep insertion order
+  def expectedOrder(entries: List[(Int, Int)]): List[(Int, Int)] = entries.sortBy(e => -e._1.toLong)
+
+  def is =
+    "PriorityQueue specification" ^
+      "draining a queue must return entries by descending priority, and equal priorities in insertion order" ! check { entries: List[(Int, Int)] =>
+        drain(queueOf(entries)) must be_==(expectedOrder(entries))
+      } ^
+      "peek and topPriority must return the entry with the highest priority" ! check { entries: List[(Int, Int)] =>
+        val queue = queueOf(entries)
+        if (entries.isEmpty) {
+          queue.peek().isDefined() must beFalse
+          queue.topPriority().isDefined() must beFalse
+          queue.pop() must throwA[NoSuchElementException]
+        } else {
+          val top = expectedOrder(entries).head
+          queue.topPriority().getValue().intValue must be_==(top._1)
+          queue.peek().getValue().b.intValue must be_==(top._2)
+          queue.peekValue().intValue must be_==(top._2)
+        }
+      } ^
+      "pop must not modify the original queue" ! check { entries: List[(Int, Int)] =>
+        val queue = queueOf(entries)
+        if (!entries.isEmpty) queue.pop()
+        drain(queue) must be_==(expectedOrder(entries))
+      } ^
+      "meld must result in a queue with the entries of both queues" ! check { (a: List[(Int, Int)], b: List[(Int, Int)]) =>
+        drain(queueOf(a).meld(queueOf(b))) must be_==(expectedOrder(a ++ b))
+      } ^
+      "meld must reject queues with different comparators" ! {
+        val reversed = PriorityQueue.orderedBy[Integer, Integer](java.util.Collections.reverseOrder[Integer]()).insert(1, 1)
+        queueOf(List((2, 2))).meld(reversed) must throwA[IllegalArgumentException]
+        reversed.meld(PriorityQueue.create[Integer, Integer]()) must throwA[IllegalArgumentException]
+      } ^
+      "a custom comparator must be used for priorities" ! check { entries: List[(Int, Int)] =>
+        val reversed = entries.foldLeft(PriorityQueue.orderedBy[Integer, Integer](java.util.Collections.reverseOrder[Integer]())) { (q, e) => q.insert(e._1, e._2) }
+        val polled = reversed.poll()
+        if (entries.isEmpty) polled.isDefined() must beFalse
+        else polled.getValue().a.a.intValue must be_==(entries.map(_._1).min)
+      } ^
+      "serialization must preserve the entries and the ordering" ! check { entries: List[(Int, Int)] =>
+        val (copy, _) = roundTrip(queueOf(entries))
+        drain(copy.insert(0, 0)) must be_==(expectedOrder(entries :+ (0, 0)))
+        drain(copy.meld(queueOf(entries))) must be_==(expectedOrder(entries ++ entries))
+      }
+
+}
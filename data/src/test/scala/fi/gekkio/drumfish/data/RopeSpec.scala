@@ -0,0 +1,97 @@
+package fi.gekkio.drumfish.data
+
+import org.junit.runner.RunWith
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+import org.scalacheck.Arbitrary
+import org.scalacheck.Gen
+
+@RunWith(classOf[JUnitRunner])
+class RopeSpec extends Specification with ScalaCheck {
+
+  case class Text(value: String)
+
+  // Mostly letters with some line feeds, long enough to span several chunks
+  implicit val arbitraryText: Arbitrary[Text] = Arbitrary {
+    for {
+      length <- Gen.choose(0, Rope.CHUNK_SIZE * 4)
+      chars <- Gen.listOfN(length, Gen.frequency((10, Gen.alphaChar), (1, Gen.value('\n'))))
+    } yield Text(chars.mkString)
+  }
+
+  def ropeOf(texts: List[Text]) = texts.foldLeft(Rope.empty()) { (r, t) => r.append(t.value) }
+
+  def lineStarts(s: String) = 0 :: s.zipWithIndex.collect { case ('\n', i) => i + 1 }.toList
+
+  def is =
+    "Rope specification" ^
+      "appending text must result in the concatenated text" ! check { texts: List[Text] =>
+        val rope = ropeOf(texts)
+        val expected = texts.map(_.value).mkString
+
+        rope.toString must be_==(expected)
+        rope.length() must be_==(expected.length)
+        rope must be_==(Rope.of(expected))
+        rope.hashCode must be_==(expected.hashCode)
+      } ^
+      "charAt must return the same characters as a string" ! check { text: Text =>
+        val rope = Rope.of(text.value)
+        (0 until text.value.length).forall(i => rope.charAt(i) == text.value.charAt(i)) must beTrue
+      } ^
+      "substring must return the same text as a string" ! check { (text: Text, a: Int, b: Int) =>
+        val s = text.value
+        val (start, end) = if (s.isEmpty) (0, 0) else { val x = (a & 0xffff) % (s.length + 1); val y = (b & 0xffff) % (s.length + 1); (x min y, x max y) }
+
+        Rope.of(s).substring(start, end).toString must be_==(s.substring(start, end))
+        Rope.of(s).subSequence(start, end).length must be_==(end - start)
+      } ^
+      "insert must splice the text into the given position" ! check { (text: Text, inserted: Text, i: Int) =>
+        val s = text.value
+        val index = (i & 0xffff) % (s.length + 1)
+        val rope = Rope.of(s).insert(index, inserted.value)
+
+        rope.toString must be_==(s.substring(0, index) + inserted.value + s.substring(index))
+        rope.lineCount() must be_==(lineStarts(rope.toString).size)
+      } ^
+      "delete must remove the text between the given positions" ! check { (text: Text, a: Int, b: Int) =>
+        val s = text.value
+        val x = (a & 0xffff) % (s.length + 1)
+        val y = (b & 0xffff) % (s.length + 1)
+        val (start, end) = (x min y, x max y)
+
+        Rope.of(s).delete(start, end).toString must be_==(s.substring(0, start) + s.substring(end))
+      } ^
+      "lineStart and lineOf must agree with the line feeds of the text" ! check { texts: List[Text] =>
+        val rope = ropeOf(texts)
+        val s = rope.toString
+        val starts = lineStarts(s)
+
+        rope.lineCount() must be_==(starts.size)
+        starts.indices.map(rope.lineStart(_)).toList must be_==(starts)
+        (0 to s.length).forall(i => rope.lineOf(i) == starts.lastIndexWhere(_ <= i)) must beTrue
+      } ^
+      "equals must compare ropes with different chunk boundaries" ! check { (texts: List[Text], i: Int) =>
+        val rope = ropeOf(texts)
+        val s = rope.toString
+        val index = if (s.isEmpty) 0 else (i & 0xffff) % s.length
+        val changed = if (s.isEmpty) rope else Rope.of(s).delete(index, index + 1).insert(index, if (s.charAt(index) == 'x') "y" else "x")
+
+        rope.equals(Rope.of(s)) must beTrue
+        rope.equals(changed) must be_==(s.isEmpty)
+      } ^
+      "repeated small edits must not fragment the rope into tiny chunks" ! check { text: Text =>
+        val rope = (0 until 1000).foldLeft(Rope.of(text.value)) { (r, i) => r.insert(r.length / 2, "x") }
+        rope.length() must be_==(text.value.length + 1000)
+        // Small inserts merge into neighbouring chunks instead of creating a chunk per insert
+        serializedSize(rope) must be_<(serializedSize(Rope.of(rope.toString)) * 2)
+      } ^
+      "serialization must preserve the text" ! check { texts: List[Text] =>
+        val rope = ropeOf(texts)
+        val (copy, _) = roundTrip(rope)
+
+        copy must be_==(rope)
+        copy.append("\n").lineCount() must be_==(rope.lineCount() + 1)
+      }
+
+}
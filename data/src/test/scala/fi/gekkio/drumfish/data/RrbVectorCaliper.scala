@@ -0,0 +1,117 @@
+package fi.gekkio.drumfish.data
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Compares RrbVector against the finger tree based IndexedSeq.
+ */
+object RrbVectorCaliper {
+  def main(args: Array[String]) = CaliperMain.main(classOf[RrbVectorCaliper], args)
+}
+
+class RrbVectorCaliper extends Benchmark {
+
+  @Param(Array("10", "1000", "100000"))
+  private[this] var elementCount: Int = _
+
+  private[this] var seq: IndexedSeq[Int] = _
+  private[this] var vector: RrbVector[Int] = _
+
+  override def setUp() {
+    seq = IndexedSeq.of((0 until elementCount): _*)
+    vector = RrbVector.of((0 until elementCount): _*)
+  }
+
+  def timeIndexedSeqGet(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ seq.get(rep % elementCount)
+      rep += 1
+    }
+    result
+  }
+
+  def timeRrbVectorGet(reps: Int) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ vector.get(rep % elementCount)
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqSet(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      result = result ^ seq.set(rep % elementCount, rep).isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeRrbVectorSet(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      result = result ^ vector.set(rep % elementCount, rep).isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqAppend(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      val seq = (0 until elementCount).foldLeft(IndexedSeq.of[Int]()) { (s, e) => s.append(e) }
+      result = result ^ seq.isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeRrbVectorAppend(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      val vector = (0 until elementCount).foldLeft(RrbVector.of[Int]()) { (v, e) => v.append(e) }
+      result = result ^ vector.isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeIndexedSeqConcat(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      result = result ^ seq.concat(seq).isEmpty
+      rep += 1
+    }
+    result
+  }
+
+  def timeRrbVectorConcat(reps: Int) = {
+    var rep = 0
+
+    var result = false
+    while (rep < reps) {
+      result = result ^ vector.concat(vector).isEmpty
+      rep += 1
+    }
+    result
+  }
+
+}
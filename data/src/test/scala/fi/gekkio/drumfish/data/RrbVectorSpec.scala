@@ -0,0 +1,151 @@
+package fi.gekkio.drumfish.data
+
+import scala.collection.JavaConverters._
+
+import org.junit.runner.RunWith
+import org.scalacheck.Arbitrary
+import org.scalacheck.Gen
+import org.scalacheck.Prop
+import org.specs2.ScalaCheck
+import org.specs2.Specification
+import org.specs2.runner.JUnitRunner
+
+@RunWith(classOf[JUnitRunner])
+class RrbVectorSpec extends Specification with ScalaCheck {
+
+  sealed trait Operation {
+    def execute(vector: RrbVector[Int]): RrbVector[Int]
+    def execute(list: List[Int]): List[Int]
+  }
+  case class Append(x: Int) extends Operation {
+    def execute(vector: RrbVector[Int]) = vector.append(x)
+    def execute(list: List[Int]) = list :+ x
+  }
+  case class Prepend(x: Int) extends Operation {
+    def execute(vector: RrbVector[Int]) = vector.prepend(x)
+    def execute(list: List[Int]) = x :: list
+  }
+  case class ConcatLeft(n: Int) extends Operation {
+    def execute(vector: RrbVector[Int]) = RrbVector.of((0 until n).toList.asJava).concat(vector)
+    def execute(list: List[Int]) = (0 until n).toList ++ list
+  }
+  case class ConcatRight(n: Int) extends Operation {
+    def execute(vector: RrbVector[Int]) = vector.concat(RrbVector.of((0 until n).toList.asJava))
+    def execute(list: List[Int]) = list ++ (0 until n).toList
+  }
+  case class ConcatSelf() extends Operation {
+    def execute(vector: RrbVector[Int]) = vector.concat(vector)
+    def execute(list: List[Int]) = list ++ list
+  }
+
+  val operationGen: Gen[Operation] = Gen.frequency(
+    (4, Arbitrary.arbitrary[Int].map(Append)),
+    (4, Arbitrary.arbitrary[Int].map(Prepend)),
+    (2, Gen.choose(0, 500).map(ConcatLeft)),
+    (2, Gen.choose(0, 500).map(ConcatRight)),
+    (1, Gen.value(ConcatSelf())))
+
+  implicit val arbitraryVector = Arbitrary {
+    for {
+      elements <- Gen.listOf(Gen.posNum[Int])
+    } yield {
+      RrbVector.of(elements.asJava)
+    }
+  }
+
+  implicit val arbitraryOperation = Arbitrary { operationGen }
+
+  def is =
+    "RrbVector specification" ^
+      "appending elements to vector must result in a vector with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val vector = elements.foldLeft(RrbVector.of[Int]()) { (v, e) => v.append(e) }
+
+        vector.size() must be_==(elements.size)
+        vector.asScala.toList must be_==(elements)
+      } ^
+      "builder must result in a vector with the exact same elements in the same order" ! Prop.forAll(Gen.choose(0, 2000)) { n: Int =>
+        val builder = RrbVector.builder[Int]()
+        (0 until n).foreach { builder.add(_) }
+        val vector = builder.build()
+
+        vector.size() must be_==(n)
+        vector.asScala.toList must be_==((0 until n).toList)
+        (0 until n).forall(i => vector.get(i) == i) must beTrue
+        vector must be_==(RrbVector.of((0 until n).asJava))
+      } ^
+      "builder must not affect previously built vectors" ! check { elements: (List[Int], List[Int]) =>
+        val builder = RrbVector.builder[Int]().addAll(elements._1.asJava)
+        val first = builder.build()
+        val second = builder.addAll(elements._2.asJava).build()
+
+        first.asScala.toList must be_==(elements._1)
+        second.asScala.toList must be_==(elements._1 ++ elements._2)
+      } ^
+      "prepending elements to vector must result in a vector with the exact same elements in the same order" ! check { elements: List[Int] =>
+        val vector = elements.foldRight(RrbVector.of[Int]()) { (e, v) => v.prepend(e) }
+
+        vector.size() must be_==(elements.size)
+        vector.asScala.toList must be_==(elements)
+      } ^
+      "any sequence of append, prepend and concat operations must keep elements and indexes correct" ! Prop.forAll(Gen.listOfN(10, operationGen)) { ops: List[Operation] =>
+        val (vector, list) = ops.foldLeft((RrbVector.of[Int](), List[Int]())) { case ((v, l), op) => (op.execute(v), op.execute(l)) }
+        val array = list.toArray
+
+        vector.size() must be_==(array.length)
+        vector.asScala.toList must be_==(list)
+        vector.reverseIterator().asScala.toList must be_==(list.reverse)
+        array.indices.forall { i => vector.get(i) == array(i) } must beTrue
+      } ^
+      "set must replace the element at any index" ! Prop.forAll(Gen.listOfN(6, operationGen)) { ops: List[Operation] =>
+        val (vector, list) = ops.foldLeft((RrbVector.of[Int](), List[Int]())) { case ((v, l), op) => (op.execute(v), op.execute(l)) }
+
+        (0 until list.size by 7).forall { i =>
+          val updated = vector.set(i, -1)
+          updated.get(i) == -1 && updated.asScala.toList == list.updated(i, -1)
+        } must beTrue
+      } ^
+      "large concatenated vectors must keep elements and indexes correct" ! Prop.forAll(Gen.listOfN(6, Gen.choose(0, 20000))) { sizes: List[Int] =>
+        val vector = sizes.foldLeft(RrbVector.of[Int]()) { (v, n) => v.concat(RrbVector.of((0 until n).toList.asJava)) }
+        val array = sizes.flatMap { n => 0 until n }.toArray
+
+        vector.size() must be_==(array.length)
+        array.indices.forall { i => vector.get(i) == array(i) } must beTrue
+      } ^
+      "equals must always return true for the same vector" ! check { elements: List[Int] =>
+        val first = RrbVector.of(elements.asJava)
+        val second = elements.reverse.foldLeft(RrbVector.of[Int]()) { (v, e) => v.prepend(e) }
+
+        first must be_==(second)
+        first.hashCode() must be_==(second.hashCode())
+      } ^
+      "reverse must work correctly" ! check { vector: RrbVector[Int] => vector.reverse().asScala.toList must be_==(vector.asScala.toList.reverse) } ^
+      "map must transform all elements" ! check { vector: RrbVector[Int] => vector.map((x: Int) => x * 2).asScala.toList must be_==(vector.asScala.toList.map(_ * 2)) } ^
+      "fold left must work correctly" ! check { vector: RrbVector[Int] => vector.foldLeft(0, (a: Int, b: Int) => a + b) must be_==(vector.asScala.foldLeft(0) { _ + _ }) } ^
+      "list iterator must walk elements in both directions from any index" ! check { elements: List[Int] =>
+        val vector = RrbVector.of(elements.asJava)
+
+        (0 to elements.size).forall { i =>
+          val forward = vector.listIterator(i)
+          val backward = vector.listIterator(i)
+
+          Iterator.continually(forward).takeWhile(_.hasNext).map(_.next()).toList == elements.drop(i) &&
+            Iterator.continually(backward).takeWhile(_.hasPrevious).map(_.previous()).toList == elements.take(i).reverse
+        } must beTrue
+      } ^
+      "indexOf and lastIndexOf must find the first and last occurrence of an element" ! check { elements: List[Int] =>
+        val vector = RrbVector.of(elements.map(_ % 5).asJava)
+
+        (0 until 5).forall { x =>
+          vector.indexOf(x) == elements.map(_ % 5).indexOf(x) && vector.lastIndexOf(x) == elements.map(_ % 5).lastIndexOf(x)
+        } must beTrue
+      } ^
+      "serialization must preserve the elements" ! check { elements: (List[Int], List[Int]) =>
+        val vector = RrbVector.of(elements._1.asJava).concat(RrbVector.of(elements._2.asJava))
+        val (copy, bytes) = roundTrip(vector)
+
+        copy must be_==(vector)
+        copy.append(1).asScala.toList must be_==(elements._1 ++ elements._2 :+ 1)
+        bytes must be_<=(serializedSize(new java.util.ArrayList(vector.asList())) + 1024)
+      }
+
+}
@@ -0,0 +1,103 @@
+package fi.gekkio.drumfish.data
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+import scala.collection.JavaConverters.seqAsJavaListConverter
+
+import com.google.caliper.Benchmark
+import com.google.caliper.Param
+import com.google.caliper.runner.CaliperMain
+
+/**
+ * Measures serialization and deserialization time of finger trees and sequences, using a java.util.ArrayList with the
+ * same elements as the baseline.
+ *
+ * Serialized sizes are printed before the benchmarks are run.
+ */
+object SerializationCaliper {
+  def main(args: Array[String]) {
+    for (elementCount <- Seq(10, 1000, 100000)) {
+      val benchmark = new SerializationCaliper
+      benchmark.elementCount = elementCount
+      benchmark.setUp()
+      println("%d elements: ArrayList %d bytes, FingerTree %d bytes, IndexedSeq %d bytes, RrbVector %d bytes".format(
+        elementCount, benchmark.listBytes.length, benchmark.treeBytes.length, benchmark.seqBytes.length, benchmark.vectorBytes.length))
+    }
+    CaliperMain.main(classOf[SerializationCaliper], args)
+  }
+}
+
+class SerializationCaliper extends Benchmark {
+
+  @Param(Array("10", "1000", "100000"))
+  private var elementCount: Int = _
+
+  private var list: java.util.ArrayList[Int] = _
+  private var tree: FingerTree[Integer, Int] = _
+  private var seq: IndexedSeq[Int] = _
+  private var vector: RrbVector[Int] = _
+
+  private var listBytes: Array[Byte] = _
+  private var treeBytes: Array[Byte] = _
+  private var seqBytes: Array[Byte] = _
+  private var vectorBytes: Array[Byte] = _
+
+  override def setUp() {
+    val elements = (0 until elementCount).toList
+    list = new java.util.ArrayList(elements.asJava)
+    tree = elements.foldLeft(serializableTreeFactory[Int].tree()) { (t, e) => t.append(e) }
+    seq = IndexedSeq.of(elements.asJava)
+    vector = RrbVector.of(elements.asJava)
+
+    listBytes = serialize(list)
+    treeBytes = serialize(tree)
+    seqBytes = serialize(seq)
+    vectorBytes = serialize(vector)
+  }
+
+  private def serialize(value: AnyRef) = {
+    val bytes = new ByteArrayOutputStream
+    val out = new ObjectOutputStream(bytes)
+    out.writeObject(value)
+    out.close()
+    bytes.toByteArray
+  }
+
+  private def deserialize(bytes: Array[Byte]) = new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject()
+
+  private def timeSerialize(reps: Int, value: AnyRef) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ serialize(value).length
+      rep += 1
+    }
+    result
+  }
+
+  private def timeDeserialize(reps: Int, bytes: Array[Byte]) = {
+    var rep = 0
+
+    var result = 0
+    while (rep < reps) {
+      result = result ^ System.identityHashCode(deserialize(bytes))
+      rep += 1
+    }
+    result
+  }
+
+  def timeArrayListSerialize(reps: Int) = timeSerialize(reps, list)
+  def timeFingerTreeSerialize(reps: Int) = timeSerialize(reps, tree)
+  def timeIndexedSeqSerialize(reps: Int) = timeSerialize(reps, seq)
+  def timeRrbVectorSerialize(reps: Int) = timeSerialize(reps, vector)
+
+  def timeArrayListDeserialize(reps: Int) = timeDeserialize(reps, listBytes)
+  def timeFingerTreeDeserialize(reps: Int) = timeDeserialize(reps, treeBytes)
+  def timeIndexedSeqDeserialize(reps: Int) = timeDeserialize(reps, seqBytes)
+  def timeRrbVectorDeserialize(reps: Int) = timeDeserialize(reps, vectorBytes)
+
+}
@@ -1,12 +1,20 @@
 package fi.gekkio.drumfish
 
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
 import scala.collection.JavaConverters.seqAsJavaListConverter
 
 import org.scalacheck.Gen
 
+import com.google.common.base.Functions
+
 import fi.gekkio.drumfish.data.FingerTree
 import fi.gekkio.drumfish.data.FingerTreeFactory
 import fi.gekkio.drumfish.lang.Monoid
+import fi.gekkio.drumfish.lang.Monoids
 
 package object data {
 
@@ -14,15 +22,33 @@ package object data {
     def apply(a: A) = f.apply(a)
   }
 
+  implicit def guavaPredicate[A](f: A => Boolean) = new com.google.common.base.Predicate[A] {
+    def apply(a: A) = f.apply(a)
+  }
+
+  implicit def intPredicate(f: Int => Boolean) = new fi.gekkio.drumfish.lang.IntPredicate {
+    def apply(a: Int) = f.apply(a)
+  }
+
   implicit def drumfishFunction2[A, B, C](f: (A, B) => C) = new fi.gekkio.drumfish.lang.Function2[A, B, C] {
     def apply(a: A, b: B) = f.apply(a, b)
   }
 
-  private[this] val monoid = new Monoid[Int] {
+  val monoid = new Monoid[Int] {
     def mempty = 0
     def mappend(a: Int, b: Int) = a + b
   }
 
+  /**
+   * Non-commutative monoid that computes a polynomial hash, so any reordering of elements changes the result.
+   */
+  val hashMonoid = new Monoid[(Int, Int)] {
+    def mempty = (0, 1)
+    def mappend(a: (Int, Int), b: (Int, Int)) = (a._1 * b._2 + b._1, a._2 * b._2)
+  }
+
+  def hashOf(x: Int) = (x, 31)
+
   def indexSeqTreeFactory[T]() = FingerTreeFactory.create(monoid, (x: T) => 1)
 
   def indexSeqTreeGen[T](element: Gen[T]): Gen[FingerTree[Int, T]] = for {
@@ -31,4 +57,61 @@ package object data {
     indexSeqTreeFactory[T].tree(elements.asJava)
   }
 
-}
\ No newline at end of file
+  def intSeqTreeFactory[T]() = IntFingerTreeFactory.create(Monoids.intSum(), new fi.gekkio.drumfish.lang.ToIntFunction[T] {
+    def apply(x: T) = 1
+  })
+
+  def intSeqTreeGen[T](element: Gen[T]): Gen[IntFingerTree[T]] = for {
+    elements <- Gen.listOf(element)
+  } yield {
+    intSeqTreeFactory[T].tree(elements.asJava)
+  }
+
+  /**
+   * Finger tree factory that can be serialized, unlike the factories above which use anonymous functions.
+   */
+  def serializableTreeFactory[T]() = FingerTreeFactory.create[Integer, T](Monoids.integerSum(), Functions.constant[Integer](1).asInstanceOf[com.google.common.base.Function[T, Integer]])
+
+  object SerializableOne extends fi.gekkio.drumfish.lang.ToIntFunction[Any] with Serializable {
+    def apply(x: Any) = 1
+  }
+
+  def serializableIntTreeFactory[T]() = IntFingerTreeFactory.create[T](Monoids.intSum(), SerializableOne)
+
+  /**
+   * Serializes and deserializes the given value, and returns the copy and the number of serialized bytes.
+   */
+  def roundTrip[A](value: A): (A, Int) = {
+    val bytes = new ByteArrayOutputStream
+    val out = new ObjectOutputStream(bytes)
+    out.writeObject(value)
+    out.close()
+    val in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray))
+    (in.readObject().asInstanceOf[A], bytes.size)
+  }
+
+  def serializedSize(value: AnyRef) = roundTrip(value)._2
+
+  /**
+   * Replaces the changed ranges of the old elements with the corresponding elements from the updated elements, or
+   * returns None if the unchanged ranges between the edits do not line up.
+   */
+  def applyEdits[T](old: List[T], updated: List[T], edits: Seq[Edit]): Option[List[T]] = {
+    val result = List.newBuilder[T]
+    var pos = 0
+    var otherPos = 0
+    for (edit <- edits) {
+      if (edit.from < pos || edit.to < edit.from || edit.otherTo < edit.otherFrom || edit.from - pos != edit.otherFrom - otherPos)
+        return None
+      result ++= old.slice(pos, edit.from)
+      result ++= updated.slice(edit.otherFrom, edit.otherTo)
+      pos = edit.to
+      otherPos = edit.otherTo
+    }
+    if (old.size - pos != updated.size - otherPos)
+      return None
+    result ++= old.drop(pos)
+    Some(result.result)
+  }
+
+}
@@ -0,0 +1,16 @@
+package fi.gekkio.drumfish.lang;
+
+/**
+ * Monoid specialized for primitive int values.
+ * <p>
+ * Avoids the boxing that {@code Monoid<Integer>} requires.
+ * 
+ * @see Monoid
+ */
+public interface IntMonoid {
+
+    int mempty();
+
+    int mappend(int a, int b);
+
+}
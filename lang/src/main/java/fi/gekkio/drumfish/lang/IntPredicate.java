@@ -0,0 +1,19 @@
+package fi.gekkio.drumfish.lang;
+
+/**
+ * Predicate specialized for primitive int values.
+ * <p>
+ * Roughly equivalent to Java 8 {@code java.util.function.IntPredicate}.
+ */
+public interface IntPredicate {
+
+    /**
+     * Evaluates this predicate with the given input value.
+     * 
+     * @param input
+     *            input value
+     * @return true if the input matches the predicate, false otherwise
+     */
+    boolean apply(int input);
+
+}
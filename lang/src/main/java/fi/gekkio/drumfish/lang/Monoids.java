@@ -62,6 +62,54 @@ public final class Monoids {
         return IntegerProduct.INSTANCE;
     }
 
+    static class IntSum implements IntMonoid, Serializable {
+        private static final long serialVersionUID = 4325958741384040581L;
+
+        private static final IntSum INSTANCE = new IntSum();
+
+        @Override
+        public int mempty() {
+            return 0;
+        }
+
+        @Override
+        public int mappend(int a, int b) {
+            return a + b;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    public static IntMonoid intSum() {
+        return IntSum.INSTANCE;
+    }
+
+    static class LongSum implements Monoid<Long>, Serializable {
+        private static final long serialVersionUID = 7163359472281130954L;
+
+        private static final LongSum INSTANCE = new LongSum();
+
+        @Override
+        public Long mempty() {
+            return 0L;
+        }
+
+        @Override
+        public Long mappend(Long a, Long b) {
+            return a + b;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return INSTANCE;
+        }
+    }
+
+    public static Monoid<Long> longSum() {
+        return LongSum.INSTANCE;
+    }
+
     public static <T> void verifyMonoidLaws(Monoid<T> monoid, Supplier<T> generator) {
         {
             // Associativity
@@ -0,0 +1,24 @@
+package fi.gekkio.drumfish.lang;
+
+import javax.annotation.Nullable;
+
+/**
+ * Function that returns a primitive int value.
+ * <p>
+ * Roughly equivalent to Java 8 {@code java.util.function.ToIntFunction}.
+ * 
+ * @param <T>
+ *            input type
+ */
+public interface ToIntFunction<T> {
+
+    /**
+     * Evaluates this function with the given input value.
+     * 
+     * @param input
+     *            input value
+     * @return result value
+     */
+    int apply(@Nullable T input);
+
+}